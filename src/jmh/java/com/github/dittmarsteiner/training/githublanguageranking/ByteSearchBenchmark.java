@@ -0,0 +1,112 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.training.githublanguageranking.PipelineBenchmark.Throughput;
+
+/**
+ * The {@link ByteSearch scalar and vector byte search} on the same
+ * generated hour of 100,000 events as {@link PipelineBenchmark}: finding
+ * every newline, every quote or backslash, and the whole split, extract and
+ * count with the one {@link ByteSearch#best()} picks. Each fork runs with
+ * {@code --add-modules jdk.incubator.vector}, so it needs JDK 17+.
+ *
+ * <pre>
+ * $ mvn -Pjmh test-compile exec:exec -Djmh.args="ByteSearchBenchmark"
+ * </pre>
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ByteSearchBenchmark {
+
+    @Param({ "scalar", "vector" })
+    public String search;
+
+    private ByteSearch bytes;
+    private byte[] json;
+    private long lines;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // before anything touches ByteSearch.best()
+        System.setProperty(ByteSearch.PROPERTY, String.valueOf(search.equals("vector")));
+        bytes = search.equals("vector") ? ByteSearch.vector() : new ByteSearch.Scalar();
+        if (bytes == null || !bytes.toString().equals(ByteSearch.best().toString())) {
+            throw new IllegalStateException("No " + search + " search, best is " + ByteSearch.best());
+        }
+        ByteArrayOutputStream generated = new ByteArrayOutputStream(1 << 26);
+        new EventGenerator(42).write(generated, 100_000, LocalDateTime.of(2016, 3, 14, 15, 0));
+        json = generated.toByteArray();
+        lines = newlines(new Throughput());
+    }
+
+    @Benchmark
+    public long newlines(Throughput throughput) {
+        long found = 0;
+        for (int i = 0; (i = bytes.indexOfNewline(json, i, json.length)) >= 0; i++) {
+            found++;
+        }
+        throughput.add(json.length, found);
+        return found;
+    }
+
+    @Benchmark
+    public long quotes(Throughput throughput) {
+        long found = 0;
+        for (int i = 0; (i = bytes.indexOfQuoteOrBackslash(json, i, json.length)) >= 0; i++) {
+            found++;
+        }
+        throughput.add(json.length, lines);
+        return found;
+    }
+
+    @Benchmark
+    public LanguageCounts splitExtractCount(Throughput throughput) {
+        EventCounter counter = new EventCounter();
+        LineSplitter splitter = new LineSplitter(counter);
+        splitter.feed(json, 0, json.length);
+        splitter.finish();
+        throughput.add(json.length, lines);
+        return counter.counts();
+    }
+}
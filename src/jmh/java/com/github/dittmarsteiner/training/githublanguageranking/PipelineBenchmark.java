@@ -0,0 +1,256 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * One benchmark per download-free pipeline stage, on one generated hour of
+ * 100,000 events (see {@link EventGenerator}). Besides invocations per
+ * second each reports {@code megabytes} (of the stage's input) and
+ * {@code events} per second; run with {@code -prof gc} for the allocation
+ * rate.
+ *
+ * <pre>
+ * $ mvn -Pjmh test-compile exec:exec [-Djmh.args="-prof gc PipelineBenchmark.extract"]
+ * </pre>
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /** Per-invocation work, reported as rates. */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            events = 0;
+        }
+
+        void add(long bytes, long events) {
+            megabytes += bytes / 1e6;
+            this.events += events;
+        }
+    }
+
+    private static final int LANGUAGES = 300;
+
+    private byte[] json;
+    private byte[] gz;
+    private int lines;
+    private int[] lineFrom;
+    private int[] lineTo;
+    private int languages;
+    private int[] languageFrom;
+    private int[] languageTo;
+    private final LanguageDictionary dictionary = new LanguageDictionary();
+    private final LanguageCounts counts = new LanguageCounts();
+    private LanguageCounts histogram;
+    private final EventScanner scanner = new EventScanner();
+    private final StringBuilder csv = new StringBuilder(1 << 16);
+    private final CsvEncoder encoder = new CsvEncoder();
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1 << 16);
+    private Ranking ranking;
+    private ByteBuffer columns;
+    private final ColumnStore.Selection pullRequests = new ColumnStore.Selection()
+            .withTypes(List.of("PullRequestEvent")).withSketches(false);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ByteArrayOutputStream generated = new ByteArrayOutputStream(1 << 26);
+        new EventGenerator(42).write(generated, 100_000, LocalDateTime.of(2016, 3, 14, 15, 0));
+        json = generated.toByteArray();
+        gz = Fixtures.gzip(json);
+
+        lineFrom = new int[100_000];
+        lineTo = new int[lineFrom.length];
+        languageFrom = new int[lineFrom.length];
+        languageTo = new int[lineFrom.length];
+        LineSplitter splitter = new LineSplitter((buf, from, to) -> {
+            lineFrom[lines] = from;
+            lineTo[lines++] = to;
+            scanner.scan(buf, from, to);
+            Field language = scanner.language();
+            if (language != null) {
+                languageFrom[languages] = scanner.start(language);
+                languageTo[languages++] = scanner.end(language);
+            }
+        });
+        splitter.feed(json, 0, json.length);
+        splitter.finish();
+
+        ColumnStore.Rows rows = new ColumnStore.Rows();
+        LanguageCounts extracted = LanguageRanking.count(new ByteArrayInputStream(json),
+                new EventCounter().withColumns(rows));
+        columns = ByteBuffer.wrap(
+                ColumnStore.encode(rows, extracted.types(), extracted.dictionary()));
+
+        // a realistic cardinality for ranking and export, Zipf-like counts
+        histogram = new LanguageCounts();
+        for (int i = 1; i <= LANGUAGES; i++) {
+            for (int n = 100_000 / i; n > 0; n--) {
+                histogram.add("Language-" + i);
+            }
+        }
+        ranking = Ranking.all(histogram, Method.ORDINAL);
+    }
+
+    @Benchmark
+    public long inflate(Throughput throughput) throws IOException {
+        byte[] block = new byte[1 << 16];
+        long size = 0;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz), 1 << 16)) {
+            int n;
+            while ((n = in.read(block)) >= 0) {
+                size += n;
+            }
+        }
+        throughput.add(size, lines); // inflated bytes
+        return size;
+    }
+
+    @Benchmark
+    public long split(Throughput throughput, Blackhole blackhole) {
+        LineSplitter splitter = new LineSplitter((buf, from, to) -> blackhole.consume(to));
+        splitter.feed(json, 0, json.length);
+        splitter.finish();
+        throughput.add(json.length, splitter.lines());
+        return splitter.lines();
+    }
+
+    @Benchmark
+    public int extract(Throughput throughput) {
+        int found = 0;
+        for (int i = 0; i < lines; i++) {
+            scanner.scan(json, lineFrom[i], lineTo[i]);
+            if (scanner.language() != null) {
+                found++;
+            }
+        }
+        throughput.add(json.length, lines);
+        return found;
+    }
+
+    @Benchmark
+    public int intern(Throughput throughput) {
+        int ids = 0;
+        for (int i = 0; i < languages; i++) {
+            ids += dictionary.id(json, languageFrom[i], languageTo[i]);
+        }
+        throughput.add(bytes(languageFrom, languageTo, languages), languages);
+        return ids;
+    }
+
+    @Benchmark
+    public LanguageCounts count(Throughput throughput) {
+        for (int i = 0; i < languages; i++) {
+            counts.add(json, languageFrom[i], languageTo[i]);
+        }
+        throughput.add(bytes(languageFrom, languageTo, languages), languages);
+        return counts;
+    }
+
+    @Benchmark
+    public LanguageCounts splitExtractCount(Throughput throughput) {
+        EventCounter counter = new EventCounter();
+        LineSplitter splitter = new LineSplitter(counter);
+        splitter.feed(json, 0, json.length);
+        splitter.finish();
+        throughput.add(json.length, lines);
+        return counter.counts();
+    }
+
+    @Benchmark
+    public LanguageCounts scanColumns(Throughput throughput) throws IOException {
+        throughput.add(0, lines);
+        return ColumnStore.scan(columns, pullRequests);
+    }
+
+    @Benchmark
+    public Object rank(Throughput throughput) {
+        throughput.add(0, histogram.size());
+        return CsvExport.rank(histogram);
+    }
+
+    @Benchmark
+    public Ranking rankTop20(Throughput throughput) {
+        throughput.add(0, histogram.size());
+        return Ranking.top(histogram, 20, Method.COMPETITION);
+    }
+
+    @Benchmark
+    public int export(Throughput throughput) throws IOException {
+        csv.setLength(0);
+        CsvExport.write(histogram, csv);
+        throughput.add(csv.length(), histogram.size());
+        return csv.length();
+    }
+
+    @Benchmark
+    public int encode(Throughput throughput) throws IOException {
+        encoded.reset();
+        encoder.write(ranking, encoded);
+        throughput.add(encoded.size(), ranking.size());
+        return encoded.size();
+    }
+
+    private static long bytes(int[] from, int[] to, int n) {
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            bytes += to[i] - from[i];
+        }
+        return bytes;
+    }
+}
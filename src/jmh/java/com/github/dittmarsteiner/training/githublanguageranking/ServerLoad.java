@@ -0,0 +1,155 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A load test of the {@link RankingServer}: concurrent clients repeat a mix
+ * of ranking queries with keep-alive connections and gzip, a share of them
+ * revalidating with {@code If-None-Match}, and the latency percentiles of
+ * the cached responses are printed. Without {@code --url} it starts a server
+ * in-process on generated hours.
+ *
+ * <pre>
+ * $ mvn -Pjmh test-compile exec:exec -Djmh.main=com.github.dittmarsteiner.training.githublanguageranking.ServerLoad \
+ *       -Djmh.args="[--url http://host:port] [--clients 16] [--requests 20000] [--queries 50]"
+ * </pre>
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ServerLoad {
+
+    private ServerLoad() {
+    }
+
+    /**
+     * @param args see above
+     * @throws Exception on failure
+     */
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = Arguments.parse(args, "url", "clients", "requests", "queries");
+        int clients = arguments.getInt("clients", 16);
+        int requests = arguments.getInt("requests", 20_000);
+        int queries = arguments.getInt("queries", 50);
+
+        RankingServer server = null;
+        String base = arguments.get("url", null);
+        if (base == null) {
+            LanguageRanking.noDelay();
+            LanguageCounts hour = new EventGenerator(42).write(OutputStream.nullOutputStream(), 20_000,
+                    HourRange.parseHour("2016-03-14-0"));
+            server = new RankingServer(new InetSocketAddress("127.0.0.1", 0), (range, missing) -> {
+                LanguageCounts counts = new LanguageCounts();
+                for (int i = 0; i < range.size(); i++) {
+                    counts.merge(hour);
+                }
+                return counts;
+            }, 16, 64 << 20);
+            base = "http://127.0.0.1:" + server.port();
+        }
+
+        List<URI> uris = new ArrayList<>();
+        String[] formats = { "csv", "json" };
+        String[] types = { "", "&types=PullRequestEvent", "&types=ForkEvent,PullRequestEvent" };
+        for (int i = 0; i < queries; i++) {
+            uris.add(URI.create(base + "/ranking?from=2016-03-14-0&to=2016-03-" + (14 + i % 7) + '-' + (i % 24)
+                    + "&top=" + (10 + i % 5 * 10) + types[i % types.length] + "&format=" + formats[i % 2]));
+        }
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        String[] etags = new String[uris.size()];
+        for (int i = 0; i < uris.size(); i++) { // warm the cache
+            etags[i] = send(client, uris.get(i), null).headers().firstValue("ETag").orElse(null);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long[] all = new long[0];
+        long start = System.nanoTime();
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int seed = c;
+                results.add(pool.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(seed);
+                    long[] latencies = new long[requests / clients];
+                    for (int r = 0; r < latencies.length; r++) {
+                        int q = random.nextInt(uris.size());
+                        long t = System.nanoTime();
+                        send(client, uris.get(q), random.nextInt(4) == 0 ? etags[q] : null);
+                        latencies[r] = System.nanoTime() - t;
+                    }
+                    return latencies;
+                }));
+            }
+            for (Future<long[]> result : results) {
+                long[] latencies = result.get();
+                int n = all.length;
+                all = Arrays.copyOf(all, n + latencies.length);
+                System.arraycopy(latencies, 0, all, n, latencies.length);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            if (server != null) {
+                server.close();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(all);
+
+        System.out.printf(Locale.ROOT, "%d requests by %d clients in %.1f s, %.0f requests/s%n", all.length,
+                clients, elapsed / 1e9, all.length / (elapsed / 1e9));
+        System.out.printf(Locale.ROOT, "p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                percentile(all, 0.999), all[all.length - 1] / 1e6);
+    }
+
+    private static HttpResponse<byte[]> send(HttpClient client, URI uri, String etag)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip");
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200 && response.statusCode() != 304) {
+            throw new IOException(uri + " answered " + response.statusCode());
+        }
+        return response;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
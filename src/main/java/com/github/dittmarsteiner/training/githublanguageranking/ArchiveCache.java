@@ -0,0 +1,430 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local directory of downloaded archives, e.g.
+ * {@code 2016-03-14-15.json.gz}, each with a {@code .properties} entry
+ * holding its size, SHA-256, {@code ETag} and {@code Last-Modified}.
+ * <p>
+ * Historic hours never change: an entry validated within {@code maxAge} is
+ * a hit and served without touching the network. An older entry is
+ * revalidated with a conditional request and reused on 304, or served stale
+ * if the origin cannot be reached. A hit is checked against its SHA-256 as
+ * it is read, a mismatch fails on close. A miss is
+ * recorded while the caller streams it, so a download is still read only
+ * once. Least recently used entries are evicted once the directory exceeds
+ * its size budget.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ArchiveCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveCache.class);
+
+    private static final String ENTRY = ".properties";
+    private static final String SIZE = "size";
+    private static final String SHA256 = "sha256";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String VALIDATED = "validated";
+    private static final String ACCESSED = "accessed";
+
+    private final Path dir;
+    private final long budget;
+    private final long maxAgeMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param dir the cache directory, created if missing
+     * @param budget the maximum total size of the cached archives in bytes
+     * @param maxAge how long an entry is trusted without revalidation
+     * @throws IOException if the directory cannot be created
+     */
+    public ArchiveCache(Path dir, long budget, Duration maxAge) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.budget = budget;
+        this.maxAgeMillis = maxAge.toMillis();
+    }
+
+    /**
+     * Opens the archive from the cache, revalidating or downloading it if
+     * necessary. A download is committed to the cache when the returned
+     * stream is closed, after reading whatever the caller left.
+     *
+     * @param url the archive
+     * @return the compressed archive, to be closed by the caller
+     * @throws FileNotFoundException if the archive does not exist
+     * @throws IOException on download or read failure
+     */
+    public InputStream open(URL url) throws IOException {
+        long start = System.nanoTime();
+        String name = name(url);
+        Path file = dir.resolve(name);
+        Properties entry = read(name);
+        if (entry != null && Files.size(file) != Long.parseLong(entry.getProperty(SIZE))) {
+            log.warn("Dropping inconsistent cache entry {}", name);
+            invalidate(url);
+            entry = null;
+        }
+
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            long size = Long.parseLong(entry.getProperty(SIZE));
+            if (now - Long.parseLong(entry.getProperty(VALIDATED)) < maxAgeMillis) {
+                hits.incrementAndGet();
+            }
+            else {
+                ArchiveFetcher.Response response;
+                try {
+                    response = ArchiveFetcher.open(url, entry.getProperty(ETAG),
+                            entry.getProperty(LAST_MODIFIED));
+                }
+                catch (FileNotFoundException e) {
+                    throw e;
+                }
+                catch (IOException e) {
+                    log.warn("Serving stale {}, revalidation failed: {}", name, e.toString());
+                    response = null;
+                }
+                if (response == null) {
+                    stale.incrementAndGet();
+                }
+                else if (!response.notModified()) {
+                    misses.incrementAndGet();
+                    return new Recording(name, response);
+                }
+                else {
+                    revalidated.incrementAndGet();
+                    entry.setProperty(VALIDATED, Long.toString(now));
+                }
+            }
+            entry.setProperty(ACCESSED, Long.toString(now));
+            write(name, entry);
+            bytesSaved.addAndGet(size);
+            log.info("Cache hit {}: {} bytes saved in {} ms", name, size,
+                    (System.nanoTime() - start) / 1_000_000);
+            String sha256 = entry.getProperty(SHA256);
+            InputStream in = Files.newInputStream(file);
+            return sha256 == null ? in : new Verifying(name, in, sha256);
+        }
+
+        misses.incrementAndGet();
+        return new Recording(name, ArchiveFetcher.open(url, null, null));
+    }
+
+    /**
+     * Drops the entry, e.g. after its contents turned out to be corrupt.
+     *
+     * @param url the archive
+     * @throws IOException if the files cannot be deleted
+     */
+    public void invalidate(URL url) throws IOException {
+        String name = name(url);
+        Files.deleteIfExists(dir.resolve(name + ENTRY));
+        Files.deleteIfExists(dir.resolve(name));
+    }
+
+    /**
+     * Logs hits, revalidations, misses and the bytes saved so far.
+     */
+    public void logSummary() {
+        log.info("Archive cache: {} hits, {} revalidated, {} stale, {} misses, {} bytes saved",
+                hits.get(), revalidated.get(), stale.get(), misses.get(), bytesSaved.get());
+    }
+
+    /**
+     * @return the number of entries served without network access
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of entries confirmed by a 304
+     */
+    public long revalidated() {
+        return revalidated.get();
+    }
+
+    /**
+     * @return the number of entries served because revalidation failed
+     */
+    public long stale() {
+        return stale.get();
+    }
+
+    /**
+     * @return the number of downloads
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    static String name(URL url) {
+        String path = url.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.isEmpty() ? "index" : name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private Properties read(String name) throws IOException {
+        Properties entry = new Properties();
+        try (Reader reader = Files.newBufferedReader(dir.resolve(name + ENTRY))) {
+            entry.load(reader);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        if (entry.getProperty(SIZE) == null || entry.getProperty(VALIDATED) == null
+                || !Files.exists(dir.resolve(name))) {
+            return null;
+        }
+        return entry;
+    }
+
+    private void write(String name, Properties entry) throws IOException {
+        Path temp = Files.createTempFile(dir, name, ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            entry.store(writer, null);
+        }
+        Files.move(temp, dir.resolve(name + ENTRY), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void evict() throws IOException {
+        List<Properties> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ENTRY)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Properties entry = read(name.substring(0, name.length() - ENTRY.length()));
+                if (entry != null) {
+                    entry.setProperty("name", name.substring(0, name.length() - ENTRY.length()));
+                    entries.add(entry);
+                    total += Long.parseLong(entry.getProperty(SIZE));
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(e -> Long.parseLong(e.getProperty(ACCESSED, "0"))));
+        for (Properties entry : entries) {
+            if (total <= budget) {
+                break;
+            }
+            String name = entry.getProperty("name");
+            Files.deleteIfExists(dir.resolve(name + ENTRY));
+            Files.deleteIfExists(dir.resolve(name));
+            total -= Long.parseLong(entry.getProperty(SIZE));
+            log.info("Evicted {} from the archive cache", name);
+        }
+    }
+
+    /**
+     * Digests a cached archive while it is read, and compares the digest
+     * with the entry on close, after reading whatever the caller left.
+     */
+    private static final class Verifying extends FilterInputStream {
+
+        private final String name;
+        private final String sha256;
+        private final MessageDigest digest = sha256();
+
+        Verifying(String name, InputStream in, String sha256) {
+            super(in);
+            this.name = name;
+            this.sha256 = sha256;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                digest.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            return Math.max(0, read(skipped, 0, skipped.length));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                byte[] rest = new byte[8192];
+                while (read(rest, 0, rest.length) >= 0) {
+                    // drain what the caller did not need, e.g. padding
+                }
+                if (!hex(digest.digest()).equals(sha256)) {
+                    throw new IOException("Checksum mismatch in cached " + name);
+                }
+            }
+            finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Copies the body into a temporary file while it is read and commits it
+     * on close.
+     */
+    private final class Recording extends FilterInputStream {
+
+        private final String name;
+        private final ArchiveFetcher.Response response;
+        private final Path temp;
+        private final OutputStream out;
+        private final MessageDigest digest = sha256();
+        private long size;
+        private boolean failed;
+
+        Recording(String name, ArchiveFetcher.Response response) throws IOException {
+            super(response.body);
+            this.name = name;
+            this.response = response;
+            temp = Files.createTempFile(dir, name, ".tmp");
+            out = Files.newOutputStream(temp);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    out.write(b, off, n);
+                    digest.update(b, off, n);
+                    size += n;
+                }
+                return n;
+            }
+            catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            return Math.max(0, read(skipped, 0, skipped.length));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!failed) {
+                    byte[] rest = new byte[8192];
+                    while (read(rest, 0, rest.length) >= 0) {
+                        // drain what the caller did not need, e.g. padding
+                    }
+                }
+            }
+            finally {
+                out.close();
+                super.close();
+                if (failed || (response.length >= 0 && size != response.length)) {
+                    Files.deleteIfExists(temp);
+                }
+                else {
+                    commit();
+                }
+            }
+        }
+
+        private void commit() throws IOException {
+            Files.move(temp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            String now = Long.toString(System.currentTimeMillis());
+            Properties entry = new Properties();
+            entry.setProperty(SIZE, Long.toString(size));
+            entry.setProperty(SHA256, hex(digest.digest()));
+            if (response.etag != null) {
+                entry.setProperty(ETAG, response.etag);
+            }
+            if (response.lastModified != null) {
+                entry.setProperty(LAST_MODIFIED, response.lastModified);
+            }
+            entry.setProperty(VALIDATED, now);
+            entry.setProperty(ACCESSED, now);
+            write(name, entry);
+            log.debug("Cached {} ({} bytes)", name, size);
+            evict();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
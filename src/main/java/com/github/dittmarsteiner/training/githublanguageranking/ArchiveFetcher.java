@@ -0,0 +1,154 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+
+/**
+ * Opens the body of an archive URL as a stream, following redirects across
+ * protocols (githubarchive moved from http to https). The bytes and time
+ * of the body reads are counted in the {@link Metrics}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ArchiveFetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFetcher.class);
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+
+    private ArchiveFetcher() {
+    }
+
+    /**
+     * Opens the raw (still compressed) response body. The caller reads it
+     * while it is arriving and must close it.
+     *
+     * @param url an {@code http(s):} or {@code file:} URL
+     * @return the response body
+     * @throws FileNotFoundException if the archive does not exist
+     * @throws IOException on connection failure or any other non-2xx status
+     */
+    public static InputStream open(URL url) throws IOException {
+        return open(url, null, null).body;
+    }
+
+    /**
+     * Opens the response, conditionally if a validator is given.
+     *
+     * @param url an {@code http(s):} or {@code file:} URL
+     * @param etag sent as {@code If-None-Match}, may be {@code null}
+     * @param lastModified sent as {@code If-Modified-Since}, may be
+     *            {@code null}
+     * @return the response, without body if {@link Response#notModified()}
+     * @throws FileNotFoundException if the archive does not exist
+     * @throws IOException on connection failure or any other non-2xx status
+     */
+    public static Response open(URL url, String etag, String lastModified) throws IOException {
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (!(connection instanceof HttpURLConnection)) {
+                return new Response(HttpURLConnection.HTTP_OK, null, null,
+                        connection.getContentLengthLong(), metered(connection.getInputStream()));
+            }
+
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setInstanceFollowRedirects(false);
+            if (etag != null) {
+                http.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                http.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return new Response(status, etag, lastModified, 0, null);
+            }
+            if (status >= 300 && status < 400) {
+                String location = http.getHeaderField("Location");
+                http.disconnect();
+                if (location == null) {
+                    throw new IOException("Redirect without location: " + url);
+                }
+                url = new URL(url, location);
+                log.debug("Redirected to {}", url);
+                continue;
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                http.disconnect();
+                throw new FileNotFoundException(url.toString());
+            }
+            if (status / 100 != 2) {
+                http.disconnect();
+                throw new IOException("HTTP " + status + ": " + url);
+            }
+            log.info("Streaming {} ({} bytes)", url, http.getContentLengthLong());
+            return new Response(status, http.getHeaderField("ETag"),
+                    http.getHeaderField("Last-Modified"), http.getContentLengthLong(),
+                    metered(http.getInputStream()));
+        }
+        throw new IOException("Too many redirects: " + url);
+    }
+
+    private static InputStream metered(InputStream body) {
+        return Metrics.metered(body, Counter.BYTES_DOWNLOADED, Counter.FETCH_NANOS);
+    }
+
+    /**
+     * A successful or not modified response.
+     */
+    public static final class Response {
+
+        final int status;
+        final String etag;
+        final String lastModified;
+        final long length;
+        final InputStream body;
+
+        Response(int status, String etag, String lastModified, long length, InputStream body) {
+            this.status = status;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.body = body;
+        }
+
+        /**
+         * @return {@code true} on 304, there is no body
+         */
+        public boolean notModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+    }
+}
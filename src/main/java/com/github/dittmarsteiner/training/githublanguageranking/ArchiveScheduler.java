@@ -0,0 +1,309 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches and counts the hourly archives of a {@link HourRange}
+ * concurrently, at most {@code inFlight} at a time, and merges them into one
+ * histogram. Each archive is streamed and counted on its own; a failed
+ * download discards its partial counts and is retried with a linear
+ * backoff. Missing hours (404) are skipped with a warning, githubarchive has
+ * a few gaps.
+ * <p>
+ * Optionally downloads go through an {@link ArchiveCache}, and hours with a
+ * stored histogram in a {@link SegmentStore} are merged from there without
+ * touching the archive at all; newly counted hours are stored.
+ * <p>
+ * Optionally every counted hour is extracted into a {@link ColumnStore}, and
+ * each hour is counted from its table by a {@link ColumnStore.Selection}
+ * instead, e.g. of some event types or a time of day only.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ArchiveScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveScheduler.class);
+
+    /** Where githubarchive keeps its hourly files. */
+    public static final String DEFAULT_BASE_URL = "http://data.githubarchive.org/";
+
+    private final URL base;
+    private final int inFlight;
+    private final int attempts;
+    private final long backoffMillis;
+    private ArchiveCache cache;
+    private SegmentStore segments;
+    private ColumnStore columns;
+    private ColumnStore.Selection selection;
+    private OffHeapLongSet ids;
+    private LanguagePairs pairs;
+    private final AtomicInteger missing = new AtomicInteger();
+
+    /**
+     * @param base the directory URL of the archive files
+     * @param inFlight the maximum number of concurrent downloads
+     * @param attempts the number of tries per file, at least {@code 1}
+     * @param backoffMillis the wait before the first retry, growing linearly
+     */
+    public ArchiveScheduler(URL base, int inFlight, int attempts, long backoffMillis) {
+        if (inFlight < 1 || attempts < 1) {
+            throw new IllegalArgumentException("inFlight and attempts must be positive");
+        }
+        this.base = base;
+        this.inFlight = inFlight;
+        this.attempts = attempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @param cache the archive cache, {@code null} for none
+     * @return this
+     */
+    public ArchiveScheduler withCache(ArchiveCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @param segments the per-hour histograms, {@code null} for none
+     * @return this
+     */
+    public ArchiveScheduler withSegments(SegmentStore segments) {
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Counts every hour from its table in the column store, extracting the
+     * table first if missing. The segments are still written, but not read:
+     * they hold the histogram of all events only.
+     *
+     * @param columns the per-hour event tables, {@code null} for none
+     * @param selection the events to count of every hour
+     * @return this
+     */
+    public ArchiveScheduler withColumns(ColumnStore columns, ColumnStore.Selection selection) {
+        this.columns = columns;
+        this.selection = selection;
+        return this;
+    }
+
+    /**
+     * De-duplicates events by their ID across all hours. The segments are
+     * neither read nor written then: a stored hour does not know which of
+     * its events another hour has counted already. Neither are the columns.
+     *
+     * @param ids the event IDs counted so far, {@code null} to count every
+     *            event
+     * @return this
+     */
+    public ArchiveScheduler withDedup(OffHeapLongSet ids) {
+        this.ids = ids;
+        return this;
+    }
+
+    /**
+     * Adds the activities of every hour to the pairs, once it counted
+     * completely. The segments and columns are bypassed then, they hold no
+     * pairs.
+     *
+     * @param pairs the activities per language and repository or actor,
+     *            {@code null} for none
+     * @return this
+     */
+    public ArchiveScheduler withPairs(LanguagePairs pairs) {
+        this.pairs = pairs;
+        return this;
+    }
+
+    /**
+     * @param range the hours to count
+     * @return the merged histogram
+     * @throws IOException if a file still fails after all attempts
+     */
+    public LanguageCounts count(HourRange range) throws IOException {
+        return count(range, new ArrayList<>());
+    }
+
+    /**
+     * Like {@link #count(HourRange)}, also telling which hours of this range
+     * were counted: those skipped as missing are not added, while
+     * {@link #missing()} adds them up over all ranges.
+     *
+     * @param range the hours to count
+     * @param counted where to add each hour whose archive was counted, in
+     *            the order they complete
+     * @return the merged histogram
+     * @throws IOException if a file still fails after all attempts
+     */
+    public LanguageCounts count(HourRange range, Collection<LocalDateTime> counted)
+            throws IOException {
+        List<LocalDateTime> hours = range.hours();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(inFlight, hours.size()),
+                threads("fetch"));
+        try {
+            CompletionService<LanguageCounts> completion = new ExecutorCompletionService<>(pool);
+            Map<Future<LanguageCounts>, LocalDateTime> submitted = new HashMap<>();
+            for (LocalDateTime hour : hours) {
+                submitted.put(completion.submit(() -> count(hour)), hour);
+            }
+
+            LanguageCounts counts = new LanguageCounts();
+            for (int done = 1; done <= hours.size(); done++) {
+                Future<LanguageCounts> hour = completion.take();
+                LanguageCounts hourCounts = hour.get();
+                if (hourCounts != null) {
+                    counts.merge(hourCounts);
+                    counted.add(submitted.get(hour));
+                }
+                if (done % 24 == 0 || done == hours.size()) {
+                    log.info("Counted {} of {} hours", done, hours.size());
+                }
+            }
+            return counts;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while counting " + range);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of hours skipped because the archive did not exist
+     */
+    public int missing() {
+        return missing.get();
+    }
+
+    /**
+     * @return the histogram or {@code null} if the archive does not exist
+     */
+    private LanguageCounts count(LocalDateTime hour) throws IOException, InterruptedException {
+        if ((segments == null && columns == null) || ids != null || pairs != null) {
+            return fetch(hour, null);
+        }
+        if (columns != null) {
+            return columns(hour);
+        }
+        LanguageCounts counts = segments.read(hour);
+        if (counts == null) {
+            counts = fetch(hour, null);
+            if (counts != null) {
+                segments.write(hour, counts);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the selected histogram of the hour's table, extracted first
+     *         if missing, or {@code null} if the archive does not exist
+     */
+    private LanguageCounts columns(LocalDateTime hour) throws IOException, InterruptedException {
+        LanguageCounts selected = columns.read(hour, selection);
+        if (selected != null) {
+            return selected;
+        }
+        ColumnStore.Rows rows = new ColumnStore.Rows();
+        LanguageCounts counts = fetch(hour, rows);
+        if (counts == null) {
+            return null;
+        }
+        if (segments != null) {
+            segments.write(hour, counts);
+        }
+        columns.write(hour, rows, counts);
+        selected = columns.read(hour, selection);
+        if (selected == null) {
+            throw new IOException("Unreadable " + columns.path(hour));
+        }
+        return selected;
+    }
+
+    /**
+     * @param rows where to collect the events, {@code null} for nowhere
+     * @return the histogram or {@code null} if the archive does not exist
+     */
+    private LanguageCounts fetch(LocalDateTime hour, ColumnStore.Rows rows)
+            throws IOException, InterruptedException {
+        URL url = new URL(base, HourRange.fileName(hour));
+        for (int attempt = 1;; attempt++) {
+            try {
+                EventCounter counter = new EventCounter(new LanguageCounts(), ids).withPairs(pairs);
+                if (rows != null) {
+                    rows.clear();
+                    counter.withColumns(rows);
+                }
+                return LanguageRanking.fetch(url, cache, counter);
+            }
+            catch (FileNotFoundException e) {
+                log.warn("Missing archive {}", url);
+                missing.incrementAndGet();
+                return null;
+            }
+            catch (IOException e) {
+                if (attempt >= attempts) {
+                    throw new IOException("Giving up on " + url + " after " + attempt + " attempts", e);
+                }
+                log.warn("Attempt {} of {} failed: {}", attempt, url, e.toString());
+                Thread.sleep(backoffMillis * attempt);
+            }
+        }
+    }
+
+    static ThreadFactory threads(String prefix) {
+        AtomicInteger number = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + '-' + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the structural bytes of NDJSON, the innermost loops of splitting
+ * lines and skipping strings: {@code '\n'}, and {@code '"'} or
+ * {@code '\\'}.
+ * <p>
+ * {@link #best()} is the {@code VectorByteSearch}, comparing 32 or 64 bytes
+ * at once with the incubating Vector API, if it is compiled in (JDK 17+),
+ * the JVM runs with {@code --add-modules jdk.incubator.vector} and the CPU
+ * has vectors of at least 16 bytes; otherwise the {@link Scalar} search. Set
+ * the system property {@value #PROPERTY} to {@code false} to force the
+ * scalar search.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public abstract class ByteSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(ByteSearch.class);
+
+    /** {@code false} disables the vector search. */
+    public static final String PROPERTY = "githublanguageranking.vector";
+
+    static final String VECTOR_CLASS = ByteSearch.class.getPackageName() + ".VectorByteSearch";
+
+    private static final ByteSearch BEST = select();
+
+    /**
+     * @param buf the buffer
+     * @param from the first byte to look at
+     * @param to the end (exclusive)
+     * @return the position of the first {@code '\n'} or {@code -1}
+     */
+    public abstract int indexOfNewline(byte[] buf, int from, int to);
+
+    /**
+     * @param buf the buffer
+     * @param from the first byte to look at
+     * @param to the end (exclusive)
+     * @return the position of the first {@code '"'} or {@code '\\'}, or
+     *         {@code -1}
+     */
+    public abstract int indexOfQuoteOrBackslash(byte[] buf, int from, int to);
+
+    /**
+     * @return the fastest search available, chosen once per JVM
+     */
+    public static ByteSearch best() {
+        return BEST;
+    }
+
+    /**
+     * @return the vector search or {@code null} if not available
+     */
+    public static ByteSearch vector() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+        try {
+            // throws if the CPU has no useful vectors
+            return (ByteSearch) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("No vector search: {}", e.toString());
+            return null;
+        }
+    }
+
+    private static ByteSearch select() {
+        ByteSearch vector = Boolean.parseBoolean(System.getProperty(PROPERTY, "true"))
+                ? vector()
+                : null;
+        ByteSearch search = vector == null ? new Scalar() : vector;
+        log.debug("Searching bytes with {}", search);
+        return search;
+    }
+
+    /**
+     * One byte at a time, what the JIT makes of it.
+     */
+    public static final class Scalar extends ByteSearch {
+
+        @Override
+        public int indexOfNewline(byte[] buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int indexOfQuoteOrBackslash(byte[] buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte c = buf[i];
+                if (c == '"' || c == '\\') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static com.github.dittmarsteiner.training.githublanguageranking.SegmentStore.readVarint;
+import static com.github.dittmarsteiner.training.githublanguageranking.SegmentStore.writeVarint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.SegmentStore.CorruptSegmentException;
+
+/**
+ * A directory of per-hour event tables: the type, language, repository,
+ * actor and creation time of every event of an hour, extracted on its first
+ * scan. A ranking by another definition, e.g. some event types only, a time
+ * of day or without some actors, is then {@link #read(LocalDateTime, Selection)
+ * counted} from the columns it needs without touching the JSON again.
+ * <p>
+ * A table {@code yyyy-MM-dd-H.col} is laid out as:
+ *
+ * <pre>
+ * "GLRC" version:byte
+ * rows:varint
+ * base:varint      (the earliest created_at, seconds since the epoch)
+ * types:varint     { length:varint name:bytes }
+ * languages:varint { length:varint name:bytes }
+ * columns:5 times  { width:byte crc32:int }
+ * crc32:int        (over everything before)
+ * padding to 8 bytes
+ * type, language, repo, actor, created: rows * width bytes each, padded to 8
+ * </pre>
+ *
+ * Every column is a plain little-endian array of unsigned values of 1, 2, 4
+ * or 8 bytes, the narrowest its values fit: the value plus one, {@code 0}
+ * when missing. Types and languages are IDs into the dictionaries of the
+ * header, the creation time is relative to the base. Each column has its own
+ * checksum, so a scan maps the file and reads only the columns it needs. A
+ * table with a wrong checksum, magic or version is deleted and reported as
+ * missing, like a {@link SegmentStore segment}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ColumnStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnStore.class);
+
+    private static final int MAGIC = 'G' << 24 | 'L' << 16 | 'R' << 8 | 'C';
+    private static final byte VERSION = 1;
+
+    /**
+     * The columns, in the order of the file.
+     */
+    public enum Column {
+        /** The event type ID. */
+        TYPE,
+        /** The language ID, missing for events without a language. */
+        LANGUAGE,
+        /** The repository ID. */
+        REPO,
+        /** The actor ID. */
+        ACTOR,
+        /** The seconds since the base. */
+        CREATED
+    }
+
+    private static final Column[] COLUMNS = Column.values();
+
+    private final Path dir;
+
+    /**
+     * @param dir the table directory, created if missing
+     * @throws IOException if the directory cannot be created
+     */
+    public ColumnStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * @param hour an hour
+     * @return the table file of the hour
+     */
+    public Path path(LocalDateTime hour) {
+        return dir.resolve(HourRange.format(hour) + ".col");
+    }
+
+    /**
+     * @param hour an hour
+     * @param selection the events to count
+     * @return the histogram of the selected events or {@code null} if the
+     *         table is missing or corrupt
+     * @throws IOException on read failure
+     */
+    public LanguageCounts read(LocalDateTime hour, Selection selection) throws IOException {
+        Path file = path(hour);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel.map(MapMode.READ_ONLY, 0, channel.size()), selection);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (CorruptSegmentException e) {
+            log.warn("Rebuilding {}: {}", file, e.getMessage());
+            Files.deleteIfExists(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the events of an hour, atomically replacing an older table.
+     *
+     * @param hour an hour
+     * @param rows its events
+     * @param counts the histogram they were counted into, for the type and
+     *            language names of their IDs
+     * @throws IOException on write failure
+     */
+    public void write(LocalDateTime hour, Rows rows, LanguageCounts counts) throws IOException {
+        Path file = path(hour);
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        Files.write(temp, encode(rows, counts.types(), counts.dictionary()));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param rows the events
+     * @param types the dictionary of their type IDs
+     * @param languages the dictionary of their language IDs
+     * @return the table bytes
+     */
+    public static byte[] encode(Rows rows, LanguageDictionary types, LanguageDictionary languages) {
+        long base = Long.MAX_VALUE;
+        for (int row = 0; row < rows.size; row++) {
+            if (rows.created[row] != Long.MIN_VALUE) {
+                base = Math.min(base, rows.created[row]);
+            }
+        }
+        base = base == Long.MAX_VALUE ? 0 : base;
+
+        ByteBuffer[] data = new ByteBuffer[COLUMNS.length];
+        int[] widths = new int[COLUMNS.length];
+        int[] checksums = new int[COLUMNS.length];
+        for (Column column : COLUMNS) {
+            long max = 0;
+            for (int row = 0; row < rows.size; row++) {
+                max = Math.max(max, rows.stored(column, row, base));
+            }
+            int width = max < 1L << 8 ? 1 : max < 1L << 16 ? 2 : max < 1L << 32 ? 4 : 8;
+            ByteBuffer values = ByteBuffer.allocate(rows.size * width).order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < rows.size; row++) {
+                long value = rows.stored(column, row, base);
+                switch (width) {
+                case 1: values.put((byte) value); break;
+                case 2: values.putShort((short) value); break;
+                case 4: values.putInt((int) value); break;
+                default: values.putLong(value);
+                }
+            }
+            values.flip();
+            CRC32 crc = new CRC32();
+            crc.update(values.duplicate());
+            data[column.ordinal()] = values;
+            widths[column.ordinal()] = width;
+            checksums[column.ordinal()] = (int) crc.getValue();
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(1024);
+        writeInt(header, MAGIC);
+        header.write(VERSION);
+        writeVarint(header, rows.size);
+        writeVarint(header, base);
+        writeNames(header, types);
+        writeNames(header, languages);
+        for (Column column : COLUMNS) {
+            header.write(widths[column.ordinal()]);
+            writeInt(header, checksums[column.ordinal()]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.toByteArray());
+        writeInt(header, (int) crc.getValue());
+
+        int size = align(header.size());
+        for (ByteBuffer values : data) {
+            size += align(values.remaining());
+        }
+        ByteBuffer file = ByteBuffer.allocate(size);
+        file.put(header.toByteArray());
+        for (ByteBuffer values : data) {
+            file.position(align(file.position()));
+            file.put(values);
+        }
+        return file.array();
+    }
+
+    /**
+     * Counts the selected events of a table, reading only the columns the
+     * selection needs.
+     *
+     * @param table the table bytes, from position {@code 0} to its limit
+     * @param selection the events to count
+     * @return the histogram of the selected events
+     * @throws CorruptSegmentException if a checksum, the magic, version or
+     *             size do not match
+     */
+    public static LanguageCounts scan(ByteBuffer table, Selection selection)
+            throws CorruptSegmentException {
+        int size = table.limit();
+        ByteBuffer in = table.duplicate();
+        int rows;
+        long base;
+        byte[][] types;
+        byte[][] languages;
+        int[] widths = new int[COLUMNS.length];
+        int[] checksums = new int[COLUMNS.length];
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new CorruptSegmentException("Unknown format");
+            }
+            long count = readVarint(in);
+            if (count > Integer.MAX_VALUE) {
+                throw new CorruptSegmentException("Too many rows");
+            }
+            rows = (int) count;
+            base = readVarint(in);
+            types = readNames(in);
+            languages = readNames(in);
+            for (Column column : COLUMNS) {
+                widths[column.ordinal()] = in.get();
+                checksums[column.ordinal()] = in.getInt();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(table.duplicate().limit(in.position()));
+            if ((int) crc.getValue() != in.getInt()) {
+                throw new CorruptSegmentException("Checksum mismatch");
+            }
+        }
+        catch (BufferUnderflowException e) {
+            throw new CorruptSegmentException("Truncated");
+        }
+
+        long offset = align(in.position());
+        long[] offsets = new long[COLUMNS.length];
+        for (Column column : COLUMNS) {
+            int width = widths[column.ordinal()];
+            if (width != 1 && width != 2 && width != 4 && width != 8) {
+                throw new CorruptSegmentException("Width " + width);
+            }
+            offsets[column.ordinal()] = offset;
+            offset += align((long) rows * width);
+        }
+        if (offset != size) {
+            throw new CorruptSegmentException("Size " + size + " instead of " + offset);
+        }
+        ByteBuffer[] data = new ByteBuffer[COLUMNS.length];
+        for (Column column : selection.columns()) {
+            int i = column.ordinal();
+            ByteBuffer values = table.duplicate().position((int) offsets[i])
+                    .limit((int) offsets[i] + rows * widths[i]).slice()
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(values.duplicate());
+            if ((int) crc.getValue() != checksums[i]) {
+                throw new CorruptSegmentException("Checksum mismatch in " + column);
+            }
+            data[i] = values;
+        }
+        return count(rows, base, types, languages, data, widths, selection);
+    }
+
+    private static LanguageCounts count(int rows, long base, byte[][] types, byte[][] languages,
+            ByteBuffer[] data, int[] widths, Selection selection) throws CorruptSegmentException {
+        boolean[] selected = new boolean[types.length + 1]; // unknown type first
+        for (int type = -1; type < types.length; type++) {
+            selected[type + 1] = selection.selects(type < 0 ? null : types[type]);
+        }
+        ByteBuffer typeColumn = data[Column.TYPE.ordinal()];
+        ByteBuffer languageColumn = data[Column.LANGUAGE.ordinal()];
+        ByteBuffer repoColumn = data[Column.REPO.ordinal()];
+        ByteBuffer actorColumn = data[Column.ACTOR.ordinal()];
+        ByteBuffer createdColumn = data[Column.CREATED.ordinal()];
+        int typeWidth = widths[Column.TYPE.ordinal()];
+        int languageWidth = widths[Column.LANGUAGE.ordinal()];
+        int repoWidth = widths[Column.REPO.ordinal()];
+        int actorWidth = widths[Column.ACTOR.ordinal()];
+        int createdWidth = widths[Column.CREATED.ordinal()];
+        boolean sketches = selection.sketches;
+        boolean excluding = selection.excluded.length > 0;
+
+        LanguageCounts counts = new LanguageCounts();
+        long[] events = new long[types.length + 1];
+        long[] activities = new long[languages.length];
+        long[] cells = new long[languages.length * types.length];
+        int[] ids = new int[languages.length];
+        Arrays.fill(ids, -1);
+        for (int row = 0; row < rows; row++) {
+            int type = (int) get(typeColumn, typeWidth, row) - 1;
+            if (type >= types.length) {
+                throw new CorruptSegmentException("Type out of range");
+            }
+            if (!selected[type + 1]) {
+                continue;
+            }
+            if (createdColumn != null) {
+                long created = get(createdColumn, createdWidth, row);
+                if (created == 0 || !selection.inWindow(base + created - 1)) {
+                    continue;
+                }
+            }
+            long actor = actorColumn == null ? -1 : get(actorColumn, actorWidth, row) - 1;
+            if (excluding && actor >= 0 && selection.excludes(actor)) {
+                continue;
+            }
+            events[type + 1]++;
+            int language = (int) get(languageColumn, languageWidth, row) - 1;
+            if (language < 0) {
+                continue;
+            }
+            if (language >= languages.length) {
+                throw new CorruptSegmentException("Language out of range");
+            }
+            activities[language]++;
+            if (type >= 0) {
+                cells[language * types.length + type]++;
+            }
+            if (sketches) {
+                int id = ids[language];
+                if (id < 0) {
+                    id = ids[language] = counts.dictionary().id(languages[language], 0,
+                            languages[language].length);
+                }
+                if (actor >= 0) {
+                    counts.actors(id).add(actor);
+                }
+                long repo = get(repoColumn, repoWidth, row) - 1;
+                if (repo >= 0) {
+                    counts.repos(id).add(repo);
+                    counts.topReposOf(id).add(repo);
+                }
+            }
+        }
+
+        counts.addEvents(events[0]);
+        int[] typeIds = new int[types.length];
+        for (int type = 0; type < types.length; type++) {
+            if (events[type + 1] != 0) {
+                typeIds[type] = counts.addEvents(types[type], 0, types[type].length,
+                        events[type + 1]);
+            }
+        }
+        for (int language = 0; language < languages.length; language++) {
+            if (activities[language] == 0) {
+                continue;
+            }
+            byte[] name = languages[language];
+            counts.add(name, 0, name.length, activities[language]);
+            int id = counts.dictionary().id(name, 0, name.length);
+            for (int type = 0; type < types.length; type++) {
+                long count = cells[language * types.length + type];
+                if (count != 0) {
+                    counts.cell(id, typeIds[type], count);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static long get(ByteBuffer column, int width, int row) {
+        switch (width) {
+        case 1: return column.get(row) & 0xffL;
+        case 2: return column.getShort(row << 1) & 0xffffL;
+        case 4: return column.getInt(row << 2) & 0xffffffffL;
+        default: return column.getLong(row << 3);
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeNames(ByteArrayOutputStream out, LanguageDictionary dictionary) {
+        writeVarint(out, dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            byte[] name = dictionary.bytes(id);
+            writeVarint(out, name.length);
+            out.write(name, 0, name.length);
+        }
+    }
+
+    private static byte[][] readNames(ByteBuffer in) throws CorruptSegmentException {
+        long size = readVarint(in);
+        if (size > in.remaining()) {
+            throw new CorruptSegmentException("Truncated");
+        }
+        byte[][] names = new byte[(int) size][];
+        for (int id = 0; id < names.length; id++) {
+            long length = readVarint(in);
+            if (length > in.remaining()) {
+                throw new CorruptSegmentException("Truncated");
+            }
+            names[id] = new byte[(int) length];
+            in.get(names[id]);
+        }
+        return names;
+    }
+
+    /**
+     * The events of one hour, collected by an {@link EventCounter} while it
+     * counts them, in the IDs of its histogram.
+     */
+    public static final class Rows {
+        private int[] types = new int[1024];
+        private int[] languages = new int[1024];
+        private long[] repos = new long[1024];
+        private long[] actors = new long[1024];
+        private long[] created = new long[1024];
+        private int size;
+
+        /**
+         * @param type the event type ID, negative if unknown
+         * @param language the language ID, negative if none
+         * @param repo the repository ID, negative if unknown
+         * @param actor the actor ID, negative if unknown
+         * @param created the seconds since the epoch, {@link Long#MIN_VALUE}
+         *            if unknown
+         */
+        public void add(int type, int language, long repo, long actor, long created) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                languages = Arrays.copyOf(languages, size * 2);
+                repos = Arrays.copyOf(repos, size * 2);
+                actors = Arrays.copyOf(actors, size * 2);
+                this.created = Arrays.copyOf(this.created, size * 2);
+            }
+            types[size] = type;
+            languages[size] = language;
+            repos[size] = repo;
+            actors[size] = actor;
+            this.created[size++] = created;
+        }
+
+        /**
+         * @return the number of events
+         */
+        public int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * @return the value plus one, {@code 0} if missing
+         */
+        private long stored(Column column, int row, long base) {
+            switch (column) {
+            case TYPE: return Math.max(types[row], -1) + 1;
+            case LANGUAGE: return Math.max(languages[row], -1) + 1;
+            case REPO: return Math.max(repos[row], -1) + 1;
+            case ACTOR: return Math.max(actors[row], -1) + 1;
+            default: return created[row] == Long.MIN_VALUE ? 0 : created[row] - base + 1;
+            }
+        }
+    }
+
+    /**
+     * Which events of a table to count, and whether to estimate their
+     * distinct actors and repositories and top repositories as well. By
+     * default all events with sketches, the same histogram as counting the
+     * JSON.
+     */
+    public static final class Selection {
+        private Set<String> types;
+        private int fromSecond;
+        private int toSecond = -1;
+        private long[] excluded = new long[0];
+        private boolean sketches = true;
+
+        /**
+         * @param types the event types to count, e.g.
+         *            {@code PullRequestEvent}, {@code null} for all; events
+         *            of unknown type are counted with all only
+         * @return this
+         */
+        public Selection withTypes(Collection<String> types) {
+            this.types = types == null ? null : new HashSet<>(types);
+            return this;
+        }
+
+        /**
+         * Counts only the events created within a time of day, UTC. If
+         * {@code to} is before {@code from} the window spans midnight.
+         *
+         * @param from the first second of the window
+         * @param to the end of the window (exclusive)
+         * @return this
+         */
+        public Selection withTimeOfDay(LocalTime from, LocalTime to) {
+            if (from.equals(to)) {
+                throw new IllegalArgumentException("Empty time of day " + from + '-' + to);
+            }
+            fromSecond = from.toSecondOfDay();
+            toSecond = to.toSecondOfDay();
+            return this;
+        }
+
+        /**
+         * @param actors the actors whose events to skip, e.g. bots
+         * @return this
+         */
+        public Selection withoutActors(long... actors) {
+            excluded = actors.clone();
+            Arrays.sort(excluded);
+            return this;
+        }
+
+        /**
+         * @param sketches {@code false} to skip the sketches, and with them
+         *            reading the repository and actor columns
+         * @return this
+         */
+        public Selection withSketches(boolean sketches) {
+            this.sketches = sketches;
+            return this;
+        }
+
+        /**
+         * @return the columns the selection reads
+         */
+        public Set<Column> columns() {
+            Set<Column> columns = EnumSet.of(Column.TYPE, Column.LANGUAGE);
+            if (toSecond >= 0) {
+                columns.add(Column.CREATED);
+            }
+            if (sketches || excluded.length > 0) {
+                columns.add(Column.ACTOR);
+            }
+            if (sketches) {
+                columns.add(Column.REPO);
+            }
+            return columns;
+        }
+
+        private boolean selects(byte[] type) {
+            if (types == null) {
+                return true;
+            }
+            return type != null && types.contains(EventScanner.decode(type, 0, type.length));
+        }
+
+        private boolean inWindow(long epochSecond) {
+            long second = Math.floorMod(epochSecond, 86_400L);
+            return fromSecond < toSecond
+                    ? second >= fromSecond && second < toSecond
+                    : second >= fromSecond || second < toSecond;
+        }
+
+        private boolean excludes(long actor) {
+            return Arrays.binarySearch(excluded, actor) >= 0;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.github.dittmarsteiner.training.githublanguageranking.RankingEvents.ExportEvent;
+
+/**
+ * Writes rankings as CSV: {@code RANK,LANGUAGE,ACTIVITIES,PROPORTION}, a
+ * language quoted if it contains a comma or quote. Encodes them straight
+ * into one reusable byte buffer which is flushed to a channel or stream
+ * whenever it is full. Numbers are written digit by digit and names are
+ * UTF-8 encoded char by char, so an export allocates nothing.
+ * <p>
+ * The proportion is computed in fixed point: hundredths of a percent,
+ * rounded half up, independent of locale and floating point. Reuse one
+ * instance per thread for many rankings.
+ * <p>
+ * {@link #withDistinct(boolean)} adds the estimated distinct actors and
+ * repositories per language as two more columns, empty where unknown.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class CsvEncoder {
+
+    static final String HEADER = "RANK,LANGUAGE,ACTIVITIES,PROPORTION";
+    static final String DISTINCT_COLUMNS = ",DISTINCT_ACTORS,DISTINCT_REPOS";
+
+    private static final byte[] HEADER_LINE = (HEADER + '\n').getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DISTINCT_HEADER_LINE = (HEADER + DISTINCT_COLUMNS + '\n')
+            .getBytes(StandardCharsets.US_ASCII);
+    /** The longest row without language: rank, activities, proportion. */
+    private static final int MAX_NUMBERS = 10 + 1 + 19 + 1 + "100.00 %\n".length() + 2 * (1 + 19);
+    private static final long FAST_LIMIT = Long.MAX_VALUE / 20_000;
+
+    private final byte[] buf;
+    private final ByteBuffer wrapped;
+    private int pos;
+    private boolean distinct;
+    private OutputStream stream;
+    private WritableByteChannel channel;
+
+    /**
+     * An encoder with a 64 kB buffer.
+     */
+    public CsvEncoder() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param capacity the buffer size, at least {@code 256}
+     */
+    public CsvEncoder(int capacity) {
+        buf = new byte[Math.max(256, capacity)];
+        wrapped = ByteBuffer.wrap(buf);
+    }
+
+    /**
+     * @param distinct {@code true} to write the distinct actors and
+     *            repositories as well
+     * @return this
+     */
+    public CsvEncoder withDistinct(boolean distinct) {
+        this.distinct = distinct;
+        return this;
+    }
+
+    /**
+     * @param ranking the rows to write
+     * @param out where to write the CSV, not closed
+     * @throws IOException if {@code out} fails
+     */
+    public void write(Ranking ranking, OutputStream out) throws IOException {
+        stream = out;
+        try {
+            encode(ranking);
+        }
+        finally {
+            stream = null;
+        }
+    }
+
+    /**
+     * @param ranking the rows to write
+     * @param out where to write the CSV, e.g. a {@code FileChannel}, not
+     *            closed
+     * @throws IOException if {@code out} fails
+     */
+    public void write(Ranking ranking, WritableByteChannel out) throws IOException {
+        channel = out;
+        try {
+            encode(ranking);
+        }
+        finally {
+            channel = null;
+        }
+    }
+
+    /**
+     * @param activities the activities of one language
+     * @param total the activities of all languages
+     * @return {@code activities / total} in hundredths of a percent, rounded
+     *         half up
+     */
+    public static long hundredths(long activities, long total) {
+        if (total <= 0) {
+            return 0;
+        }
+        if (activities <= FAST_LIMIT && total <= FAST_LIMIT) {
+            return (activities * 20_000 + total) / (2 * total);
+        }
+        BigInteger big = BigInteger.valueOf(total);
+        return BigInteger.valueOf(activities).multiply(BigInteger.valueOf(20_000)).add(big)
+                .divide(big.shiftLeft(1)).longValue();
+    }
+
+    private void encode(Ranking ranking) throws IOException {
+        ExportEvent event = new ExportEvent();
+        event.begin();
+        pos = 0;
+        long written = 0;
+        byte[] header = distinct ? DISTINCT_HEADER_LINE : HEADER_LINE;
+        System.arraycopy(header, 0, buf, 0, header.length);
+        pos = header.length;
+        for (int row = 0; row < ranking.size(); row++) {
+            written += ensure(MAX_NUMBERS);
+            number(ranking.rank(row));
+            buf[pos++] = ',';
+            written += name(ranking.language(row));
+            written += ensure(MAX_NUMBERS);
+            buf[pos++] = ',';
+            number(ranking.activities(row));
+            buf[pos++] = ',';
+            long hundredths = hundredths(ranking.activities(row), ranking.total());
+            number(hundredths / 100);
+            buf[pos++] = '.';
+            buf[pos++] = (byte) ('0' + hundredths % 100 / 10);
+            buf[pos++] = (byte) ('0' + hundredths % 10);
+            buf[pos++] = ' ';
+            buf[pos++] = '%';
+            if (distinct) {
+                optional(ranking.distinctActors(row));
+                optional(ranking.distinctRepos(row));
+            }
+            buf[pos++] = '\n';
+        }
+        written += flush();
+        RankingEvents.commit(event, written, ranking.events(), ranking.size());
+    }
+
+    /**
+     * Writes the name UTF-8 encoded, quoted if {@link #quoted(String)}.
+     *
+     * @return the bytes flushed meanwhile
+     */
+    private long name(String name) throws IOException {
+        long flushed = 0;
+        boolean quote = quoted(name);
+        if (quote) {
+            buf[pos++] = '"';
+        }
+        for (int i = 0; i < name.length(); i++) {
+            flushed += ensure(8);
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    buf[pos++] = '"';
+                }
+                buf[pos++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, name.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp & 0x3f);
+            }
+            else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?'; // unpaired, as String.getBytes does
+            }
+            else {
+                buf[pos++] = (byte) (0xe0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        if (quote) {
+            buf[pos++] = '"';
+        }
+        return flushed;
+    }
+
+    /**
+     * @return whether a CSV field must be quoted: it contains a comma, a
+     *         quote or a line break, e.g. from a JSON escape in a name
+     */
+    static boolean quoted(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a comma and the number, nothing for a negative one.
+     */
+    private void optional(long value) {
+        buf[pos++] = ',';
+        if (value >= 0) {
+            number(value);
+        }
+    }
+
+    /**
+     * Writes a non-negative number in decimal.
+     */
+    private void number(long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        pos += digits;
+    }
+
+    /**
+     * @return the bytes flushed to make room for {@code n} bytes, or
+     *         {@code 0}
+     */
+    private long ensure(int n) throws IOException {
+        return buf.length - pos < n ? flush() : 0;
+    }
+
+    private long flush() throws IOException {
+        int length = pos;
+        if (stream != null) {
+            stream.write(buf, 0, length);
+        }
+        else {
+            wrapped.clear().limit(length);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        }
+        pos = 0;
+        return length;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * Writes the ranking table as CSV to an {@link Appendable}:
+ * {@code RANK,LANGUAGE,ACTIVITIES,PROPORTION}, ordered by activities
+ * descending and language name ascending, see {@link Ranking}. The rows
+ * are encoded by a {@link CsvEncoder}, which is the faster choice for a
+ * stream or channel. Also writes the top repositories per language.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class CsvExport {
+
+    static final String TOP_REPOS_HEADER = "RANK,LANGUAGE,REPO_RANK,REPO_ID,ACTIVITIES,MAX_OVERCOUNT";
+
+    private CsvExport() {
+    }
+
+    /**
+     * @param counts the histogram to rank
+     * @param out where to append the CSV lines
+     * @throws IOException if {@code out} fails
+     */
+    public static void write(LanguageCounts counts, Appendable out) throws IOException {
+        write(Ranking.all(counts, Method.ORDINAL), out);
+    }
+
+    /**
+     * @param ranking the rows to write, e.g. the {@link Ranking#top top}
+     *            {@code k}
+     * @param out where to append the CSV lines
+     * @throws IOException if {@code out} fails
+     */
+    public static void write(Ranking ranking, Appendable out) throws IOException {
+        write(ranking, false, out);
+    }
+
+    /**
+     * @param ranking the rows to write
+     * @param distinct {@code true} to add the {@code DISTINCT_ACTORS} and
+     *            {@code DISTINCT_REPOS} columns, empty where unknown
+     * @param out where to append the CSV lines
+     * @throws IOException if {@code out} fails
+     */
+    public static void write(Ranking ranking, boolean distinct, Appendable out)
+            throws IOException {
+        ByteArrayOutputStream csv = new ByteArrayOutputStream(64 + ranking.size() * 32);
+        new CsvEncoder(1 << 12).withDistinct(distinct).write(ranking, csv);
+        out.append(new String(csv.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the repositories with the most activities per ranked language:
+     * {@code RANK,LANGUAGE,REPO_RANK,REPO_ID,ACTIVITIES,MAX_OVERCOUNT}. The
+     * activities are upper bounds, exceeding the true count by at most the
+     * overcount, see {@link SpaceSaving}.
+     *
+     * @param ranking the ranked languages
+     * @param n the maximum number of repositories per language
+     * @param out where to append the CSV lines
+     * @throws IOException if {@code out} fails
+     */
+    public static void writeTopRepos(Ranking ranking, int n, Appendable out) throws IOException {
+        out.append(TOP_REPOS_HEADER).append('\n');
+        StringBuilder line = new StringBuilder();
+        for (int row = 0; row < ranking.size(); row++) {
+            SpaceSaving repos = ranking.topRepos(row);
+            if (repos == null) {
+                continue;
+            }
+            int[] top = repos.top(n);
+            String language = escape(ranking.language(row));
+            for (int i = 0; i < top.length; i++) {
+                line.setLength(0);
+                line.append(ranking.rank(row)).append(',')
+                        .append(language).append(',')
+                        .append(i + 1).append(',')
+                        .append(repos.key(top[i])).append(',')
+                        .append(repos.count(top[i])).append(',')
+                        .append(repos.error(top[i])).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    /**
+     * @param counts the histogram to rank
+     * @return language → activities, by activities descending and name
+     *         ascending
+     */
+    public static List<Entry<String, Long>> rank(LanguageCounts counts) {
+        Ranking ranking = Ranking.all(counts, Method.ORDINAL);
+        List<Entry<String, Long>> entries = new ArrayList<>(ranking.size());
+        for (int row = 0; row < ranking.size(); row++) {
+            entries.add(new SimpleImmutableEntry<>(ranking.language(row), ranking.activities(row)));
+        }
+        return entries;
+    }
+
+    static String escape(String value) {
+        if (!CsvEncoder.quoted(value)) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * Keeps a ranking up to date while hourly archives land in a drop
+ * directory: every new {@code *.json.gz} is counted once, merged into the
+ * running histogram, and the CSV is rewritten.
+ * <p>
+ * The names of the counted files and the merged histogram are kept together
+ * in one state file, {@code .language-ranking.state} in the drop directory,
+ * a {@link PartialResult} replaced atomically after each file. A restart
+ * therefore resumes with the files not yet recorded and counts none twice;
+ * a crash while counting leaves the file to be counted again. The CSV is
+ * written to a temporary file and renamed over the old one, so readers
+ * never see a partial ranking.
+ * <p>
+ * Files are expected to appear complete, e.g. moved into the directory
+ * after downloading. One that fails to count, e.g. still being written, is
+ * left unrecorded and retried on its next change.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class DropDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(DropDirectory.class);
+
+    static final String STATE = ".language-ranking.state";
+    private static final String SUFFIX = ".json.gz";
+
+    private final Path dir;
+    private final Path csv;
+    private final int threads;
+    private Function<LanguageCounts, Ranking> ranking = counts -> Ranking.all(counts, Method.ORDINAL);
+    private CsvEncoder encoder = new CsvEncoder();
+    private PartialResult state = new PartialResult();
+
+    /**
+     * Loads the state of an earlier run, if any.
+     *
+     * @param dir the drop directory
+     * @param csv the ranking to rewrite
+     * @param threads the workers per file
+     * @throws IOException if the state cannot be read
+     */
+    public DropDirectory(Path dir, Path csv, int threads) throws IOException {
+        this.dir = dir;
+        this.csv = csv;
+        this.threads = threads;
+        readState();
+    }
+
+    /**
+     * @param ranking ranks the running histogram for the CSV, all languages
+     *            by default
+     * @return this
+     */
+    public DropDirectory withRanking(Function<LanguageCounts, Ranking> ranking) {
+        this.ranking = ranking;
+        return this;
+    }
+
+    /**
+     * @param encoder writes the CSV
+     * @return this
+     */
+    public DropDirectory withEncoder(CsvEncoder encoder) {
+        this.encoder = encoder;
+        return this;
+    }
+
+    /**
+     * Watches the directory until interrupted: counts the files that landed
+     * meanwhile, then each new or changed one.
+     *
+     * @throws IOException on failure to read the directory or write the
+     *             state or CSV
+     * @throws InterruptedException when stopped
+     */
+    public void watch() throws IOException, InterruptedException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            poll();
+            writeCsv(); // also after a restart without new files
+            log.info("Watching {} for hours, {} counted so far", dir, state.files().size());
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean relevant = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    relevant |= event.kind() == OVERFLOW
+                            || event.context().toString().endsWith(SUFFIX);
+                }
+                if (relevant) {
+                    poll();
+                }
+                if (!key.reset()) {
+                    throw new NoSuchFileException(dir.toString(), null, "No longer watchable");
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts all files not counted yet, in name order, i.e. by hour.
+     *
+     * @return the number of files counted
+     * @throws IOException on failure to read the directory or write the
+     *             state or CSV
+     */
+    public int poll() throws IOException {
+        List<Path> pending = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!state.files().contains(file.getFileName().toString())) {
+                    pending.add(file);
+                }
+            }
+        }
+        Collections.sort(pending);
+        int counted = 0;
+        for (Path file : pending) {
+            LanguageCounts hour;
+            try {
+                hour = LanguageRanking.count(file, threads, null, null);
+            }
+            catch (IOException e) {
+                log.warn("Skipping {} until it changes: {}", file, e.toString());
+                continue;
+            }
+            state.merge(new PartialResult(Collections.singleton(file.getFileName().toString()), hour));
+            state.write(dir.resolve(STATE));
+            writeCsv();
+            counted++;
+            log.info("Counted {}: {} activities, {} in total", file.getFileName(), hour.total(),
+                    state.counts().total());
+        }
+        return counted;
+    }
+
+    /**
+     * @return the running histogram
+     */
+    public LanguageCounts counts() {
+        return state.counts();
+    }
+
+    /**
+     * @return the names of the counted files
+     */
+    public Set<String> processed() {
+        return state.files();
+    }
+
+    private void readState() throws IOException {
+        try {
+            state = PartialResult.read(dir.resolve(STATE));
+        }
+        catch (NoSuchFileException e) {
+            return;
+        }
+        log.info("Resuming with {} counted files", state.files().size());
+    }
+
+    private void writeCsv() throws IOException {
+        Path parent = csv.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, csv.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                encoder.write(ranking.apply(state.counts()), channel);
+            }
+            Files.move(temp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+
+/**
+ * Scans event lines and counts their repository languages, with the
+ * distinct actors and repositories per language. In steady state,
+ * once every language has been seen, a line allocates nothing. One instance
+ * per thread.
+ * <p>
+ * Its progress is reported to the {@link Metrics} by {@link #publish(long)},
+ * which callers invoke once per block.
+ * <p>
+ * Optionally events are de-duplicated by their ID in an
+ * {@link OffHeapLongSet} shared by all counters of a run: an event seen
+ * before is skipped entirely. The IDs claimed in the set are remembered
+ * until {@link #commit()}, so {@link #rollback()} can hand them back when
+ * the input fails to count completely, and its retry counts those events
+ * again. They are claimed at once rather than on commit, or two hours
+ * counted at the same time would both count the events they share.
+ * <p>
+ * Optionally the language, actor and repository of every activity are
+ * collected for the {@link LanguagePairs}, and handed over by
+ * {@link #commit()} once the input counted completely, so a failed and
+ * retried download adds none of them twice.
+ * <p>
+ * Optionally the type, language, repository, actor and creation time of
+ * every event are collected as {@link ColumnStore.Rows}, to store them in a
+ * {@link ColumnStore}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class EventCounter implements LineHandler {
+
+    private static final Set<Field> COUNTED = EnumSet.of(Field.TYPE,
+            Field.PULL_REQUEST_LANGUAGE, Field.FORK_LANGUAGE, Field.ACTOR_ID, Field.REPO_ID);
+
+    private EventScanner scanner;
+    private final LanguageCounts counts;
+    private final OffHeapLongSet ids;
+    private LanguagePairs pairs;
+    private LanguagePairs.Batch batch;
+    private long[] claimed = new long[0];
+    private int claimedCount;
+    private ColumnStore.Rows rows;
+    private long lines;
+    private long duplicates;
+    private long malformed;
+    private long matched;
+    private long withoutLanguage;
+    private long publishedLines;
+    private long publishedMatched;
+    private long publishedWithoutLanguage;
+    private long publishedDuplicates;
+
+    /**
+     * A counter with a new, empty histogram.
+     */
+    public EventCounter() {
+        this(new LanguageCounts());
+    }
+
+    /**
+     * @param counts the histogram to count into
+     */
+    public EventCounter(LanguageCounts counts) {
+        this(counts, null);
+    }
+
+    /**
+     * @param counts the histogram to count into
+     * @param ids the IDs of the events counted so far, {@code null} to count
+     *            every event
+     */
+    public EventCounter(LanguageCounts counts, OffHeapLongSet ids) {
+        this.counts = counts;
+        this.ids = ids;
+        scanner = scanner(false);
+    }
+
+    /**
+     * @param pairs where to {@link #commit() commit} the language,
+     *            actor and repository of the activities, {@code null} for
+     *            nowhere
+     * @return this
+     */
+    public EventCounter withPairs(LanguagePairs pairs) {
+        this.pairs = pairs;
+        batch = pairs == null ? null : new LanguagePairs.Batch();
+        return this;
+    }
+
+    /**
+     * @param rows where to collect every event, also those without language
+     *            or type, {@code null} for nowhere
+     * @return this
+     */
+    public EventCounter withColumns(ColumnStore.Rows rows) {
+        this.rows = rows;
+        scanner = scanner(rows != null);
+        return this;
+    }
+
+    private EventScanner scanner(boolean created) {
+        if (ids == null && !created) {
+            return new EventScanner(COUNTED);
+        }
+        Set<Field> fields = EnumSet.copyOf(COUNTED);
+        if (ids != null) {
+            fields.add(Field.ID);
+        }
+        if (created) {
+            fields.add(Field.CREATED_AT);
+        }
+        return new EventScanner(fields);
+    }
+
+    @Override
+    public void line(byte[] buf, int from, int to) {
+        lines++;
+        if (!scanner.scan(buf, from, to)) {
+            counts.addEvent();
+            malformed++;
+            if (rows != null) {
+                rows.add(-1, -1, -1, -1, Long.MIN_VALUE);
+            }
+            return;
+        }
+        if (ids != null) {
+            long id = scanner.number(Field.ID);
+            if (id >= 0) {
+                if (!ids.add(id)) {
+                    duplicates++;
+                    return;
+                }
+                if (claimedCount == claimed.length) {
+                    claimed = Arrays.copyOf(claimed, Math.max(1024, claimedCount * 2));
+                }
+                claimed[claimedCount++] = id;
+            }
+        }
+        int type = -1;
+        if (scanner.has(Field.TYPE)) {
+            type = counts.addEvent(buf, scanner.start(Field.TYPE), scanner.end(Field.TYPE));
+        }
+        else {
+            counts.addEvent();
+        }
+        Field language = scanner.language();
+        int id = -1;
+        if (language != null) {
+            long actor = scanner.number(Field.ACTOR_ID);
+            long repo = scanner.number(Field.REPO_ID);
+            id = counts.add(type, buf, scanner.start(language), scanner.end(language), actor, repo);
+            if (batch != null) {
+                batch.add(id, actor, repo);
+            }
+            matched++;
+        }
+        else if (scanner.languageType()) {
+            withoutLanguage++;
+        }
+        if (rows != null) {
+            rows.add(type, id, scanner.number(Field.REPO_ID), scanner.number(Field.ACTOR_ID),
+                    scanner.epochSecond(Field.CREATED_AT));
+        }
+    }
+
+    /**
+     * Adds the lines and events counted since the last call to the
+     * {@link Metrics} of the current thread.
+     *
+     * @param scanNanos the time spent scanning since the last call
+     */
+    public void publish(long scanNanos) {
+        Metrics.add(Counter.LINES, lines - publishedLines);
+        Metrics.add(Counter.EVENTS_MATCHED, matched - publishedMatched);
+        Metrics.add(Counter.EVENTS_WITHOUT_LANGUAGE, withoutLanguage - publishedWithoutLanguage);
+        Metrics.add(Counter.DUPLICATES, duplicates - publishedDuplicates);
+        Metrics.time(Counter.SCAN_NANOS, scanNanos);
+        publishedDuplicates = duplicates;
+        publishedLines = lines;
+        publishedMatched = matched;
+        publishedWithoutLanguage = withoutLanguage;
+    }
+
+    /**
+     * Adds the activities collected since the last call to the
+     * {@link #withPairs(LanguagePairs) pairs}, if any, and keeps the event
+     * IDs claimed since.
+     *
+     * @throws IOException if the pairs fail to spill
+     */
+    public void commit() throws IOException {
+        claimedCount = 0;
+        if (pairs != null) {
+            pairs.add(batch, counts.dictionary());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Hands the event IDs claimed since the last {@link #commit()} back to
+     * the shared set and drops the activities collected since, so the input
+     * can be counted again by a fresh counter.
+     */
+    public void rollback() {
+        for (int i = 0; i < claimedCount; i++) {
+            ids.remove(claimed[i]);
+        }
+        claimedCount = 0;
+        if (batch != null) {
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the histogram counted into
+     */
+    public LanguageCounts counts() {
+        return counts;
+    }
+
+    /**
+     * @return the number of events skipped as seen before
+     */
+    public long duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of lines which were not a JSON object
+     */
+    public long malformed() {
+        return malformed;
+    }
+}
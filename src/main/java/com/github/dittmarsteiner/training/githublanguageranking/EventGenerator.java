@@ -0,0 +1,389 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes githubarchive-shaped NDJSON hours of any size, deterministic for a
+ * given seed, for tests and benchmarks that cannot reach githubarchive.
+ * <p>
+ * The event types follow the 2016 mix, languages a Zipf distribution over
+ * the real top languages padded with synthetic names, and actors and
+ * repositories are Zipf distributed as well (a few bots and hot
+ * repositories). Payloads are nested like the real ones, including head
+ * repositories, look-alike keys inside strings, {@code null} languages and
+ * forks without a {@code language} key. Each write returns the histogram a
+ * correct count must produce.
+ *
+ * <pre>
+ * $ java -cp github-language-ranking.jar \
+ *       com.github.dittmarsteiner.training.githublanguageranking.EventGenerator \
+ *       --out &lt;dir&gt; --from &lt;yyyy-MM-dd-H&gt; [--to &lt;yyyy-MM-dd-H&gt;]
+ *       [--events &lt;per hour&gt;] [--seed &lt;n&gt;] [--languages &lt;n&gt;] [--json]
+ * </pre>
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class EventGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(EventGenerator.class);
+
+    private static final String[] TYPES = { "PushEvent", "CreateEvent", "WatchEvent",
+            "IssueCommentEvent", "PullRequestEvent", "IssuesEvent", "ForkEvent", "DeleteEvent",
+            "PullRequestReviewCommentEvent", "GollumEvent", "ReleaseEvent", "MemberEvent",
+            "CommitCommentEvent", "PublicEvent" };
+    /** Per mille, about the mix of March 2016. */
+    private static final int[] TYPE_WEIGHTS = { 520, 120, 100, 70, 50, 40, 30, 25, 15, 10, 8, 5,
+            5, 2 };
+
+    private static final String[] TOP_LANGUAGES = { "JavaScript", "Java", "Python", "Ruby", "PHP",
+            "C++", "CSS", "C#", "Go", "C", "Shell", "TypeScript", "Objective-C", "Swift", "Scala",
+            "HTML", "R", "Perl", "Rust", "Kotlin", "Lua", "Haskell", "Clojure", "Groovy",
+            "Emacs Lisp", "VimL", "CoffeeScript", "Elixir", "Erlang", "PowerShell", "Matlab",
+            "Jupyter Notebook", "TeX", "Arduino", "Makefile", "Dart", "OCaml", "Julia", "Puppet",
+            "F#", "Visual Basic", "Assembly", "D", "Scheme", "Common Lisp", "Fortran", "Processing",
+            "Racket", "Prolog", "Apex" };
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern(
+            "yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+    private final SplittableRandom random;
+    private final byte[][] languages;
+    private final double[] languageCdf;
+    private final double[] actorCdf;
+    private final double[] repoCdf;
+    private final int[] typeCdf = new int[TYPES.length];
+    private final byte[][] types = new byte[TYPES.length][];
+    private long nextId = 3_763_000_000L;
+    private final Line line = new Line();
+
+    /**
+     * A generator with 300 languages.
+     *
+     * @param seed the seed, the same seed writes the same events
+     */
+    public EventGenerator(long seed) {
+        this(seed, 300);
+    }
+
+    /**
+     * @param seed the seed, the same seed writes the same events
+     * @param languageCount the number of distinct languages
+     */
+    public EventGenerator(long seed, int languageCount) {
+        random = new SplittableRandom(seed);
+        languages = new byte[languageCount][];
+        for (int i = 0; i < languageCount; i++) {
+            String name = i < TOP_LANGUAGES.length ? TOP_LANGUAGES[i] : "Language-" + (i + 1);
+            languages[i] = name.getBytes(StandardCharsets.UTF_8);
+        }
+        languageCdf = zipf(languageCount, 1.1);
+        actorCdf = zipf(200_000, 0.9);
+        repoCdf = zipf(100_000, 1.0);
+        for (int i = 0, sum = 0; i < TYPES.length; i++) {
+            sum += TYPE_WEIGHTS[i];
+            typeCdf[i] = sum;
+            types[i] = TYPES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Writes {@code args} hours into a directory, see above.
+     *
+     * @param args the command line
+     * @throws IOException on write failure
+     */
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = Arguments.parse(args, "out", "from", "to", "events", "seed",
+                "languages", "json");
+        HourRange range = HourRange.parse(arguments.get("from", null),
+                arguments.get("to", arguments.get("from", null)));
+        Path dir = Files.createDirectories(Paths.get(arguments.get("out", ".")));
+        EventGenerator generator = new EventGenerator(arguments.getLong("seed", 42),
+                arguments.getInt("languages", 300));
+        for (LocalDateTime hour : range.hours()) {
+            String name = HourRange.fileName(hour);
+            if (arguments.has("json")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            generator.write(dir.resolve(name), arguments.getLong("events", 200_000), hour);
+            log.info("Generated {}", dir.resolve(name));
+        }
+    }
+
+    /**
+     * Writes one hour into a file, gzipped if its name ends with {@code .gz}.
+     *
+     * @param file the file to create or replace
+     * @param events the number of events
+     * @param hour the hour of the {@code created_at} timestamps
+     * @return the expected histogram
+     * @throws IOException on write failure
+     */
+    public LanguageCounts write(Path file, long events, LocalDateTime hour) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            if (!file.getFileName().toString().endsWith(".gz")) {
+                return write(out, events, hour);
+            }
+            try (GZIPOutputStream gz = new GZIPOutputStream(out, 1 << 16)) {
+                return write(gz, events, hour);
+            }
+        }
+    }
+
+    /**
+     * Writes one hour of NDJSON events.
+     *
+     * @param out where to write, not closed
+     * @param events the number of events
+     * @param hour the hour of the {@code created_at} timestamps
+     * @return the expected histogram
+     * @throws IOException on write failure
+     */
+    public LanguageCounts write(OutputStream out, long events, LocalDateTime hour) throws IOException {
+        LanguageCounts expected = new LanguageCounts();
+        OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        long second = -1;
+        String timestamp = null;
+        for (long i = 0; i < events; i++) {
+            line.reset();
+            if (i * 3600 / events != second) {
+                second = i * 3600 / events;
+                timestamp = TIMESTAMP.format(hour.plusSeconds(second));
+            }
+            int type = type();
+            int language = event(type, timestamp);
+            buffered.write(line.buf, 0, line.length);
+            int typeId = expected.addEvent(types[type], 0, types[type].length);
+            if (language >= 0) {
+                expected.add(typeId, languages[language], 0, languages[language].length);
+            }
+        }
+        buffered.flush();
+        return expected;
+    }
+
+    /**
+     * @return the counted language index or {@code -1}
+     */
+    private int event(int type, String timestamp) {
+        long actor = 1 + sample(actorCdf);
+        long repo = 1 + sample(repoCdf);
+        line.raw("{\"id\":\"").num(nextId++).raw("\",\"type\":\"").raw(TYPES[type])
+                .raw("\",\"actor\":{\"id\":").num(actor).raw(",\"login\":\"user").num(actor)
+                .raw("\",\"gravatar_id\":\"\",\"url\":\"https://api.github.com/users/user").num(actor)
+                .raw("\",\"avatar_url\":\"https://avatars.githubusercontent.com/u/").num(actor)
+                .raw("?\"},\"repo\":{\"id\":").num(repo).raw(",\"name\":\"org").num(repo % 5000)
+                .raw("/repo").num(repo).raw("\",\"url\":\"https://api.github.com/repos/org")
+                .num(repo % 5000).raw("/repo").num(repo).raw("\"},\"payload\":");
+
+        int language = -1;
+        switch (TYPES[type]) {
+        case "PushEvent":
+            line.raw("{\"push_id\":").num(nextId * 3).raw(",\"size\":2,\"distinct_size\":2,")
+                    .raw("\"ref\":\"refs/heads/master\",\"commits\":[");
+            for (int c = 0; c < 2; c++) {
+                line.raw(c == 0 ? "" : ",").raw("{\"sha\":\"").hex(random.nextLong())
+                        .raw("\",\"author\":{\"email\":\"dev@example.com\",\"name\":\"Dev\"},")
+                        .raw("\"message\":\"").raw(message()).raw("\",\"distinct\":true}");
+            }
+            line.raw("]}");
+            break;
+        case "PullRequestEvent":
+        case "PullRequestReviewCommentEvent":
+            language = language(0.04);
+            line.raw("{\"action\":\"opened\",\"number\":").num(random.nextInt(5000));
+            if (TYPES[type].equals("PullRequestReviewCommentEvent")) {
+                line.raw(",\"comment\":{\"id\":").num(nextId).raw(",\"body\":\"")
+                        .raw(message()).raw("\"}");
+            }
+            line.raw(",\"pull_request\":{\"id\":").num(nextId * 7)
+                    .raw(",\"state\":\"open\",\"title\":\"").raw(message())
+                    .raw("\",\"body\":\"see \\\"base\\\":{\\\"repo\\\":{\\\"language\\\":\\\"Fake\\\"}}\",")
+                    .raw("\"labels\":[{\"name\":\"bug\"}],\"head\":{\"ref\":\"topic\",\"repo\":");
+            if (random.nextInt(20) == 0) {
+                line.raw("null"); // deleted fork
+            }
+            else {
+                repository(1 + sample(repoCdf), random.nextInt(4) == 0 ? language(0.1) : language,
+                        true);
+            }
+            line.raw("},\"base\":{\"ref\":\"master\",\"repo\":");
+            repository(repo, language, true);
+            line.raw("},\"_links\":{\"self\":{\"href\":\"https://api.github.com/pulls/1\"}},")
+                    .raw("\"merged\":false,\"commits\":").num(1 + random.nextInt(9)).raw("}}");
+            break;
+        case "ForkEvent":
+            language = language(0.1);
+            boolean missing = random.nextInt(30) == 0;
+            line.raw("{\"forkee\":");
+            repository(1 + sample(repoCdf), language, !missing);
+            line.raw("}");
+            language = missing ? -1 : language;
+            break;
+        case "IssuesEvent":
+        case "IssueCommentEvent":
+            line.raw("{\"action\":\"opened\",\"issue\":{\"id\":").num(nextId * 5)
+                    .raw(",\"title\":\"").raw(message()).raw("\",\"labels\":[],\"body\":null}");
+            if (TYPES[type].equals("IssueCommentEvent")) {
+                line.raw(",\"comment\":{\"id\":").num(nextId).raw(",\"body\":\"").raw(message())
+                        .raw("\"}");
+            }
+            line.raw("}");
+            break;
+        case "CreateEvent":
+        case "DeleteEvent":
+            line.raw("{\"ref\":\"feature\",\"ref_type\":\"branch\",\"pusher_type\":\"user\"}");
+            break;
+        case "GollumEvent":
+            line.raw("{\"pages\":[{\"page_name\":\"Home\",\"action\":\"edited\",\"sha\":\"")
+                    .hex(random.nextLong()).raw("\"}]}");
+            break;
+        case "ReleaseEvent":
+            line.raw("{\"action\":\"published\",\"release\":{\"tag_name\":\"v1.")
+                    .num(random.nextInt(50)).raw("\",\"assets\":[]}}");
+            break;
+        default:
+            line.raw("{\"action\":\"started\"}");
+        }
+        line.raw(",\"public\":true,\"created_at\":\"").raw(timestamp).raw("\"}\n");
+        return language;
+    }
+
+    private void repository(long id, int language, boolean withLanguage) {
+        line.raw("{\"id\":").num(id).raw(",\"name\":\"repo").num(id)
+                .raw("\",\"full_name\":\"org").num(id % 5000).raw("/repo").num(id)
+                .raw("\",\"owner\":{\"login\":\"org").num(id % 5000)
+                .raw("\",\"type\":\"Organization\"},\"private\":false,\"description\":\"")
+                .raw(message()).raw("\",\"fork\":false,\"size\":").num(random.nextInt(100_000))
+                .raw(",\"stargazers_count\":").num(random.nextInt(1000));
+        if (withLanguage) {
+            line.raw(",\"language\":");
+            if (language < 0) {
+                line.raw("null");
+            }
+            else {
+                line.raw("\"").bytes(languages[language]).raw("\"");
+            }
+        }
+        line.raw(",\"has_issues\":true,\"default_branch\":\"master\"}");
+    }
+
+    private int language(double nullRate) {
+        return random.nextDouble() < nullRate ? -1 : sample(languageCdf);
+    }
+
+    private String message() {
+        switch (random.nextInt(4)) {
+        case 0:
+            return "Fix \\\"language\\\": null handling in {parser} [#" + random.nextInt(999) + "]";
+        case 1:
+            return "Update README \\u2013 caf\\u00e9 edition";
+        case 2:
+            return "Merge branch 'master' into topic\\n\\nConflicts:\\n\\tsrc/main.c";
+        default:
+            return "Bump version";
+        }
+    }
+
+    private int type() {
+        int r = random.nextInt(typeCdf[typeCdf.length - 1]);
+        for (int i = 0; i < typeCdf.length; i++) {
+            if (r < typeCdf[i]) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private int sample(double[] cdf) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+
+    private static double[] zipf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * A reusable ASCII line buffer.
+     */
+    private static final class Line {
+
+        byte[] buf = new byte[1 << 14];
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        Line raw(String ascii) {
+            ensure(ascii.length());
+            for (int i = 0; i < ascii.length(); i++) {
+                buf[length++] = (byte) ascii.charAt(i);
+            }
+            return this;
+        }
+
+        Line bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        Line num(long value) {
+            return raw(Long.toString(value));
+        }
+
+        Line hex(long value) {
+            return raw(Long.toHexString(value));
+        }
+
+        private void ensure(int n) {
+            if (length + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + n));
+            }
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Pulls a few known fields out of one githubarchive JSON event without
+ * building a tree, creating Strings or boxing.
+ * <p>
+ * The scanner walks the line byte by byte and only descends into objects on
+ * the path to a wanted {@link Field}; everything else is skipped by bracket
+ * counting. Results are byte ranges into the scanned buffer, valid until the
+ * next {@link #scan(byte[], int, int)}. A string value's range excludes the
+ * quotes and is left escaped, see {@link #decode(byte[], int, int)}. JSON
+ * {@code null} reads as absent. In steady state a scan allocates nothing.
+ * The ends of strings are found by the {@link ByteSearch#best() best}
+ * {@link ByteSearch}.
+ * <p>
+ * Not thread-safe, use one instance per thread.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class EventScanner {
+
+    /**
+     * The fields known to the scanner, each addressed by its key path from
+     * the event root.
+     */
+    public enum Field {
+        /** The event type, e.g. {@code PushEvent}. */
+        TYPE("type"),
+        /** Pull requests and their review comments: the base repository. */
+        PULL_REQUEST_LANGUAGE("payload", "pull_request", "base", "repo", "language"),
+        /** Forks: the newly created repository. */
+        FORK_LANGUAGE("payload", "forkee", "language"),
+        /** The event ID, a number in a string. */
+        ID("id"),
+        /** The user who acted, a number. */
+        ACTOR_ID("actor", "id"),
+        /** The repository acted on, a number; for forks the source. */
+        REPO_ID("repo", "id"),
+        /** When the event happened, e.g. {@code 2016-03-14T15:04:05Z}. */
+        CREATED_AT("created_at");
+
+        private final byte[][] path;
+
+        Field(String... path) {
+            this.path = new byte[path.length][];
+            for (int i = 0; i < path.length; i++) {
+                this.path[i] = path[i].getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+    private static final ByteSearch SEARCH = ByteSearch.best();
+
+    /** The event types carrying a repository language. */
+    private static final byte[][] LANGUAGE_TYPES = {
+            "PullRequestEvent".getBytes(StandardCharsets.US_ASCII),
+            "PullRequestReviewCommentEvent".getBytes(StandardCharsets.US_ASCII),
+            "ForkEvent".getBytes(StandardCharsets.US_ASCII) };
+
+    private final int wanted;
+    private final int[] starts = new int[FIELDS.length];
+    private final int[] ends = new int[FIELDS.length];
+    private byte[] buf;
+    private int to;
+    private int found;
+
+    /**
+     * A scanner for all known fields.
+     */
+    public EventScanner() {
+        this(EnumSet.allOf(Field.class));
+    }
+
+    /**
+     * @param fields the fields to extract, the others are skipped
+     */
+    public EventScanner(Set<Field> fields) {
+        int mask = 0;
+        for (Field field : fields) {
+            mask |= 1 << field.ordinal();
+        }
+        wanted = mask;
+    }
+
+    /**
+     * Scans one event.
+     *
+     * @param buf the buffer holding the line, referenced until the next scan
+     * @param from the first byte of the line
+     * @param to the end of the line (exclusive)
+     * @return {@code false} if the line is not a well-formed JSON object
+     */
+    public boolean scan(byte[] buf, int from, int to) {
+        this.buf = buf;
+        this.to = to;
+        found = 0;
+        int p = whitespace(from);
+        if (p >= to || buf[p] != '{') {
+            return false;
+        }
+        return object(p, 0, wanted) >= 0;
+    }
+
+    /**
+     * @param field a field
+     * @return {@code true} if the last scanned event had a non-null value
+     */
+    public boolean has(Field field) {
+        return (found & (1 << field.ordinal())) != 0;
+    }
+
+    /**
+     * @param field a {@link #has(Field) present} field
+     * @return the start of the value in the scanned buffer
+     */
+    public int start(Field field) {
+        return starts[field.ordinal()];
+    }
+
+    /**
+     * @param field a {@link #has(Field) present} field
+     * @return the end of the value in the scanned buffer (exclusive)
+     */
+    public int end(Field field) {
+        return ends[field.ordinal()];
+    }
+
+    /**
+     * @return the field holding the repository language of the last scanned
+     *         event, or {@code null} if it has none
+     */
+    public Field language() {
+        if (has(Field.PULL_REQUEST_LANGUAGE)) {
+            return Field.PULL_REQUEST_LANGUAGE;
+        }
+        if (has(Field.FORK_LANGUAGE)) {
+            return Field.FORK_LANGUAGE;
+        }
+        return null;
+    }
+
+    /**
+     * Parses a decimal value without materializing it, quoted or not.
+     *
+     * @param field a field
+     * @return the non-negative value, or {@code -1} if absent or not a plain
+     *         decimal number
+     */
+    public long number(Field field) {
+        if (!has(field)) {
+            return -1;
+        }
+        int from = start(field);
+        int to = end(field);
+        if (from == to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses an ISO-8601 UTC timestamp like {@code 2016-03-14T15:04:05Z}
+     * without allocating, fractions of a second are ignored.
+     *
+     * @param field a field holding a timestamp, e.g.
+     *            {@link Field#CREATED_AT}
+     * @return the seconds since the epoch or {@link Long#MIN_VALUE} if absent
+     *         or not such a timestamp
+     */
+    public long epochSecond(Field field) {
+        if (!has(field)) {
+            return Long.MIN_VALUE;
+        }
+        int p = start(field);
+        int end = end(field);
+        if (end - p < 20 || buf[p + 4] != '-' || buf[p + 7] != '-' || buf[p + 10] != 'T'
+                || buf[p + 13] != ':' || buf[p + 16] != ':' || buf[end - 1] != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(p, 4);
+        int month = digits(p + 5, 2);
+        int day = digits(p + 8, 2);
+        int hour = digits(p + 11, 2);
+        int minute = digits(p + 14, 2);
+        int second = digits(p + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour > 23
+                || minute > 59 || second > 60) {
+            return Long.MIN_VALUE;
+        }
+        // days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146_097L + dayOfEra - 719_468;
+        return days * 86_400 + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * @return the decimal value of {@code n} digits or {@code -1}
+     */
+    private int digits(int p, int n) {
+        int value = 0;
+        for (int i = p; i < p + n; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return {@code true} if the type of the last scanned event is one that
+     *         carries a repository language, whether it had one or not
+     */
+    public boolean languageType() {
+        for (byte[] type : LANGUAGE_TYPES) {
+            if (equals(Field.TYPE, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param field a field
+     * @param value the expected raw bytes
+     * @return {@code true} if the field is present and its raw value equals
+     *         {@code value}
+     */
+    public boolean equals(Field field, byte[] value) {
+        int i = field.ordinal();
+        return has(field) && Arrays.equals(buf, starts[i], ends[i], value, 0, value.length);
+    }
+
+    /**
+     * Materializes a value, for export and diagnostics only.
+     *
+     * @param field a field
+     * @return the decoded value or {@code null} if absent
+     */
+    public String string(Field field) {
+        return has(field) ? decode(buf, start(field), end(field)) : null;
+    }
+
+    /**
+     * Decodes the escaped contents of a JSON string.
+     *
+     * @param buf the buffer
+     * @param from the first byte after the opening quote
+     * @param to the closing quote
+     * @return the String
+     */
+    public static String decode(byte[] buf, int from, int to) {
+        int backslash = -1;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\\') {
+                backslash = i;
+                break;
+            }
+        }
+        if (backslash < 0) {
+            return new String(buf, from, to - from, StandardCharsets.UTF_8);
+        }
+        StringBuilder s = new StringBuilder(to - from);
+        s.append(new String(buf, from, backslash - from, StandardCharsets.UTF_8));
+        int i = backslash;
+        while (i < to) {
+            int j = i;
+            while (j < to && buf[j] != '\\') {
+                j++;
+            }
+            s.append(new String(buf, i, j - i, StandardCharsets.UTF_8));
+            if (j + 1 >= to) {
+                break;
+            }
+            byte c = buf[j + 1];
+            i = j + 2;
+            switch (c) {
+            case 'b': s.append('\b'); break;
+            case 'f': s.append('\f'); break;
+            case 'n': s.append('\n'); break;
+            case 'r': s.append('\r'); break;
+            case 't': s.append('\t'); break;
+            case 'u':
+                if (i + 4 <= to) {
+                    s.append((char) Integer.parseInt(
+                            new String(buf, i, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                }
+                break;
+            default: s.append((char) c);
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * @param p at {@code '{'}
+     * @return the position after the closing {@code '}'} or {@code -1}
+     */
+    private int object(int p, int depth, int mask) {
+        p = whitespace(p + 1);
+        if (p < to && buf[p] == '}') {
+            return p + 1;
+        }
+        while (p < to) {
+            if (buf[p] != '"') {
+                return -1;
+            }
+            int keyFrom = p + 1;
+            int keyTo = stringEnd(p);
+            if (keyTo < 0) {
+                return -1;
+            }
+            p = whitespace(keyTo + 1);
+            if (p >= to || buf[p] != ':') {
+                return -1;
+            }
+            p = whitespace(p + 1);
+            if (p >= to) {
+                return -1;
+            }
+
+            int childMask = mask == 0 ? 0 : match(mask, depth, keyFrom, keyTo);
+            p = childMask == 0 ? skip(p) : value(p, depth + 1, childMask);
+            if (p < 0) {
+                return -1;
+            }
+
+            p = whitespace(p);
+            if (p >= to) {
+                return -1;
+            }
+            if (buf[p] == '}') {
+                return p + 1;
+            }
+            if (buf[p] != ',') {
+                return -1;
+            }
+            p = whitespace(p + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the fields of {@code mask} whose path continues with the key
+     */
+    private int match(int mask, int depth, int keyFrom, int keyTo) {
+        int matched = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                byte[][] path = FIELDS[i].path;
+                if (depth < path.length && Arrays.equals(
+                        buf, keyFrom, keyTo, path[depth], 0, path[depth].length)) {
+                    matched |= 1 << i;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * A value on the path of at least one field.
+     */
+    private int value(int p, int depth, int mask) {
+        byte c = buf[p];
+        if (c == '{') {
+            return object(p, depth, mask);
+        }
+        int end = skip(p);
+        if (end < 0 || c == '[') {
+            return end;
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((mask & (1 << i)) != 0 && FIELDS[i].path.length == depth) {
+                if (c == '"') {
+                    starts[i] = p + 1;
+                    ends[i] = end - 1;
+                    found |= 1 << i;
+                }
+                else if (c != 'n') { // number or boolean, null is absent
+                    starts[i] = p;
+                    ends[i] = end;
+                    found |= 1 << i;
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Skips any value.
+     *
+     * @return the position after the value or {@code -1}
+     */
+    private int skip(int p) {
+        byte c = buf[p];
+        if (c == '"') {
+            int end = stringEnd(p);
+            return end < 0 ? -1 : end + 1;
+        }
+        if (c == '{' || c == '[') {
+            int nesting = 0;
+            for (int i = p; i < to; i++) {
+                c = buf[i];
+                if (c == '"') {
+                    i = stringEnd(i);
+                    if (i < 0) {
+                        return -1;
+                    }
+                }
+                else if (c == '{' || c == '[') {
+                    nesting++;
+                }
+                else if ((c == '}' || c == ']') && --nesting == 0) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        for (int i = p; i < to; i++) {
+            c = buf[i];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @param p at the opening quote
+     * @return the position of the closing quote or {@code -1}
+     */
+    private int stringEnd(int p) {
+        for (int i = p + 1; i < to; i++) {
+            i = SEARCH.indexOfQuoteOrBackslash(buf, i, to);
+            if (i < 0) {
+                return -1;
+            }
+            if (buf[i] == '"') {
+                return i;
+            }
+            i++; // the escaped byte
+        }
+        return -1;
+    }
+
+    private int whitespace(int p) {
+        while (p < to) {
+            byte c = buf[p];
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An inclusive range of archive hours, e.g. {@code 2016-03-14-00} to
+ * {@code 2016-03-20-23}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class HourRange {
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    /**
+     * @param from the first hour
+     * @param to the last hour, not before {@code from}
+     */
+    public HourRange(LocalDateTime from, LocalDateTime to) {
+        this.from = from.truncatedTo(ChronoUnit.HOURS);
+        this.to = to.truncatedTo(ChronoUnit.HOURS);
+        if (this.to.isBefore(this.from)) {
+            throw new IllegalArgumentException("Empty range: " + from + " to " + to);
+        }
+    }
+
+    /**
+     * @param from the first hour as {@code yyyy-MM-dd-H} or {@code yyyy-MM-dd-HH}
+     * @param to the last hour, same format
+     * @return the range
+     */
+    public static HourRange parse(String from, String to) {
+        return new HourRange(parseHour(from), parseHour(to));
+    }
+
+    /**
+     * @param hour {@code yyyy-MM-dd-H} or {@code yyyy-MM-dd-HH}
+     * @return the hour
+     */
+    public static LocalDateTime parseHour(String hour) {
+        int dash = hour.lastIndexOf('-');
+        try {
+            return LocalDate.parse(hour.substring(0, dash), DAY)
+                    .atTime(Integer.parseInt(hour.substring(dash + 1)), 0);
+        }
+        catch (RuntimeException e) {
+            throw new DateTimeParseException("Not an hour: " + hour, hour, 0, e);
+        }
+    }
+
+    /**
+     * @param hour an hour
+     * @return the hour as {@code yyyy-MM-dd-H}, see {@link #parseHour(String)}
+     */
+    public static String format(LocalDateTime hour) {
+        return DAY.format(hour) + '-' + hour.getHour();
+    }
+
+    /**
+     * @param hour an hour
+     * @return the archive file name as on githubarchive, e.g.
+     *         {@code 2016-03-14-0.json.gz} (the hour is not zero padded)
+     */
+    public static String fileName(LocalDateTime hour) {
+        return format(hour) + ".json.gz";
+    }
+
+    /**
+     * @return the first hour
+     */
+    public LocalDateTime from() {
+        return from;
+    }
+
+    /**
+     * @return the last hour
+     */
+    public LocalDateTime to() {
+        return to;
+    }
+
+    /**
+     * @param parts the number of ranges wanted
+     * @return consecutive ranges covering this one, their sizes differ by at
+     *         most one hour; fewer than {@code parts} if there are fewer hours
+     */
+    public List<HourRange> split(int parts) {
+        int n = Math.max(1, Math.min(parts, size()));
+        List<HourRange> ranges = new ArrayList<>(n);
+        LocalDateTime start = from;
+        for (int i = 0; i < n; i++) {
+            int hours = size() / n + (i < size() % n ? 1 : 0);
+            ranges.add(new HourRange(start, start.plusHours(hours - 1)));
+            start = start.plusHours(hours);
+        }
+        return ranges;
+    }
+
+    /**
+     * @return every hour of the range, ascending
+     */
+    public List<LocalDateTime> hours() {
+        List<LocalDateTime> hours = new ArrayList<>();
+        for (LocalDateTime hour = from; !hour.isAfter(to); hour = hour.plusHours(1)) {
+            hours.add(hour);
+        }
+        return hours;
+    }
+
+    /**
+     * @return the number of hours
+     */
+    public int size() {
+        return (int) ChronoUnit.HOURS.between(from, to) + 1;
+    }
+
+    @Override
+    public String toString() {
+        return format(from) + ".." + format(to);
+    }
+}
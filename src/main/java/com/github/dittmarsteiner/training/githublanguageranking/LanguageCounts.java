@@ -0,0 +1,477 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The activity histogram: how many events have been counted per programming
+ * language, plus how many events were scanned per event type. Languages and
+ * types are interned in a {@link LanguageDictionary} each and counted in a
+ * {@code long[]} indexed by their ID; names are only materialized for
+ * export. Not thread-safe; parallel workers count into
+ * their own instances which are {@link #merge(LanguageCounts) merged}
+ * afterwards.
+ * <p>
+ * Activities of typed events are counted per language and event type as
+ * well, in a flat matrix with one row of type columns per language. A
+ * histogram of any subset of event types is derived from it by
+ * {@link #ofTypes(Collection)} without scanning again.
+ * <p>
+ * Per language the distinct actors and repositories of its activities are
+ * estimated by a {@link HyperLogLog} sketch each, allocated with the first
+ * activity that carries their IDs, and the repositories with the most
+ * activities by a {@link SpaceSaving} sketch. Sketches merge like the
+ * counts.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class LanguageCounts {
+
+    private final LanguageDictionary dictionary = new LanguageDictionary();
+    private long[] counts = new long[64];
+    private final LanguageDictionary types = new LanguageDictionary();
+    private long[] typeCounts = new long[64];
+    /** {@code cube[language * stride + type]} */
+    private long[] cube = new long[0];
+    private int stride;
+    private HyperLogLog[] actors = new HyperLogLog[0];
+    private HyperLogLog[] repos = new HyperLogLog[0];
+    private SpaceSaving[] topRepos = new SpaceSaving[0];
+    private long events;
+
+    /**
+     * Counts one activity for the given raw language name.
+     *
+     * @param buf the buffer holding the name, as in the JSON string
+     * @param from the first byte
+     * @param to the end (exclusive)
+     */
+    public void add(byte[] buf, int from, int to) {
+        add(dictionary.id(buf, from, to), 1);
+    }
+
+    /**
+     * Counts one activity for the given raw language name and event type.
+     *
+     * @param type an event type ID, as returned by
+     *            {@link #addEvent(byte[], int, int)}
+     * @param buf the buffer holding the name, as in the JSON string
+     * @param from the first byte
+     * @param to the end (exclusive)
+     */
+    public void add(int type, byte[] buf, int from, int to) {
+        int id = dictionary.id(buf, from, to);
+        add(id, 1);
+        cell(id, type, 1);
+    }
+
+    /**
+     * Counts one activity for the given raw language name and event type,
+     * with the actor and the repository of the event for the distinct
+     * counts.
+     *
+     * @param type an event type ID, as returned by
+     *            {@link #addEvent(byte[], int, int)}, or {@code -1} if
+     *            unknown
+     * @param buf the buffer holding the name, as in the JSON string
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @param actor the actor ID, negative if unknown
+     * @param repo the repository ID, negative if unknown
+     * @return the language ID
+     */
+    public int add(int type, byte[] buf, int from, int to, long actor, long repo) {
+        int id = dictionary.id(buf, from, to);
+        add(id, 1);
+        if (type >= 0) {
+            cell(id, type, 1);
+        }
+        if (actor >= 0) {
+            actors(id).add(actor);
+        }
+        if (repo >= 0) {
+            repos(id).add(repo);
+            topReposOf(id).add(repo);
+        }
+        return id;
+    }
+
+    /**
+     * Counts one activity for the given language.
+     *
+     * @param language the language name, never {@code null}
+     */
+    public void add(String language) {
+        byte[] bytes = language.getBytes(StandardCharsets.UTF_8);
+        add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Counts one scanned event without known type.
+     */
+    public void addEvent() {
+        events++;
+    }
+
+    /**
+     * Counts one scanned event, regardless whether it carried a language.
+     *
+     * @param buf the buffer holding the raw event type
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @return the event type ID, for {@link #add(int, byte[], int, int)}
+     */
+    public int addEvent(byte[] buf, int from, int to) {
+        events++;
+        int type = types.id(buf, from, to);
+        addType(type, 1);
+        return type;
+    }
+
+    /**
+     * Adds counts in bulk, e.g. when reading a stored histogram.
+     *
+     * @param buf the buffer holding the raw language name
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @param count the activities to add
+     */
+    public void add(byte[] buf, int from, int to, long count) {
+        add(dictionary.id(buf, from, to), count);
+    }
+
+    /**
+     * Adds events in bulk, e.g. when reading a stored histogram. The events
+     * are counted in {@link #events()} as well.
+     *
+     * @param buf the buffer holding the raw event type
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @param count the events to add
+     * @return the event type ID
+     */
+    public int addEvents(byte[] buf, int from, int to, long count) {
+        events += count;
+        int type = types.id(buf, from, to);
+        addType(type, count);
+        return type;
+    }
+
+    /**
+     * Adds events of unknown type in bulk.
+     *
+     * @param count the events to add
+     */
+    public void addEvents(long count) {
+        events += count;
+    }
+
+    /**
+     * Adds all counts of {@code other} to this histogram.
+     *
+     * @param other the histogram to merge, left unchanged
+     * @return this
+     */
+    public LanguageCounts merge(LanguageCounts other) {
+        for (int id = 0; id < other.dictionary.size(); id++) {
+            add(other.dictionary.copy(id, dictionary), other.counts[id]);
+        }
+        int[] typeIds = new int[other.types.size()];
+        for (int id = 0; id < other.types.size(); id++) {
+            typeIds[id] = other.types.copy(id, types);
+            addType(typeIds[id], other.typeCounts[id]);
+        }
+        for (int id = 0; id < other.dictionary.size(); id++) {
+            int language = -1;
+            for (int type = 0; type < typeIds.length; type++) {
+                long count = other.count(id, type);
+                if (count != 0) {
+                    if (language < 0) {
+                        language = other.dictionary.copy(id, dictionary);
+                    }
+                    cell(language, typeIds[type], count);
+                }
+            }
+        }
+        for (int id = 0; id < other.actors.length; id++) {
+            if (other.actors[id] != null) {
+                actors(other.dictionary.copy(id, dictionary)).merge(other.actors[id]);
+            }
+        }
+        for (int id = 0; id < other.repos.length; id++) {
+            if (other.repos[id] != null) {
+                repos(other.dictionary.copy(id, dictionary)).merge(other.repos[id]);
+            }
+        }
+        for (int id = 0; id < other.topRepos.length; id++) {
+            if (other.topRepos[id] != null) {
+                topReposOf(other.dictionary.copy(id, dictionary)).merge(other.topRepos[id]);
+            }
+        }
+        events += other.events;
+        return this;
+    }
+
+    /**
+     * A histogram of only the given event types: their activities per
+     * language, and their events. The sketches count all types, the
+     * selection has none.
+     *
+     * @param eventTypes the event types, e.g. {@code PullRequestEvent}
+     * @return a new histogram
+     */
+    public LanguageCounts ofTypes(Collection<String> eventTypes) {
+        LanguageCounts selected = new LanguageCounts();
+        for (String eventType : eventTypes) {
+            byte[] bytes = eventType.getBytes(StandardCharsets.UTF_8);
+            int type = types.find(bytes, 0, bytes.length);
+            if (type < 0 || selected.types.find(bytes, 0, bytes.length) >= 0) {
+                continue;
+            }
+            int selectedType = selected.addEvents(bytes, 0, bytes.length, typeCounts[type]);
+            for (int id = 0; id < dictionary.size(); id++) {
+                long count = count(id, type);
+                if (count != 0) {
+                    int language = dictionary.copy(id, selected.dictionary);
+                    selected.add(language, count);
+                    selected.cell(language, selectedType, count);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param language the language name
+     * @return the number of activities, {@code 0} if unknown
+     */
+    public long get(String language) {
+        byte[] bytes = language.getBytes(StandardCharsets.UTF_8);
+        int id = dictionary.find(bytes, 0, bytes.length);
+        return id < 0 ? 0 : counts[id];
+    }
+
+    /**
+     * @param id a language ID of the {@link #dictionary()}
+     * @return the number of activities
+     */
+    public long count(int id) {
+        return counts[id];
+    }
+
+    /**
+     * @param language a language ID of the {@link #dictionary()}
+     * @param type an event type ID of the {@link #types()}
+     * @return the activities of this language in events of this type
+     */
+    public long count(int language, int type) {
+        int cell = language * stride + type;
+        return type < stride && cell < cube.length ? cube[cell] : 0;
+    }
+
+    /**
+     * @param language a language ID of the {@link #dictionary()}
+     * @return the sketch of its distinct actors, {@code null} if no
+     *         activity carried an actor ID
+     */
+    public HyperLogLog distinctActors(int language) {
+        return language < actors.length ? actors[language] : null;
+    }
+
+    /**
+     * @param language a language ID of the {@link #dictionary()}
+     * @return the sketch of its distinct repositories, {@code null} if no
+     *         activity carried a repository ID
+     */
+    public HyperLogLog distinctRepos(int language) {
+        return language < repos.length ? repos[language] : null;
+    }
+
+    /**
+     * @param language a language ID of the {@link #dictionary()}
+     * @return the sketch of its repositories with the most activities,
+     *         {@code null} if no activity carried a repository ID
+     */
+    public SpaceSaving topRepos(int language) {
+        return language < topRepos.length ? topRepos[language] : null;
+    }
+
+    /**
+     * @return {@code true} if any activity carried an actor or repository
+     *         ID
+     */
+    public boolean hasDistinct() {
+        for (int id = 0; id < Math.max(actors.length, repos.length); id++) {
+            if (distinctActors(id) != null || distinctRepos(id) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the dictionary of the language IDs
+     */
+    public LanguageDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the dictionary of the event type IDs
+     */
+    public LanguageDictionary types() {
+        return types;
+    }
+
+    /**
+     * @param id an event type ID of the {@link #types()}
+     * @return the number of scanned events of this type
+     */
+    public long typeCount(int id) {
+        return typeCounts[id];
+    }
+
+    /**
+     * @param type an event type, e.g. {@code PushEvent}
+     * @return the number of scanned events of this type
+     */
+    public long eventsOf(String type) {
+        byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+        int id = types.find(bytes, 0, bytes.length);
+        return id < 0 ? 0 : typeCounts[id];
+    }
+
+    /**
+     * @return the number of distinct languages
+     */
+    public int size() {
+        return dictionary.size();
+    }
+
+    /**
+     * @return the sum of all activities
+     */
+    public long total() {
+        long total = 0;
+        for (int id = 0; id < dictionary.size(); id++) {
+            total += counts[id];
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of scanned events, including those without language
+     */
+    public long events() {
+        return events;
+    }
+
+    /**
+     * @return an unmodifiable snapshot: language → activities
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new HashMap<>(dictionary.size() * 2);
+        for (int id = 0; id < dictionary.size(); id++) {
+            map.merge(dictionary.name(id), counts[id], Long::sum);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private void add(int id, long count) {
+        if (id >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, id + 1));
+        }
+        counts[id] += count;
+    }
+
+    /**
+     * Adds to the activities of a language in events of a type only, the
+     * language total is counted separately.
+     */
+    void cell(int language, int type, long count) {
+        if (type >= stride) {
+            int wider = Math.max(8, Integer.highestOneBit(type) << 1);
+            int rows = stride == 0 ? 0 : cube.length / stride;
+            long[] relaid = new long[rows * wider];
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(cube, row * stride, relaid, row * wider, stride);
+            }
+            cube = relaid;
+            stride = wider;
+        }
+        int cell = language * stride + type;
+        if (cell >= cube.length) {
+            cube = Arrays.copyOf(cube, Math.max(cube.length * 2, (language + 1) * stride));
+        }
+        cube[cell] += count;
+    }
+
+    /**
+     * @return the actor sketch of a language, allocated on first use
+     */
+    HyperLogLog actors(int language) {
+        if (language >= actors.length) {
+            actors = Arrays.copyOf(actors, Math.max(actors.length * 2, language + 1));
+        }
+        if (actors[language] == null) {
+            actors[language] = new HyperLogLog();
+        }
+        return actors[language];
+    }
+
+    /**
+     * @return the repository sketch of a language, allocated on first use
+     */
+    HyperLogLog repos(int language) {
+        if (language >= repos.length) {
+            repos = Arrays.copyOf(repos, Math.max(repos.length * 2, language + 1));
+        }
+        if (repos[language] == null) {
+            repos[language] = new HyperLogLog();
+        }
+        return repos[language];
+    }
+
+    /**
+     * @return the top repositories sketch of a language, allocated on first
+     *         use
+     */
+    SpaceSaving topReposOf(int language) {
+        if (language >= topRepos.length) {
+            topRepos = Arrays.copyOf(topRepos, Math.max(topRepos.length * 2, language + 1));
+        }
+        if (topRepos[language] == null) {
+            topRepos[language] = new SpaceSaving();
+        }
+        return topRepos[language];
+    }
+
+    private void addType(int id, long count) {
+        if (id >= typeCounts.length) {
+            typeCounts = Arrays.copyOf(typeCounts, Math.max(typeCounts.length * 2, id + 1));
+        }
+        typeCounts[id] += count;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.util.Arrays;
+
+/**
+ * Interns language names (or event types) as dense int IDs
+ * {@code 0, 1, 2, …} in order of first appearance. Lookup hashes the raw
+ * bytes of the name straight from the scanned line, no String is created.
+ * Names are kept as raw JSON string contents and only decoded by
+ * {@link #name(int)}.
+ * <p>
+ * Not thread-safe, each histogram owns its dictionary.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class LanguageDictionary {
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    /** Open addressing: {@code id + 1} per slot, {@code 0} if free. */
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private int[] offsets = new int[INITIAL_CAPACITY / 2 + 1];
+    private byte[] bytes = new byte[INITIAL_CAPACITY * 16];
+    private String[] names = new String[INITIAL_CAPACITY / 2];
+    private int size;
+
+    /**
+     * Looks up a name, interning it on first sight.
+     *
+     * @param buf the buffer holding the raw name
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @return the ID
+     */
+    public int id(byte[] buf, int from, int to) {
+        int hash = hash(buf, from, to);
+        int mask = slots.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return add(buf, from, to, hash, i);
+            }
+            int id = slot - 1;
+            if (hashes[id] == hash && Arrays.equals(
+                    bytes, offsets[id], offsets[id + 1], buf, from, to)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param buf the buffer holding the raw name
+     * @param from the first byte
+     * @param to the end (exclusive)
+     * @return the ID or {@code -1} if unknown
+     */
+    public int find(byte[] buf, int from, int to) {
+        int hash = hash(buf, from, to);
+        int mask = slots.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return -1;
+            }
+            int id = slot - 1;
+            if (hashes[id] == hash && Arrays.equals(
+                    bytes, offsets[id], offsets[id + 1], buf, from, to)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param id an ID
+     * @return a copy of the raw name
+     */
+    public byte[] bytes(int id) {
+        return Arrays.copyOfRange(bytes, offsets[id], offsets[id + 1]);
+    }
+
+    /**
+     * @param id an ID
+     * @return {@code true} if the raw name contains JSON escapes, so its
+     *         decoded name may equal that of another ID
+     */
+    public boolean escaped(int id) {
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+            if (bytes[i] == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id an ID
+     * @return the decoded name, created once per ID
+     */
+    public String name(int id) {
+        String name = names[id];
+        if (name == null) {
+            name = EventScanner.decode(bytes, offsets[id], offsets[id + 1]);
+            names[id] = name;
+        }
+        return name;
+    }
+
+    /**
+     * @return the number of interned names, IDs are below
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the raw name into another dictionary.
+     *
+     * @param id an ID of this dictionary
+     * @param into the target
+     * @return the ID in {@code into}
+     */
+    public int copy(int id, LanguageDictionary into) {
+        return into.id(bytes, offsets[id], offsets[id + 1]);
+    }
+
+    static int hash(byte[] buf, int from, int to) {
+        int hash = 0x811c9dc5; // FNV-1a
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ buf[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private int add(byte[] buf, int from, int to, int hash, int slot) {
+        int id = size++;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            offsets = Arrays.copyOf(offsets, id * 2 + 1);
+            names = Arrays.copyOf(names, id * 2);
+        }
+        int len = to - from;
+        int offset = offsets[id];
+        if (offset + len > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, offset + len));
+        }
+        System.arraycopy(buf, from, bytes, offset, len);
+        offsets[id + 1] = offset + len;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+}
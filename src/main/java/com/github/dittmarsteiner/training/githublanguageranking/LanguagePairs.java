@@ -0,0 +1,214 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The exact activities per language and repository, and per language and
+ * actor, for reports whose cardinality outgrows the heap: each dimension is
+ * counted by a {@link SpillingAggregator} with half of the memory budget,
+ * spilling sorted runs to disk beyond it.
+ * <p>
+ * Languages are interned in a dictionary of their own, so all threads of a
+ * run count into one instance: each collects the activities of a file in a
+ * {@link Batch} and adds it at once, synchronized. The reports are ordered
+ * by language name and ID.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class LanguagePairs implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LanguagePairs.class);
+
+    static final String REPOS_HEADER = "LANGUAGE,REPO_ID,ACTIVITIES";
+    static final String ACTORS_HEADER = "LANGUAGE,ACTOR_ID,ACTIVITIES";
+
+    private final LanguageDictionary dictionary = new LanguageDictionary();
+    private int[] canonical = new int[64];
+    private final Map<String, Integer> byName = new HashMap<>();
+    private final SpillingAggregator repos;
+    private final SpillingAggregator actors;
+
+    /**
+     * @param repos {@code true} to count per language and repository
+     * @param actors {@code true} to count per language and actor
+     * @param budget the bytes of memory for both
+     * @param dir where to spill
+     */
+    public LanguagePairs(boolean repos, boolean actors, long budget, Path dir) {
+        long share = repos && actors ? budget / 2 : budget;
+        SpillingAggregator.GroupOrder byName = (a, b) -> {
+            int c = dictionary.name(a).compareTo(dictionary.name(b));
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+        this.repos = repos ? new SpillingAggregator(share, dir, byName) : null;
+        this.actors = actors ? new SpillingAggregator(share, dir, byName) : null;
+    }
+
+    /**
+     * Counts the activities of a batch.
+     *
+     * @param batch the activities
+     * @param languages the dictionary of their language IDs
+     * @throws IOException if a run cannot be spilled
+     */
+    public synchronized void add(Batch batch, LanguageDictionary languages) throws IOException {
+        int[] ids = new int[languages.size()];
+        Arrays.fill(ids, -1);
+        for (int i = 0; i < batch.size; i++) {
+            int language = batch.languages[i];
+            if (ids[language] < 0) {
+                byte[] name = languages.bytes(language);
+                ids[language] = language(name, 0, name.length);
+            }
+            if (repos != null && batch.repos[i] >= 0) {
+                repos.add(ids[language], batch.repos[i], 1);
+            }
+            if (actors != null && batch.actors[i] >= 0) {
+                actors.add(ids[language], batch.actors[i], 1);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code LANGUAGE,REPO_ID,ACTIVITIES}, once.
+     *
+     * @param out where to write
+     * @throws IOException on failure
+     */
+    public synchronized void writeRepos(Path out) throws IOException {
+        write(repos, REPOS_HEADER, out);
+    }
+
+    /**
+     * Writes {@code LANGUAGE,ACTOR_ID,ACTIVITIES}, once.
+     *
+     * @param out where to write
+     * @throws IOException on failure
+     */
+    public synchronized void writeActors(Path out) throws IOException {
+        write(actors, ACTORS_HEADER, out);
+    }
+
+    /**
+     * @return the number of runs spilled so far
+     */
+    public synchronized int runs() {
+        return (repos == null ? 0 : repos.runs()) + (actors == null ? 0 : actors.runs());
+    }
+
+    /**
+     * Deletes the spilled runs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (repos != null) {
+            repos.close();
+        }
+        if (actors != null) {
+            actors.close();
+        }
+    }
+
+    /**
+     * @return the ID of the language, the same for raw names that decode
+     *         equally
+     */
+    private int language(byte[] buf, int from, int to) {
+        int size = dictionary.size();
+        int id = dictionary.id(buf, from, to);
+        if (id == size) { // new
+            if (id == canonical.length) {
+                canonical = Arrays.copyOf(canonical, id * 2);
+            }
+            canonical[id] = byName.computeIfAbsent(dictionary.name(id), name -> id);
+        }
+        return canonical[id];
+    }
+
+    /**
+     * The activities of one input, by the language IDs of its histogram.
+     */
+    public static final class Batch {
+        private int[] languages = new int[1024];
+        private long[] actors = new long[1024];
+        private long[] repos = new long[1024];
+        private int size;
+
+        /**
+         * @param language a language ID
+         * @param actor the actor ID, negative if unknown
+         * @param repo the repository ID, negative if unknown
+         */
+        public void add(int language, long actor, long repo) {
+            if (size == languages.length) {
+                languages = Arrays.copyOf(languages, size * 2);
+                actors = Arrays.copyOf(actors, size * 2);
+                repos = Arrays.copyOf(repos, size * 2);
+            }
+            languages[size] = language;
+            actors[size] = actor;
+            repos[size++] = repo;
+        }
+
+        /**
+         * @return the number of activities
+         */
+        public int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private void write(SpillingAggregator aggregator, String header, Path out) throws IOException {
+        if (aggregator == null) {
+            throw new IllegalStateException("Not counted: " + header);
+        }
+        int runs = aggregator.runs();
+        long spilled = aggregator.spilledBytes();
+        long[] rows = new long[1];
+        try (Writer writer = Files.newBufferedWriter(out)) {
+            writer.append(header).append('\n');
+            StringBuilder line = new StringBuilder();
+            aggregator.forEach((language, key, count) -> {
+                line.setLength(0);
+                line.append(CsvExport.escape(dictionary.name(language))).append(',')
+                        .append(key).append(',')
+                        .append(count).append('\n');
+                writer.append(line);
+                rows[0]++;
+            });
+        }
+        log.info("Wrote {} rows to {}, merged from {} spilled runs of {} KB and memory", rows[0],
+                out, runs, spilled >> 10);
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+import com.github.dittmarsteiner.training.githublanguageranking.RankingEvents.FileEvent;
+
+/**
+ * Creates the programming language ranking (CSV) for one or more hours of
+ * githubarchive activity.
+ * <p>
+ * The archive is counted while it is downloading: the HTTP body is inflated
+ * and split into lines on the fly, nothing is written to disk and the
+ * decompressed JSON is never held in memory.
+ * <p>
+ * A local, already decompressed {@code .json} hour file is memory-mapped
+ * and counted in parallel chunks instead, see {@link MappedFileCounter}. A
+ * local {@code .json.gz} is inflated on several threads if it consists of
+ * several gzip members, see {@link ParallelGunzip}.
+ * <p>
+ * With {@code --staged} the download is counted by a
+ * {@link StagedPipeline} instead, which runs fetch, inflate, split, extract
+ * and aggregate on threads of their own and logs the load of every stage.
+ * <p>
+ * A range of hours is fetched and counted concurrently into one ranking,
+ * see {@link ArchiveScheduler}. Downloads can be kept in an
+ * {@link ArchiveCache} to skip the network on later runs, and the counted
+ * hours in a {@link SegmentStore} to skip the archives altogether.
+ * <p>
+ * Every 10 seconds a progress line of the {@link Metrics} is logged, and at
+ * the end a JSON summary, optionally written to {@code --metrics}. Counted
+ * files, parallel chunks and the export are emitted as Flight Recorder
+ * events, see {@link RankingEvents}.
+ * <p>
+ * With {@code --dedup} every event is counted once by its ID, even if it
+ * occurs in several files or twice in one; the IDs are kept off-heap in an
+ * {@link OffHeapLongSet} sized for the expected number of events.
+ * <p>
+ * With {@code --distinct} the CSV has two more columns, the distinct actors
+ * and repositories per language, estimated by {@link HyperLogLog} sketches.
+ * {@code --repos} writes the repositories with the most activities of each
+ * ranked language, tracked by a {@link SpaceSaving} sketch per language.
+ * <p>
+ * With {@code --watch} it keeps running and updates the CSV as hourly
+ * archives land in a directory, counting each exactly once, see
+ * {@link DropDirectory}. With {@code --serve} it answers ranking queries
+ * over HTTP from cached responses, see {@link RankingServer}.
+ * <p>
+ * With {@code --shards} a range of hours is split across worker JVMs, each
+ * writing a {@link PartialResult} ({@code --partial}) that is merged into
+ * the ranking, see {@link ShardCoordinator}. {@code --merge} ranks partial
+ * results counted elsewhere, e.g. on other machines.
+ * <p>
+ * {@code --language-repos} and {@code --language-actors} write the exact
+ * activities per language and repository or actor, counted within
+ * {@code --spill-mb} of heap and spilled to disk beyond, see
+ * {@link LanguagePairs}.
+ * <p>
+ * With {@code --columns} every hour of a range is extracted into a
+ * {@link ColumnStore} once, and counted from there by the event types,
+ * {@code --time-of-day} and {@code --exclude-actors} given.
+ *
+ * <pre>
+ * $ java -jar github-language-ranking.jar [--url &lt;url&gt; | --file &lt;hour.json[.gz]&gt;
+ *       | --from &lt;yyyy-MM-dd-H&gt; --to &lt;yyyy-MM-dd-H&gt; [--base-url &lt;url&gt;]
+ *         [--in-flight &lt;n&gt;] [--attempts &lt;n&gt;] [--segments &lt;dir&gt;]
+ *         [--columns &lt;dir&gt; [--time-of-day &lt;HH:mm-HH:mm&gt;] [--exclude-actors &lt;id,...&gt;]]]
+ *       [--staged [--extract-threads &lt;n&gt;] [--aggregate-threads &lt;n&gt;] [--queue &lt;n&gt;]]
+ *       [--cache &lt;dir&gt; [--cache-mb &lt;n&gt;]] [--threads &lt;n&gt;] [--out &lt;file.csv&gt;]
+ *       [--progress &lt;seconds&gt;] [--metrics &lt;file.json&gt;]
+ *       [--top &lt;k&gt;] [--rank competition|dense|ordinal] [--types &lt;type,...&gt;]
+ *       [--dedup [&lt;expected events&gt;]] [--distinct]
+ *       [--repos &lt;file.csv&gt; [--repos-per-language &lt;n&gt;]]
+ *       [--shards &lt;n&gt; [--shard-dir &lt;dir&gt;] | --partial &lt;file&gt; | --merge &lt;file,...&gt;]
+ *       [--language-repos &lt;file.csv&gt;] [--language-actors &lt;file.csv&gt;]
+ *         [--spill-mb &lt;n&gt;] [--spill-dir &lt;dir&gt;]
+ * $ java -jar github-language-ranking.jar --serve &lt;port&gt; [--serve-threads &lt;n&gt;]
+ *       [--response-cache-mb &lt;n&gt;] [--segments &lt;dir&gt;] [--cache &lt;dir&gt;] [--base-url &lt;url&gt;]
+ * $ java -jar github-language-ranking.jar --watch &lt;dir&gt; --out &lt;file.csv&gt; [--threads &lt;n&gt;]
+ *       [--top &lt;k&gt;] [--rank competition|dense|ordinal] [--types &lt;type,...&gt;] [--distinct]
+ * </pre>
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class LanguageRanking {
+
+    private static final Logger log = LoggerFactory.getLogger(LanguageRanking.class);
+
+    /** The hour of the exercise, see README. */
+    public static final String DEFAULT_URL = "http://data.githubarchive.org/2016-03-14-15.json.gz";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Rough sizes of a 2016 archive hour, to size the de-duplication. */
+    private static final long EVENTS_PER_HOUR = 250_000;
+    private static final long JSON_BYTES_PER_EVENT = 700;
+    private static final long GZ_BYTES_PER_EVENT = 150;
+
+    /**
+     * @param args see above, the CSV goes to stdout by default
+     * @throws IOException on any download or write failure
+     */
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = Arguments.parse(args, "url", "file", "from", "to", "base-url",
+                "in-flight", "attempts", "cache", "cache-mb", "segments", "threads", "out",
+                "staged", "extract-threads", "aggregate-threads", "queue", "progress", "metrics",
+                "top", "rank", "types", "dedup", "distinct", "repos",
+                "repos-per-language", "watch", "serve", "serve-threads", "response-cache-mb",
+                "shards", "shard-dir", "partial", "merge", "language-repos", "language-actors",
+                "spill-mb", "spill-dir", "columns", "time-of-day", "exclude-actors");
+        boolean distinct = arguments.has("distinct");
+        if (distinct && arguments.has("types") && !arguments.has("columns")) {
+            throw new IllegalArgumentException("--distinct counts all event types, not --types,"
+                    + " unless counted from --columns");
+        }
+        if ((arguments.has("time-of-day") || arguments.has("exclude-actors"))
+                && !arguments.has("columns")) {
+            throw new IllegalArgumentException("--time-of-day and --exclude-actors need --columns");
+        }
+        if (arguments.has("columns") && arguments.has("dedup")) {
+            throw new IllegalArgumentException("--columns cannot be combined with --dedup");
+        }
+        if (arguments.has("shards") && (!arguments.has("from") || arguments.has("dedup"))) {
+            throw new IllegalArgumentException("--shards splits --from/--to, without --dedup");
+        }
+        int threads = arguments.getInt("threads", Runtime.getRuntime().availableProcessors());
+        String out = arguments.get("out", null);
+
+        if (arguments.has("watch")) {
+            watch(arguments, threads, out, distinct);
+            return;
+        }
+
+        ArchiveCache cache = arguments.has("cache")
+                ? new ArchiveCache(Paths.get(arguments.get("cache", null)),
+                        arguments.getLong("cache-mb", 20_480) << 20, Duration.ofDays(30))
+                : null;
+
+        if (arguments.has("serve")) {
+            serve(arguments, cache);
+            return;
+        }
+
+        OffHeapLongSet ids = arguments.has("dedup") ? new OffHeapLongSet(expected(arguments)) : null;
+
+        try (LanguagePairs pairs = pairs(arguments)) {
+            long start = System.nanoTime();
+            int progressSeconds = arguments.getInt("progress", 10);
+            PartialResult partial;
+            Metrics.Progress progress = progressSeconds > 0
+                    ? Metrics.progress(Duration.ofSeconds(progressSeconds))
+                    : null;
+            try {
+                partial = count(arguments, threads, cache, ids, pairs);
+            }
+            finally {
+                if (progress != null) {
+                    progress.close();
+                }
+            }
+            LanguageCounts counts = partial.counts();
+            if (cache != null) {
+                cache.logSummary();
+            }
+            if (ids != null) {
+                log.info("Skipped {} duplicate events, {} distinct IDs in {} MB off-heap",
+                        Metrics.snapshot().get(Counter.DUPLICATES), ids.size(), ids.memory() >> 20);
+            }
+            log.info("Counted {} activities in {} languages out of {} events in {} ms",
+                    counts.total(), counts.size(), counts.events(),
+                    (System.nanoTime() - start) / 1_000_000);
+
+            long exportStart = System.nanoTime();
+            if (arguments.has("partial")) {
+                partial.write(Paths.get(arguments.get("partial", null)));
+                log.info("Wrote the partial result of {} files to {}", partial.files().size(),
+                        arguments.get("partial", null));
+            }
+            else {
+                export(arguments, counts, out, distinct);
+            }
+            if (pairs != null) {
+                if (arguments.has("language-repos")) {
+                    pairs.writeRepos(Paths.get(arguments.get("language-repos", null)));
+                }
+                if (arguments.has("language-actors")) {
+                    pairs.writeActors(Paths.get(arguments.get("language-actors", null)));
+                }
+            }
+            Metrics.time(Counter.EXPORT_NANOS, System.nanoTime() - exportStart);
+        }
+
+        String json = Metrics.json(Metrics.snapshot());
+        log.info("Metrics {}", json);
+        if (arguments.has("metrics")) {
+            Files.write(Paths.get(arguments.get("metrics", null)),
+                    (json + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the exact activities per language and repository or actor, if
+     *         a report asks for them, else {@code null}
+     */
+    private static LanguagePairs pairs(Arguments arguments) throws IOException {
+        boolean repos = arguments.has("language-repos");
+        boolean actors = arguments.has("language-actors");
+        if (!repos && !actors) {
+            return null;
+        }
+        for (String name : new String[] { "staged", "shards", "merge", "partial", "columns" }) {
+            if (arguments.has(name)) {
+                throw new IllegalArgumentException("--language-repos/--language-actors cannot be"
+                        + " combined with --" + name);
+            }
+        }
+        Path dir = Paths.get(arguments.get("spill-dir", System.getProperty("java.io.tmpdir")));
+        return new LanguagePairs(repos, actors, arguments.getLong("spill-mb", 256) << 20,
+                Files.createDirectories(dir));
+    }
+
+    /**
+     * Writes the CSV to {@code out} or stdout, and the {@code --repos}.
+     */
+    private static void export(Arguments arguments, LanguageCounts counts, String out,
+            boolean distinct) throws IOException {
+        Ranking ranking = rank(arguments, counts);
+        if (out == null) {
+            new CsvEncoder().withDistinct(distinct).write(ranking, System.out);
+            System.out.flush();
+        }
+        else {
+            try (FileChannel channel = FileChannel.open(Paths.get(out), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                new CsvEncoder().withDistinct(distinct).write(ranking, channel);
+            }
+        }
+        if (arguments.has("repos")) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(arguments.get("repos", null)))) {
+                CsvExport.writeTopRepos(ranking, arguments.getInt("repos-per-language", 10), writer);
+            }
+        }
+    }
+
+    private static ArchiveScheduler scheduler(Arguments arguments, ArchiveCache cache)
+            throws IOException {
+        ArchiveScheduler scheduler = new ArchiveScheduler(
+                new URL(arguments.get("base-url", ArchiveScheduler.DEFAULT_BASE_URL)),
+                arguments.getInt("in-flight", 8), arguments.getInt("attempts", 3), 1000)
+                .withCache(cache);
+        if (arguments.has("segments")) {
+            scheduler.withSegments(new SegmentStore(Paths.get(arguments.get("segments", null))));
+        }
+        if (arguments.has("columns")) {
+            scheduler.withColumns(new ColumnStore(Paths.get(arguments.get("columns", null))),
+                    selection(arguments));
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return the events to count from the columns: of {@code --types},
+     *         within {@code --time-of-day}, without {@code --exclude-actors},
+     *         with sketches if reported or passed on
+     */
+    private static ColumnStore.Selection selection(Arguments arguments) {
+        ColumnStore.Selection selection = new ColumnStore.Selection()
+                .withSketches(arguments.has("distinct") || arguments.has("repos")
+                        || arguments.has("partial"));
+        if (arguments.has("types")) {
+            selection.withTypes(Arrays.asList(arguments.get("types", null).split(",")));
+        }
+        if (arguments.has("time-of-day")) {
+            String[] window = arguments.get("time-of-day", null).split("-");
+            if (window.length != 2) {
+                throw new IllegalArgumentException("--time-of-day HH:mm-HH:mm");
+            }
+            selection.withTimeOfDay(LocalTime.parse(window[0]), LocalTime.parse(window[1]));
+        }
+        if (arguments.has("exclude-actors")) {
+            selection.withoutActors(Arrays.stream(arguments.get("exclude-actors", null).split(","))
+                    .mapToLong(Long::parseLong).toArray());
+        }
+        return selection;
+    }
+
+    /**
+     * Serves until the JVM stops, see {@link RankingServer}.
+     */
+    private static void serve(Arguments arguments, ArchiveCache cache) throws IOException {
+        noDelay();
+        ArchiveScheduler scheduler = scheduler(arguments, cache);
+        RankingServer server = new RankingServer(new InetSocketAddress(arguments.getInt("serve", 8080)),
+                scheduler::count, arguments.getInt("serve-threads", 16),
+                arguments.getLong("response-cache-mb", 256) << 20);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "http-shutdown"));
+    }
+
+    /**
+     * Lets the JDK HTTP server send small responses without waiting for the
+     * client's delayed ACK, unless configured otherwise. Read once, when the
+     * server classes load.
+     */
+    static void noDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Ranks by {@code --types}, {@code --top} and {@code --rank}. Counted
+     * from {@code --columns}, the types are selected already.
+     */
+    private static Ranking rank(Arguments arguments, LanguageCounts counts) {
+        Method method = Method.valueOf(arguments.get("rank", "ordinal").toUpperCase(Locale.ROOT));
+        if (arguments.has("types") && !arguments.has("columns")) {
+            counts = counts.ofTypes(Arrays.asList(arguments.get("types", null).split(",")));
+        }
+        return Ranking.top(counts, arguments.getInt("top", Integer.MAX_VALUE), method);
+    }
+
+    /**
+     * Runs until interrupted, see {@link DropDirectory}.
+     */
+    private static void watch(Arguments arguments, int threads, String out, boolean distinct)
+            throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("--watch needs --out <file.csv>");
+        }
+        DropDirectory drop = new DropDirectory(Paths.get(arguments.get("watch", null)),
+                Paths.get(out), threads)
+                .withRanking(counts -> rank(arguments, counts))
+                .withEncoder(new CsvEncoder().withDistinct(distinct));
+        try {
+            drop.watch();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Stopped watching after {} files", drop.processed().size());
+        }
+    }
+
+    /**
+     * @return the {@code --dedup} value, else estimated from the hours or
+     *         the file size
+     */
+    private static long expected(Arguments arguments) throws IOException {
+        String value = arguments.get("dedup", "true");
+        if (!value.equals("true")) { // a flag without value
+            return Long.parseLong(value);
+        }
+        if (arguments.has("from")) {
+            HourRange range = HourRange.parse(arguments.get("from", null),
+                    arguments.get("to", arguments.get("from", null)));
+            return range.hours().size() * EVENTS_PER_HOUR;
+        }
+        if (arguments.has("file")) {
+            Path file = Paths.get(arguments.get("file", null));
+            boolean gz = file.getFileName().toString().endsWith(".gz");
+            return Files.size(file) / (gz ? GZ_BYTES_PER_EVENT : JSON_BYTES_PER_EVENT) + 1;
+        }
+        return EVENTS_PER_HOUR;
+    }
+
+    /**
+     * @return the histogram with the names of the counted files
+     */
+    private static PartialResult count(Arguments arguments, int threads, ArchiveCache cache,
+            OffHeapLongSet ids, LanguagePairs pairs) throws IOException {
+        if (arguments.has("merge")) {
+            PartialResult merged = new PartialResult();
+            for (String file : arguments.get("merge", null).split(",")) {
+                merged.merge(PartialResult.read(Paths.get(file)));
+            }
+            return merged;
+        }
+        if (arguments.has("shards")) {
+            return shards(arguments);
+        }
+        if (arguments.has("from")) {
+            HourRange range = HourRange.parse(arguments.get("from", null),
+                    arguments.get("to", arguments.get("from", null)));
+            List<LocalDateTime> counted = new ArrayList<>();
+            LanguageCounts counts = scheduler(arguments, cache).withDedup(ids).withPairs(pairs)
+                    .count(range, counted);
+            return new PartialResult(
+                    counted.stream().map(HourRange::fileName).collect(Collectors.toList()),
+                    counts);
+        }
+        if (arguments.has("file")) {
+            Path file = Paths.get(arguments.get("file", null));
+            return new PartialResult(Collections.singleton(file.getFileName().toString()),
+                    count(file, threads, ids, pairs));
+        }
+        URL url = new URL(arguments.get("url", DEFAULT_URL));
+        LanguageCounts counts;
+        if (arguments.has("staged")) {
+            StagedPipeline pipeline = new StagedPipeline(
+                    arguments.getInt("extract-threads", Math.max(1, threads - 3)),
+                    arguments.getInt("aggregate-threads", 1), arguments.getInt("queue", 16),
+                    BUFFER_SIZE).withDedup(ids);
+            counts = fetch(url, cache, pipeline);
+            pipeline.stages().forEach(stage -> log.info("{}", stage));
+        }
+        else {
+            counts = fetch(url, cache,
+                    new EventCounter(new LanguageCounts(), ids).withPairs(pairs));
+        }
+        String path = url.getPath();
+        return new PartialResult(Collections.singleton(path.substring(path.lastIndexOf('/') + 1)),
+                counts);
+    }
+
+    /**
+     * Counts {@code --from}/{@code --to} in {@code --shards} worker JVMs,
+     * passing on the options that tell where and how to fetch the hours.
+     */
+    private static PartialResult shards(Arguments arguments) throws IOException {
+        HourRange range = HourRange.parse(arguments.get("from", null),
+                arguments.get("to", arguments.get("from", null)));
+        List<String> worker = new ArrayList<>();
+        for (String name : new String[] { "base-url", "in-flight", "attempts", "cache", "cache-mb",
+                "segments", "progress", "columns", "time-of-day", "exclude-actors" }) {
+            if (arguments.has(name)) {
+                worker.add("--" + name);
+                worker.add(arguments.get(name, null));
+            }
+        }
+        if (arguments.has("columns") && arguments.has("types")) {
+            worker.add("--types");
+            worker.add(arguments.get("types", null));
+        }
+        boolean temporary = !arguments.has("shard-dir");
+        Path dir = temporary
+                ? Files.createTempDirectory("language-ranking-shards")
+                : Paths.get(arguments.get("shard-dir", null));
+        ShardCoordinator coordinator = new ShardCoordinator(range, arguments.getInt("shards", 1), dir)
+                .withWorkerArguments(worker);
+        PartialResult merged = coordinator.run();
+        if (temporary) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        return merged;
+    }
+
+    /**
+     * Counts a gzipped archive in one pass, optionally through the cache: a
+     * hit is read locally, a miss is counted while it is downloading into
+     * the cache. An archive that fails to count is dropped from the cache.
+     * The counter decides what is counted besides the histogram, e.g.
+     * de-duplicated by event ID or with the language pairs; those are
+     * committed only once a cached archive has passed its checksum.
+     *
+     * @param url the {@code .json.gz} archive
+     * @param cache the archive cache, {@code null} for none
+     * @param counter a fresh counter
+     * @return the histogram of the counter
+     * @throws IOException on download failure or corrupt data
+     */
+    public static LanguageCounts fetch(URL url, ArchiveCache cache, EventCounter counter)
+            throws IOException {
+        fetch(url, cache, body -> scan(new GZIPInputStream(body, BUFFER_SIZE), counter),
+                counter::rollback);
+        return commit(counter);
+    }
+
+    /**
+     * Downloads and counts a gzipped archive in the stages of a
+     * {@link StagedPipeline}, optionally through the cache.
+     */
+    static LanguageCounts fetch(URL url, ArchiveCache cache, StagedPipeline pipeline)
+            throws IOException {
+        return fetch(url, cache, pipeline::run, pipeline::rollback);
+    }
+
+    private interface Counting {
+        LanguageCounts count(InputStream gz) throws IOException;
+    }
+
+    /**
+     * Counts the archive and closes it, which checks a cached archive
+     * against its SHA-256, and rolls back if either fails.
+     */
+    private static LanguageCounts fetch(URL url, ArchiveCache cache, Counting counting,
+            Runnable rollback) throws IOException {
+        FileEvent event = new FileEvent();
+        event.begin();
+        InputStream in = cache == null ? ArchiveFetcher.open(url) : cache.open(url);
+        CountingInputStream body = new CountingInputStream(in);
+        LanguageCounts counts;
+        try {
+            try (body) {
+                counts = counting.count(body);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            rollback.run();
+            if (cache != null && e instanceof IOException) {
+                cache.invalidate(url);
+            }
+            throw e;
+        }
+        RankingEvents.commit(event, url.toString(), body.count, counts);
+        return counts;
+    }
+
+    /**
+     * Counts a local hour file: a {@code .gz} archive is inflated by
+     * {@link ParallelGunzip}, an uncompressed file is memory-mapped and
+     * counted in parallel. With IDs or pairs a {@code .gz} archive is
+     * inflated sequentially: {@link ParallelGunzip} may count some data
+     * speculatively and discard it, which would leave its IDs behind.
+     *
+     * @param file the archive or decompressed hour file
+     * @param threads the number of workers
+     * @param ids the event IDs counted so far, {@code null} to count every
+     *            event
+     * @param pairs the activities per language and repository or actor,
+     *            {@code null} for none
+     * @return the histogram
+     * @throws IOException on read failure or corrupt data
+     */
+    public static LanguageCounts count(Path file, int threads, OffHeapLongSet ids,
+            LanguagePairs pairs) throws IOException {
+        FileEvent event = new FileEvent();
+        event.begin();
+        LanguageCounts counts;
+        if (!file.getFileName().toString().endsWith(".gz")) {
+            counts = MappedFileCounter.count(file, threads, ids, pairs);
+        }
+        else if (ids == null && pairs == null && Files.size(file) <= Integer.MAX_VALUE) {
+            counts = ParallelGunzip.count(file, threads);
+        }
+        else {
+            try (InputStream in = Files.newInputStream(file)) {
+                counts = count(new GZIPInputStream(in, BUFFER_SIZE),
+                        new EventCounter(new LanguageCounts(), ids).withPairs(pairs));
+            }
+        }
+        RankingEvents.commit(event, file.toString(), Files.size(file), counts);
+        return counts;
+    }
+
+    /**
+     * Counts newline delimited JSON events, one line at a time, straight from
+     * the byte stream, then commits the pairs and event IDs of the counter,
+     * or rolls them back if the stream fails.
+     *
+     * @param json the decompressed events, not closed
+     * @param counter a fresh counter
+     * @return the histogram of the counter
+     * @throws IOException on read failure
+     */
+    public static LanguageCounts count(InputStream json, EventCounter counter)
+            throws IOException {
+        scan(json, counter);
+        return commit(counter);
+    }
+
+    /**
+     * Counts the events without committing them, rolls back on failure.
+     */
+    private static LanguageCounts scan(InputStream json, EventCounter counter) throws IOException {
+        LineSplitter splitter = new LineSplitter(counter);
+        InputStream in = Metrics.metered(json, Counter.BYTES_INFLATED, Counter.INFLATE_NANOS);
+        byte[] block = new byte[BUFFER_SIZE];
+        try {
+            for (int n; (n = in.read(block)) >= 0;) {
+                long start = System.nanoTime();
+                splitter.feed(block, 0, n);
+                counter.publish(System.nanoTime() - start);
+            }
+            splitter.finish();
+        }
+        catch (IOException | RuntimeException e) {
+            counter.rollback();
+            throw e;
+        }
+        counter.publish(0);
+        return counter.counts();
+    }
+
+    private static LanguageCounts commit(EventCounter counter) throws IOException {
+        counter.commit();
+        if (counter.malformed() > 0) {
+            log.warn("Skipped {} malformed lines", counter.malformed());
+        }
+        return counter.counts();
+    }
+
+    /**
+     * Counts the bytes read, for the {@link FileEvent}.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
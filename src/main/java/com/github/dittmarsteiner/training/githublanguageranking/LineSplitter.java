@@ -0,0 +1,194 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream fed in arbitrary blocks into lines, without decoding.
+ * Complete lines are handed out straight from the fed block, only a line
+ * spanning two blocks is copied into an internal carry-over buffer which
+ * grows once to the longest such line and is reused afterwards. Empty lines
+ * and a trailing {@code '\r'} are dropped. Newlines are found by the
+ * {@link ByteSearch#best() best} {@link ByteSearch}.
+ * <p>
+ * A splitter started in the middle of a stream holds back the fragment up to
+ * the first newline as its {@link #head()} and, instead of being finished,
+ * leaves the fragment after the last newline as its {@link #tail()}; the
+ * caller stitches them to the neighbouring segments.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class LineSplitter {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final ByteSearch SEARCH = ByteSearch.best();
+
+    private final LineHandler handler;
+    private byte[] carry = new byte[BLOCK_SIZE];
+    private int carryLength;
+    private long lines;
+    private boolean midStream;
+    private byte[] head;
+    private int headLength;
+
+    /**
+     * @param handler receives every non-empty line
+     */
+    public LineSplitter(LineHandler handler) {
+        this(handler, false);
+    }
+
+    /**
+     * @param handler receives every non-empty line
+     * @param midStream {@code true} if the first fed byte is not known to
+     *            start a line
+     */
+    public LineSplitter(LineHandler handler, boolean midStream) {
+        this.handler = handler;
+        this.midStream = midStream;
+        if (midStream) {
+            head = new byte[BLOCK_SIZE];
+        }
+    }
+
+    /**
+     * Feeds the next block of the stream.
+     *
+     * @param buf the block's buffer, only read during the call
+     * @param off the first byte
+     * @param len the number of bytes
+     */
+    public void feed(byte[] buf, int off, int len) {
+        int end = off + len;
+        int start = off;
+        int nl;
+        if (midStream) {
+            nl = indexOf(buf, start, end);
+            if (nl < 0) {
+                appendHead(buf, start, end);
+                return;
+            }
+            appendHead(buf, start, nl);
+            midStream = false;
+            start = nl + 1;
+        }
+        while ((nl = indexOf(buf, start, end)) >= 0) {
+            if (carryLength > 0) {
+                append(buf, start, nl);
+                emit(carry, 0, carryLength);
+                carryLength = 0;
+            }
+            else {
+                emit(buf, start, nl);
+            }
+            start = nl + 1;
+        }
+        append(buf, start, end);
+    }
+
+    /**
+     * Emits the last line if the stream did not end with a newline.
+     */
+    public void finish() {
+        emit(carry, 0, carryLength);
+        carryLength = 0;
+    }
+
+    /**
+     * Feeds the whole stream and {@link #finish() finishes}.
+     *
+     * @param in read to its end, but not closed
+     * @throws IOException on read failure
+     */
+    public void feed(InputStream in) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        int n;
+        while ((n = in.read(block)) >= 0) {
+            feed(block, 0, n);
+        }
+        finish();
+    }
+
+    /**
+     * @return the bytes before the first newline of a mid-stream splitter
+     */
+    public byte[] head() {
+        return head == null ? new byte[0] : Arrays.copyOf(head, headLength);
+    }
+
+    /**
+     * @return {@code true} if a mid-stream splitter saw a newline, so its
+     *         {@link #head()} is complete
+     */
+    public boolean headComplete() {
+        return head != null && !midStream;
+    }
+
+    /**
+     * @return the bytes after the last newline, not yet emitted
+     */
+    public byte[] tail() {
+        return Arrays.copyOf(carry, carryLength);
+    }
+
+    /**
+     * @return the number of lines emitted so far
+     */
+    public long lines() {
+        return lines;
+    }
+
+    static int indexOf(byte[] buf, int from, int to) {
+        return SEARCH.indexOfNewline(buf, from, to);
+    }
+
+    private void append(byte[] buf, int from, int to) {
+        int len = to - from;
+        if (len == 0) {
+            return;
+        }
+        if (carryLength + len > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + len));
+        }
+        System.arraycopy(buf, from, carry, carryLength, len);
+        carryLength += len;
+    }
+
+    private void appendHead(byte[] buf, int from, int to) {
+        int len = to - from;
+        if (headLength + len > head.length) {
+            head = Arrays.copyOf(head, Math.max(head.length * 2, headLength + len));
+        }
+        System.arraycopy(buf, from, head, headLength, len);
+        headLength += len;
+    }
+
+    private void emit(byte[] buf, int from, int to) {
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        if (to > from) {
+            lines++;
+            handler.line(buf, from, to);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.RankingEvents.ChunkEvent;
+
+/**
+ * Counts a local, already decompressed hour file in parallel: the file is
+ * split at newline boundaries into one chunk per worker, each chunk is
+ * memory-mapped and counted on its own fork-join worker into its own
+ * histogram, and the histograms are merged at the end.
+ * <p>
+ * A worker copies its mapping block by block into a private array for the
+ * {@link EventScanner}; the copy runs at memory speed and keeps the scanner
+ * on plain arrays.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class MappedFileCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFileCounter.class);
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    /** Below this, splitting costs more than it gains. */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    /** A single mapping is limited to 2 GB. */
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+    /**
+     * The chunk size split for, leaving a margin for the boundaries moving
+     * on to the next newline.
+     */
+    private static final long MAX_CHUNK_SIZE = MAX_MAPPING - (1 << 20);
+
+    private MappedFileCounter() {
+    }
+
+    /**
+     * @param file an uncompressed NDJSON file
+     * @param parallelism the number of workers
+     * @param ids the event IDs counted so far, shared by all chunks,
+     *            {@code null} to count every event
+     * @param pairs the activities per language and repository or actor,
+     *            added by each chunk when done, {@code null} for none
+     * @return the merged histogram
+     * @throws IOException on read failure
+     */
+    public static LanguageCounts count(Path file, int parallelism, OffHeapLongSet ids,
+            LanguagePairs pairs) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel, parallelism);
+            log.debug("Counting {} in {} chunks", file, bounds.length - 1);
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<ForkJoinTask<LanguageCounts>> tasks = new ArrayList<>(bounds.length - 1);
+                for (int i = 1; i < bounds.length; i++) {
+                    tasks.add(pool.submit(new Chunk(channel, bounds[i - 1], bounds[i], ids, pairs)));
+                }
+                LanguageCounts counts = new LanguageCounts();
+                for (ForkJoinTask<LanguageCounts> task : tasks) {
+                    counts.merge(join(task));
+                }
+                return counts;
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the chunk boundaries, each but the first and last right after
+     *         a newline
+     * @throws IOException on read failure, or if a line is too long to keep
+     *             a chunk within a mapping
+     */
+    static long[] split(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        int chunks = (int) Math.max(1, Math.min(parallelism, size / MIN_CHUNK_SIZE));
+        chunks = (int) Math.max(chunks, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer probe = ByteBuffer.allocate(BLOCK_SIZE);
+        for (int i = 1; i < chunks; i++) {
+            long at = Math.max(bounds[i - 1], size / chunks * i);
+            bounds[i] = nextLine(channel, at, probe);
+        }
+        bounds[chunks] = size;
+        for (int i = 1; i <= chunks; i++) {
+            if (bounds[i] - bounds[i - 1] > MAX_MAPPING) {
+                throw new IOException("Chunk at " + bounds[i - 1] + " exceeds 2 GB, a line is too long");
+            }
+        }
+        return bounds;
+    }
+
+    private static long nextLine(FileChannel channel, long at, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (at < size) {
+            probe.clear();
+            int n = channel.read(probe, at);
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+            at += n;
+        }
+        return size;
+    }
+
+    private static LanguageCounts join(ForkJoinTask<LanguageCounts> task) throws IOException {
+        try {
+            return task.join();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class Chunk extends RecursiveTask<LanguageCounts> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long from;
+        private final long to;
+        private final transient OffHeapLongSet ids;
+        private final transient LanguagePairs pairs;
+
+        Chunk(FileChannel channel, long from, long to, OffHeapLongSet ids, LanguagePairs pairs) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.ids = ids;
+            this.pairs = pairs;
+        }
+
+        @Override
+        protected LanguageCounts compute() {
+            ChunkEvent event = new ChunkEvent();
+            event.begin();
+            EventCounter counter = new EventCounter(new LanguageCounts(), ids).withPairs(pairs);
+            if (to > from) {
+                MappedByteBuffer mapped;
+                try {
+                    mapped = channel.map(MapMode.READ_ONLY, from, to - from);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                LineSplitter splitter = new LineSplitter(counter);
+                byte[] block = new byte[BLOCK_SIZE];
+                while (mapped.hasRemaining()) {
+                    int n = Math.min(block.length, mapped.remaining());
+                    long start = System.nanoTime();
+                    mapped.get(block, 0, n);
+                    splitter.feed(block, 0, n);
+                    counter.publish(System.nanoTime() - start);
+                }
+                splitter.finish();
+                counter.publish(0);
+                try {
+                    counter.commit();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            RankingEvents.commit(event, from, to - from, counter.counts());
+            return counter.counts();
+        }
+    }
+}
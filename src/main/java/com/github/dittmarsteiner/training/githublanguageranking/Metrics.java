@@ -0,0 +1,298 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide counters and timers of the ranking run: bytes downloaded and
+ * inflated, lines scanned, events matched and without language, and the
+ * nanoseconds spent per stage.
+ * <p>
+ * Every thread counts into its own {@code long[]} without synchronization;
+ * the arrays are only summed when a {@link #snapshot() snapshot} is taken.
+ * Counting code reports per block, never per line. Time is measured
+ * exclusively: the download happening inside an inflater read is counted as
+ * fetch time, not as inflate time.
+ * <p>
+ * A {@link #progress(Duration) progress} line is logged periodically at
+ * info level; its logger is configured in {@code simplelogger.properties}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class Metrics {
+
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    /**
+     * The counters, each with its key in the JSON summary.
+     */
+    public enum Counter {
+        /** Compressed bytes received from the network. */
+        BYTES_DOWNLOADED("bytesDownloaded"),
+        /** Bytes produced by inflating archives. */
+        BYTES_INFLATED("bytesInflated"),
+        /** Event lines scanned, including malformed ones. */
+        LINES("lines"),
+        /** Events counted for a language. */
+        EVENTS_MATCHED("eventsMatched"),
+        /** Pull request and fork events whose repository has no language. */
+        EVENTS_WITHOUT_LANGUAGE("eventsWithoutLanguage"),
+        /** Events skipped because their ID was counted before. */
+        DUPLICATES("duplicates"),
+        /** Time spent waiting on the network. */
+        FETCH_NANOS("fetchNanos"),
+        /** Time spent inflating. */
+        INFLATE_NANOS("inflateNanos"),
+        /** Time spent splitting, scanning and counting lines. */
+        SCAN_NANOS("scanNanos"),
+        /** Time spent writing the ranking. */
+        EXPORT_NANOS("exportNanos");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the key in the JSON summary
+         */
+        public String key() {
+            return key;
+        }
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final ConcurrentLinkedQueue<Local> LOCALS = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Local> LOCAL = ThreadLocal.withInitial(() -> {
+        Local local = new Local(Thread.currentThread());
+        LOCALS.add(local);
+        return local;
+    });
+    /** The sums of terminated threads. */
+    private static final long[] retired = new long[COUNTERS.length];
+
+    private Metrics() {
+    }
+
+    /**
+     * @param counter a counter
+     * @param delta the amount to add for the current thread
+     */
+    public static void add(Counter counter, long delta) {
+        LOCAL.get().values[counter.ordinal()] += delta;
+    }
+
+    /**
+     * Adds time spent by the current thread and hides it from enclosing
+     * {@link #metered(InputStream, Counter, Counter) metered} reads.
+     *
+     * @param counter a time counter, {@code null} to only hide the time,
+     *            e.g. waiting on a queue
+     * @param nanos the time spent
+     */
+    public static void time(Counter counter, long nanos) {
+        Local local = LOCAL.get();
+        if (counter != null) {
+            local.values[counter.ordinal()] += nanos;
+        }
+        local.timed += nanos;
+    }
+
+    /**
+     * Counts the bytes read from a stream and the time spent in its reads,
+     * less the time counted by streams it reads from in turn.
+     *
+     * @param in the stream
+     * @param bytes the counter of bytes read
+     * @param nanos the counter of time spent
+     * @return the metered stream, closing {@code in}
+     */
+    public static InputStream metered(InputStream in, Counter bytes, Counter nanos) {
+        return new FilterInputStream(in) {
+
+            @Override
+            public int read() throws IOException {
+                Local local = LOCAL.get();
+                long timed = local.timed;
+                long start = System.nanoTime();
+                int b = super.read();
+                local.count(bytes, b < 0 ? 0 : 1, nanos, System.nanoTime() - start, timed);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Local local = LOCAL.get();
+                long timed = local.timed;
+                long start = System.nanoTime();
+                int n = super.read(b, off, len);
+                local.count(bytes, Math.max(n, 0), nanos, System.nanoTime() - start, timed);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Sums up the counters of all threads. Counts of running threads may lag
+     * behind by their last few updates.
+     *
+     * @return counter → total, in declaration order
+     */
+    public static Map<Counter, Long> snapshot() {
+        long[] sums;
+        synchronized (retired) {
+            sums = retired.clone();
+            for (Iterator<Local> i = LOCALS.iterator(); i.hasNext();) {
+                Local local = i.next();
+                Thread thread = local.thread.get();
+                boolean terminated = thread == null || !thread.isAlive();
+                for (int c = 0; c < sums.length; c++) {
+                    sums[c] += local.values[c];
+                    if (terminated) {
+                        retired[c] += local.values[c];
+                    }
+                }
+                if (terminated) {
+                    i.remove();
+                }
+            }
+        }
+        Map<Counter, Long> snapshot = new EnumMap<>(Counter.class);
+        for (Counter counter : COUNTERS) {
+            snapshot.put(counter, sums[counter.ordinal()]);
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * @param snapshot a {@link #snapshot()}
+     * @return the snapshot as one JSON object, e.g.
+     *         <code>{"bytesDownloaded":1234,...}</code>
+     */
+    public static String json(Map<Counter, Long> snapshot) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<Counter, Long> entry : snapshot.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(entry.getKey().key()).append("\":").append(entry.getValue());
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Logs a progress line at every interval until closed, and a last one
+     * on close.
+     *
+     * @param interval the time between two lines
+     * @return the running progress log
+     */
+    public static Progress progress(Duration interval) {
+        return new Progress(interval);
+    }
+
+    /**
+     * The periodic progress log.
+     */
+    public static final class Progress implements AutoCloseable {
+
+        private final ScheduledExecutorService timer = Executors
+                .newSingleThreadScheduledExecutor(ArchiveScheduler.threads("progress"));
+        private final long started = System.nanoTime();
+        private Map<Counter, Long> last = snapshot();
+
+        Progress(Duration interval) {
+            long millis = interval.toMillis();
+            timer.scheduleAtFixedRate(this::log, millis, millis, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void log() {
+            Map<Counter, Long> now = snapshot();
+            if (now.equals(last)) {
+                return;
+            }
+            log.info(line(now, last, System.nanoTime() - started));
+            last = now;
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+            log();
+        }
+    }
+
+    static String line(Map<Counter, Long> now, Map<Counter, Long> since, long elapsedNanos) {
+        long fetch = delta(now, since, Counter.FETCH_NANOS);
+        long inflate = delta(now, since, Counter.INFLATE_NANOS);
+        long scan = delta(now, since, Counter.SCAN_NANOS);
+        long busy = Math.max(1, fetch + inflate + scan);
+        return String.format(Locale.ROOT,
+                "Progress after %d s: %.1f MB downloaded, %.1f MB inflated, %d lines, %d matched,"
+                        + " %d without language; lately fetch %d %%, inflate %d %%, scan %d %%",
+                elapsedNanos / 1_000_000_000, now.get(Counter.BYTES_DOWNLOADED) / 1e6,
+                now.get(Counter.BYTES_INFLATED) / 1e6, now.get(Counter.LINES),
+                now.get(Counter.EVENTS_MATCHED), now.get(Counter.EVENTS_WITHOUT_LANGUAGE),
+                100 * fetch / busy, 100 * inflate / busy, 100 * scan / busy);
+    }
+
+    private static long delta(Map<Counter, Long> now, Map<Counter, Long> since, Counter counter) {
+        return now.get(counter) - since.get(counter);
+    }
+
+    /**
+     * The counters of one thread.
+     */
+    private static final class Local {
+
+        final WeakReference<Thread> thread;
+        final long[] values = new long[COUNTERS.length];
+        /** All time counted so far, to tell nested from own time. */
+        long timed;
+
+        Local(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        void count(Counter bytes, long n, Counter nanos, long elapsed, long timedBefore) {
+            values[bytes.ordinal()] += n;
+            values[nanos.ordinal()] += elapsed - (timed - timedBefore);
+            timed = timedBefore + elapsed;
+        }
+    }
+}
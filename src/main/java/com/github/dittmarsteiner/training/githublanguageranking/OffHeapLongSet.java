@@ -0,0 +1,272 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A set of {@code long} values stored off-heap, in direct buffers, so tens
+ * of millions of event IDs neither fill the heap nor slow down the garbage
+ * collector. Open addressing with linear probing, {@code 0} marks a free
+ * slot; the value {@code 0} itself is kept in a flag.
+ * <p>
+ * The set is split into stripes by the high bits of the hash, each locked
+ * on its own, so parallel workers rarely contend. Sized from the expected
+ * number of values, a stripe doubles when it is three quarters full: a value
+ * costs 8 bytes divided by the load, between 11 and 21 bytes. A removed
+ * value leaves no tombstone, the probe sequence behind it is shifted back.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class OffHeapLongSet {
+
+    /** Slots per direct buffer, 1 GB, below the 2 GB limit of a buffer. */
+    private static final int PAGE_BITS = 27;
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * @param expected the estimated number of values, the set grows beyond
+     */
+    public OffHeapLongSet(long expected) {
+        this(expected, STRIPES);
+    }
+
+    /**
+     * @param expected the estimated number of values, the set grows beyond
+     * @param stripes the number of independently locked parts, a power of
+     *            two
+     */
+    public OffHeapLongSet(long expected, int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two: " + stripes);
+        }
+        this.stripes = new Stripe[stripes];
+        stripeShift = 64 - Integer.numberOfTrailingZeros(stripes);
+        long perStripe = Math.max(16, expected / stripes * 4 / 3 + 1);
+        int bits = 64 - Long.numberOfLeadingZeros(perStripe - 1);
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(bits);
+        }
+    }
+
+    /**
+     * @param value any value
+     * @return {@code true} if it was not contained yet
+     */
+    public boolean add(long value) {
+        long hash = mix(value);
+        return stripe(hash).add(value, hash);
+    }
+
+    /**
+     * @param value any value
+     * @return {@code true} if it was contained
+     */
+    public boolean remove(long value) {
+        long hash = mix(value);
+        return stripe(hash).remove(value, hash);
+    }
+
+    /**
+     * @param value any value
+     * @return {@code true} if it has been added
+     */
+    public boolean contains(long value) {
+        long hash = mix(value);
+        return stripe(hash).contains(value, hash);
+    }
+
+    /**
+     * @return the number of values
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes of direct memory held
+     */
+    public long memory() {
+        long memory = 0;
+        for (Stripe stripe : stripes) {
+            memory += stripe.memory();
+        }
+        return memory;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreads sequential IDs over all bits.
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ value >>> 33;
+    }
+
+    /**
+     * One independently locked hash table.
+     */
+    private static final class Stripe {
+
+        private ByteBuffer[] pages;
+        private long mask;
+        private long size;
+        private boolean zero;
+
+        Stripe(int bits) {
+            allocate(bits);
+        }
+
+        synchronized boolean add(long value, long hash) {
+            if (value == 0) {
+                boolean added = !zero;
+                zero = true;
+                return added;
+            }
+            for (long slot = hash & mask;; slot = slot + 1 & mask) {
+                long stored = get(slot);
+                if (stored == value) {
+                    return false;
+                }
+                if (stored == 0) {
+                    put(slot, value);
+                    if (++size > (mask + 1) / 4 * 3) {
+                        grow();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        synchronized boolean remove(long value, long hash) {
+            if (value == 0) {
+                boolean removed = zero;
+                zero = false;
+                return removed;
+            }
+            for (long slot = hash & mask;; slot = slot + 1 & mask) {
+                long stored = get(slot);
+                if (stored == 0) {
+                    return false;
+                }
+                if (stored == value) {
+                    shiftBack(slot);
+                    size--;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Fills the freed slot with the next value of the probe sequence
+         * that may move there, then the slot freed by that one, until a
+         * free slot ends the sequence.
+         */
+        private void shiftBack(long gap) {
+            for (long slot = gap + 1 & mask;; slot = slot + 1 & mask) {
+                long value = get(slot);
+                if (value == 0) {
+                    put(gap, 0);
+                    return;
+                }
+                long home = mix(value) & mask;
+                if ((slot - home & mask) >= (slot - gap & mask)) {
+                    put(gap, value);
+                    gap = slot;
+                }
+            }
+        }
+
+        synchronized boolean contains(long value, long hash) {
+            if (value == 0) {
+                return zero;
+            }
+            for (long slot = hash & mask;; slot = slot + 1 & mask) {
+                long stored = get(slot);
+                if (stored == value) {
+                    return true;
+                }
+                if (stored == 0) {
+                    return false;
+                }
+            }
+        }
+
+        synchronized long size() {
+            return size + (zero ? 1 : 0);
+        }
+
+        synchronized long memory() {
+            return (mask + 1) * Long.BYTES;
+        }
+
+        private void grow() {
+            ByteBuffer[] old = pages;
+            long oldSlots = mask + 1;
+            allocate(Long.numberOfTrailingZeros(oldSlots) + 1);
+            for (long slot = 0; slot < oldSlots; slot++) {
+                long value = old[(int) (slot >>> PAGE_BITS)].getLong((int) (slot << 3 & pageMask()));
+                if (value != 0) {
+                    long i = mix(value) & mask;
+                    while (get(i) != 0) {
+                        i = i + 1 & mask;
+                    }
+                    put(i, value);
+                }
+            }
+        }
+
+        private void allocate(int bits) {
+            long slots = 1L << bits;
+            int pageSlots = (int) Math.min(slots, 1L << PAGE_BITS);
+            pages = new ByteBuffer[(int) (slots / pageSlots)];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocateDirect(pageSlots * Long.BYTES)
+                        .order(ByteOrder.nativeOrder());
+            }
+            mask = slots - 1;
+        }
+
+        private static long pageMask() {
+            return (1L << PAGE_BITS + 3) - 1;
+        }
+
+        private long get(long slot) {
+            return pages[(int) (slot >>> PAGE_BITS)].getLong((int) (slot << 3 & pageMask()));
+        }
+
+        private void put(long slot, long value) {
+            pages[(int) (slot >>> PAGE_BITS)].putLong((int) (slot << 3 & pageMask()), value);
+        }
+    }
+}
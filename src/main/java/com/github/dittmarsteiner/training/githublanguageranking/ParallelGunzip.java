@@ -0,0 +1,355 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+import com.github.dittmarsteiner.training.githublanguageranking.RankingEvents.ChunkEvent;
+
+/**
+ * Inflates and counts a gzip file made of concatenated members on several
+ * threads.
+ * <p>
+ * Member headers are searched near evenly spaced split points and confirmed
+ * by a trial inflation. Each worker then inflates whole members from its
+ * start, checks their CRC, and feeds the output straight into its own
+ * {@link LineSplitter} and {@link EventCounter}. Lines cut by a segment
+ * boundary are stitched afterwards. A worker only stops at a member end, so
+ * its end must be the next worker's start; a false header in compressed data
+ * breaks that chain and the remainder is inflated sequentially. A
+ * single-member file has no split point and is counted by one sequential
+ * worker.
+ * <p>
+ * A segment reports to the {@link Metrics} and JFR only once the chain
+ * accepts it, from the merging thread, so the data of a discarded segment
+ * is not counted twice.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ParallelGunzip {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelGunzip.class);
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    /** Below this a split costs more than it gains. */
+    private static final int MIN_SEGMENT_SIZE = 1 << 16;
+    private static final int FTEXT_RESERVED = 0xe0;
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    private ParallelGunzip() {
+    }
+
+    /**
+     * @param file a gzip file of at most 2 GB
+     * @param parallelism the number of workers
+     * @return the histogram
+     * @throws IOException on read failure or corrupt data
+     */
+    public static LanguageCounts count(Path file, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return count(channel.map(MapMode.READ_ONLY, 0, channel.size()), parallelism);
+        }
+    }
+
+    /**
+     * @param gz the whole gzip stream, from position {@code 0} to its limit
+     * @param parallelism the number of workers
+     * @return the histogram
+     * @throws IOException on corrupt data
+     */
+    public static LanguageCounts count(ByteBuffer gz, int parallelism) throws IOException {
+        int[] starts = split(gz, parallelism);
+        log.debug("Inflating {} bytes in {} segments", gz.limit(), starts.length);
+
+        List<ForkJoinTask<Segment>> tasks = new ArrayList<>(starts.length);
+        ForkJoinPool pool = starts.length > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (int i = 0; i < starts.length; i++) {
+                int limit = i + 1 < starts.length ? starts[i + 1] : gz.limit();
+                Segment segment = new Segment(gz, starts[i], limit);
+                tasks.add(pool == null ? ForkJoinTask.adapt(segment::run, segment)
+                        : pool.submit(segment::run, segment));
+            }
+            if (pool == null) {
+                tasks.get(0).invoke();
+            }
+            return merge(gz, tasks);
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Follows the chain of segments from position {@code 0}, each starting
+     * where its predecessor ended.
+     */
+    private static LanguageCounts merge(ByteBuffer gz, List<ForkJoinTask<Segment>> tasks) throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        EventCounter stitched = new EventCounter(counts);
+        LineSplitter stitcher = new LineSplitter(stitched);
+        int pos = 0;
+        for (ForkJoinTask<Segment> task : tasks) {
+            Segment segment = task.join();
+            if (segment.start < pos) {
+                continue; // started at a false header, its predecessor went on
+            }
+            if (segment.start > pos || segment.error != null) {
+                break;
+            }
+            stitch(stitcher, counts, segment);
+            segment.publish();
+            pos = segment.end;
+        }
+        if (pos < gz.limit()) {
+            log.debug("Segment chain broken at {}, inflating the rest sequentially", pos);
+            Segment rest = new Segment(gz, pos, gz.limit());
+            rest.run();
+            if (rest.error != null) {
+                throw rest.error;
+            }
+            stitch(stitcher, counts, rest);
+            rest.publish();
+        }
+        stitcher.finish();
+        stitched.publish(0);
+        return counts;
+    }
+
+    private static void stitch(LineSplitter stitcher, LanguageCounts counts, Segment segment) {
+        byte[] head = segment.splitter.head();
+        stitcher.feed(head, 0, head.length);
+        if (segment.splitter.headComplete()) {
+            stitcher.feed(new byte[] { '\n' }, 0, 1);
+        }
+        byte[] tail = segment.splitter.tail();
+        stitcher.feed(tail, 0, tail.length);
+        counts.merge(segment.counter.counts());
+    }
+
+    /**
+     * @return the segment starts, the first is always {@code 0}
+     */
+    static int[] split(ByteBuffer gz, int parallelism) {
+        int size = gz.limit();
+        int segments = Math.max(1, Math.min(parallelism, size / MIN_SEGMENT_SIZE));
+        int[] starts = new int[segments];
+        int count = 1;
+        for (int i = 1; i < segments; i++) {
+            int from = Math.max(starts[count - 1] + 1, (int) ((long) size * i / segments));
+            int to = (int) ((long) size * (i + 1) / segments);
+            int member = nextMember(gz, from, to);
+            if (member >= 0) {
+                starts[count++] = member;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(starts, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return the first position in {@code [from, to)} that looks like a
+     *         member header and inflates, or {@code -1}
+     */
+    static int nextMember(ByteBuffer gz, int from, int to) {
+        int last = Math.min(to, gz.limit() - 10);
+        for (int i = from; i < last; i++) {
+            if (gz.get(i) == (byte) 0x1f && gz.get(i + 1) == (byte) 0x8b
+                    && headerLength(gz, i) > 0 && inflates(gz, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length of a plausible member header at {@code pos} or
+     *         {@code -1}
+     */
+    static int headerLength(ByteBuffer gz, int pos) {
+        int size = gz.limit();
+        if (pos + 10 > size || gz.get(pos) != (byte) 0x1f || gz.get(pos + 1) != (byte) 0x8b
+                || gz.get(pos + 2) != 8) {
+            return -1;
+        }
+        int flags = gz.get(pos + 3) & 0xff;
+        int xfl = gz.get(pos + 8) & 0xff;
+        if ((flags & FTEXT_RESERVED) != 0 || (xfl != 0 && xfl != 2 && xfl != 4)) {
+            return -1;
+        }
+        int p = pos + 10;
+        if ((flags & FEXTRA) != 0) {
+            if (p + 2 > size) {
+                return -1;
+            }
+            p += 2 + ((gz.get(p) & 0xff) | (gz.get(p + 1) & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (p < size && gz.get(p++) != 0) {
+                // skip zero terminated name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (p < size && gz.get(p++) != 0) {
+                // skip zero terminated comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+        return p < size ? p - pos : -1;
+    }
+
+    private static boolean inflates(ByteBuffer gz, int pos) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(gz.duplicate().position(pos + headerLength(gz, pos)));
+            byte[] block = new byte[BLOCK_SIZE];
+            while (!inflater.finished() && inflater.getBytesWritten() < BLOCK_SIZE) {
+                if (inflater.inflate(block) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (DataFormatException e) {
+            return false;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates whole members from {@code start} until reaching
+     * {@code limit}.
+     */
+    private static final class Segment {
+
+        final ByteBuffer gz;
+        final int start;
+        final int limit;
+        final EventCounter counter = new EventCounter();
+        final LineSplitter splitter;
+        final ChunkEvent event = new ChunkEvent();
+        int end;
+        IOException error;
+        long inflated;
+        long inflateNanos;
+        long scanNanos;
+
+        Segment(ByteBuffer gz, int start, int limit) {
+            this.gz = gz;
+            this.start = start;
+            this.limit = limit;
+            splitter = new LineSplitter(counter, start > 0);
+        }
+
+        void run() {
+            event.begin();
+            Inflater inflater = new Inflater(true);
+            CRC32 crc = new CRC32();
+            byte[] block = new byte[BLOCK_SIZE];
+            int pos = start;
+            try {
+                while (pos < limit) {
+                    int header = headerLength(gz, pos);
+                    if (header < 0) {
+                        if (pos > start && limit == gz.limit()) {
+                            break; // trailing garbage after the last member
+                        }
+                        throw new IOException("Not in gzip format at " + pos);
+                    }
+                    inflater.reset();
+                    crc.reset();
+                    inflater.setInput(gz.duplicate().position(pos + header));
+                    while (!inflater.finished()) {
+                        long start = System.nanoTime();
+                        int n = inflater.inflate(block);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("Unexpected end of gzip member at " + pos);
+                        }
+                        crc.update(block, 0, n);
+                        long fed = System.nanoTime();
+                        splitter.feed(block, 0, n);
+                        inflated += n;
+                        inflateNanos += fed - start;
+                        scanNanos += System.nanoTime() - fed;
+                    }
+                    int trailer = pos + header + (int) inflater.getBytesRead();
+                    if (trailer + 8 > gz.limit()) {
+                        throw new IOException("Truncated gzip trailer at " + trailer);
+                    }
+                    ByteBuffer le = gz.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                    if ((le.getInt(trailer) & 0xffffffffL) != crc.getValue()
+                            || le.getInt(trailer + 4) != (int) inflater.getBytesWritten()) {
+                        throw new IOException("Corrupt gzip member at " + pos);
+                    }
+                    pos = trailer + 8;
+                }
+                end = pos;
+            }
+            catch (IOException e) {
+                error = e;
+            }
+            catch (DataFormatException e) {
+                error = new IOException(e.getMessage() + " at " + pos, e);
+            }
+            finally {
+                inflater.end();
+            }
+            event.end();
+        }
+
+        /**
+         * Adds the accepted segment to the metrics of the current thread and
+         * commits its event.
+         */
+        void publish() {
+            Metrics.add(Counter.BYTES_INFLATED, inflated);
+            Metrics.time(Counter.INFLATE_NANOS, inflateNanos);
+            counter.publish(scanNanos);
+            RankingEvents.commitEnded(event, start, end - start, counter.counts());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import com.github.dittmarsteiner.training.githublanguageranking.SegmentStore.CorruptSegmentException;
+
+/**
+ * The histogram of some archive files together with the names of those
+ * files, to be merged with the partial results of other processes or
+ * machines into one ranking. Merging refuses partial results that share a
+ * file, so no hour is counted twice.
+ * <p>
+ * A partial result file is laid out as:
+ *
+ * <pre>
+ * "GLRP" version:byte
+ * files:varint     { length:varint name:bytes }
+ * segment:varint   bytes
+ * crc32:int        (over everything before)
+ * </pre>
+ *
+ * The names are UTF-8, the segment is the histogram with dictionaries,
+ * counts, sketches and top repositories, see {@link SegmentStore}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class PartialResult {
+
+    private static final int MAGIC = 'G' << 24 | 'L' << 16 | 'R' << 8 | 'P';
+    private static final byte VERSION = 1;
+
+    private final Set<String> files = new TreeSet<>();
+    private final LanguageCounts counts;
+
+    /**
+     * An empty partial result, to merge others into.
+     */
+    public PartialResult() {
+        this(Collections.emptySet(), new LanguageCounts());
+    }
+
+    /**
+     * @param files the names of the counted files
+     * @param counts their histogram
+     */
+    public PartialResult(Collection<String> files, LanguageCounts counts) {
+        this.files.addAll(files);
+        this.counts = counts;
+    }
+
+    /**
+     * @param other another partial result
+     * @return this, with the files and counts of {@code other} added
+     * @throws IllegalArgumentException if a file is in both
+     */
+    public PartialResult merge(PartialResult other) {
+        for (String file : other.files) {
+            if (files.contains(file)) {
+                throw new IllegalArgumentException("Counted twice: " + file);
+            }
+        }
+        files.addAll(other.files);
+        counts.merge(other.counts);
+        return this;
+    }
+
+    /**
+     * @return the names of the counted files, sorted
+     */
+    public Set<String> files() {
+        return Collections.unmodifiableSet(files);
+    }
+
+    /**
+     * @return the histogram of the files
+     */
+    public LanguageCounts counts() {
+        return counts;
+    }
+
+    /**
+     * Writes this partial result, atomically replacing an older file.
+     *
+     * @param file where to write
+     * @throws IOException on write failure
+     */
+    public void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, encode(), StandardOpenOption.SYNC);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param file a partial result file
+     * @return the partial result
+     * @throws CorruptSegmentException if the file is damaged
+     * @throws IOException on read failure
+     */
+    public static PartialResult read(Path file) throws IOException {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * @return the partial result bytes
+     */
+    public byte[] encode() {
+        byte[] segment = SegmentStore.encode(counts);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(segment.length + 32 * files.size() + 16);
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        SegmentStore.writeVarint(out, files.size());
+        for (String file : files) {
+            byte[] name = file.getBytes(StandardCharsets.UTF_8);
+            SegmentStore.writeVarint(out, name.length);
+            out.write(name, 0, name.length);
+        }
+        SegmentStore.writeVarint(out, segment.length);
+        out.write(segment, 0, segment.length);
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        int value = (int) crc.getValue();
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes the partial result bytes, from position {@code 0} to its
+     *            limit
+     * @return the partial result
+     * @throws CorruptSegmentException if the checksum, magic or version do
+     *             not match
+     */
+    public static PartialResult decode(ByteBuffer bytes) throws CorruptSegmentException {
+        int size = bytes.limit();
+        if (size < 10) {
+            throw new CorruptSegmentException("Truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate().limit(size - 4));
+        if ((int) crc.getValue() != bytes.getInt(size - 4)) {
+            throw new CorruptSegmentException("Checksum mismatch");
+        }
+        ByteBuffer in = bytes.duplicate().limit(size - 4);
+        if (in.getInt() != MAGIC || in.get() != VERSION) {
+            throw new CorruptSegmentException("Unknown format");
+        }
+
+        try {
+            Set<String> files = new TreeSet<>();
+            for (long i = SegmentStore.readVarint(in); i > 0; i--) {
+                byte[] name = bytes(in);
+                files.add(new String(name, StandardCharsets.UTF_8));
+            }
+            ByteBuffer segment = ByteBuffer.wrap(bytes(in));
+            if (in.hasRemaining()) {
+                throw new CorruptSegmentException("Trailing bytes");
+            }
+            return new PartialResult(files, SegmentStore.decode(segment));
+        }
+        catch (BufferUnderflowException e) {
+            throw new CorruptSegmentException("Truncated");
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer in) throws CorruptSegmentException {
+        long length = SegmentStore.readVarint(in);
+        if (length > in.remaining()) {
+            throw new CorruptSegmentException("Truncated");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return bytes;
+    }
+}
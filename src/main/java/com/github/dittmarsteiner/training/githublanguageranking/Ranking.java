@@ -0,0 +1,334 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * The ranking table: rank, language and activities per row, ordered by
+ * activities descending and language name ascending.
+ * <p>
+ * When only the top {@code k} rows are wanted they are selected with a
+ * bounded heap of language IDs, {@code O(n log k)}, and only those are
+ * sorted. Comparison works on the primitive counts and the cached names of
+ * the {@link LanguageDictionary}, nothing is boxed.
+ * <p>
+ * The distinct actors and repositories of a row are estimated from the
+ * {@link HyperLogLog} sketches of the histogram on demand, its top
+ * repositories are kept in a {@link SpaceSaving} sketch.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class Ranking {
+
+    /**
+     * How ties in activities are ranked, the rows are in name order either
+     * way.
+     */
+    public enum Method {
+        /** Ties share the rank, the next is skipped: 1, 2, 2, 4. */
+        COMPETITION,
+        /** Ties share the rank, the next follows: 1, 2, 2, 3. */
+        DENSE,
+        /** Every row its own rank: 1, 2, 3, 4. */
+        ORDINAL
+    }
+
+    private final String[] names;
+    private final long[] activities;
+    private final int[] ranks;
+    private final HyperLogLog[] actors;
+    private final HyperLogLog[] repos;
+    private final SpaceSaving[] topRepos;
+    private final long total;
+    private final long events;
+
+    private Ranking(String[] names, long[] activities, int[] ranks, HyperLogLog[] actors,
+            HyperLogLog[] repos, SpaceSaving[] topRepos, long total, long events) {
+        this.names = names;
+        this.activities = activities;
+        this.ranks = ranks;
+        this.actors = actors;
+        this.repos = repos;
+        this.topRepos = topRepos;
+        this.total = total;
+        this.events = events;
+    }
+
+    /**
+     * @param counts the histogram
+     * @param method how to rank ties
+     * @return all languages ranked
+     */
+    public static Ranking all(LanguageCounts counts, Method method) {
+        return top(counts, Integer.MAX_VALUE, method);
+    }
+
+    /**
+     * @param counts the histogram
+     * @param k the maximum number of rows
+     * @param method how to rank ties
+     * @return the first {@code k} rows of the ranking; ranks are those of
+     *         the full ranking
+     */
+    public static Ranking top(LanguageCounts counts, int k, Method method) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        LanguageDictionary dictionary = counts.dictionary();
+        int size = dictionary.size();
+        long[] activities = new long[size];
+        String[] names = new String[size];
+        for (int id = 0; id < size; id++) {
+            activities[id] = counts.count(id);
+            names[id] = dictionary.name(id);
+        }
+        int[] into = mergeEscaped(dictionary, activities, names);
+
+        // min-heap of the best k so far, its root is the worst of them
+        int[] heap = new int[Math.min(k, size)];
+        int n = 0;
+        for (int id = 0; id < size; id++) {
+            if (activities[id] == 0) {
+                continue; // merged into another spelling
+            }
+            if (n < heap.length) {
+                heap[n] = id;
+                up(heap, n++, activities, names);
+            }
+            else if (n > 0 && before(id, heap[0], activities, names)) {
+                heap[0] = id;
+                down(heap, 0, n, activities, names);
+            }
+        }
+
+        // pop the worst first to fill from the back
+        int[] rows = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            rows[i] = heap[0];
+            heap[0] = heap[i];
+            down(heap, 0, i, activities, names);
+        }
+
+        HyperLogLog[] actors = sketches(counts::distinctActors, into, new HyperLogLog[size],
+                (a, b) -> (a == null ? new HyperLogLog() : a.copy()).merge(b));
+        HyperLogLog[] repos = sketches(counts::distinctRepos, into, new HyperLogLog[size],
+                (a, b) -> (a == null ? new HyperLogLog() : a.copy()).merge(b));
+        SpaceSaving[] topRepos = sketches(counts::topRepos, into, new SpaceSaving[size],
+                (a, b) -> (a == null ? new SpaceSaving() : new SpaceSaving().merge(a)).merge(b));
+        String[] rowNames = new String[n];
+        long[] rowActivities = new long[n];
+        HyperLogLog[] rowActors = new HyperLogLog[n];
+        HyperLogLog[] rowRepos = new HyperLogLog[n];
+        SpaceSaving[] rowTopRepos = new SpaceSaving[n];
+        int[] ranks = new int[n];
+        for (int i = 0; i < n; i++) {
+            rowNames[i] = names[rows[i]];
+            rowActivities[i] = activities[rows[i]];
+            rowActors[i] = actors[rows[i]];
+            rowRepos[i] = repos[rows[i]];
+            rowTopRepos[i] = topRepos[rows[i]];
+            boolean tie = i > 0 && rowActivities[i] == rowActivities[i - 1];
+            switch (method) {
+            case COMPETITION:
+                ranks[i] = tie ? ranks[i - 1] : i + 1;
+                break;
+            case DENSE:
+                ranks[i] = tie ? ranks[i - 1] : (i == 0 ? 1 : ranks[i - 1] + 1);
+                break;
+            default:
+                ranks[i] = i + 1;
+            }
+        }
+        return new Ranking(rowNames, rowActivities, ranks, rowActors, rowRepos, rowTopRepos,
+                counts.total(), counts.events());
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return its rank, from {@code 1}
+     */
+    public int rank(int row) {
+        return ranks[row];
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return its language
+     */
+    public String language(int row) {
+        return names[row];
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return its activities
+     */
+    public long activities(int row) {
+        return activities[row];
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return the estimated distinct actors of its activities, {@code -1}
+     *         if unknown
+     */
+    public long distinctActors(int row) {
+        return actors[row] == null ? -1 : actors[row].estimate();
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return the estimated distinct repositories of its activities,
+     *         {@code -1} if unknown
+     */
+    public long distinctRepos(int row) {
+        return repos[row] == null ? -1 : repos[row].estimate();
+    }
+
+    /**
+     * @param row a row, from {@code 0}
+     * @return the repositories with the most of its activities, {@code null}
+     *         if unknown
+     */
+    public SpaceSaving topRepos(int row) {
+        return topRepos[row];
+    }
+
+    /**
+     * @return the activities of all languages, also those beyond the rows
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @return the scanned events of the ranked histogram
+     */
+    public long events() {
+        return events;
+    }
+
+    /**
+     * The dictionary interns raw JSON bytes, so a name spelled with escapes
+     * has an ID of its own. Moves such counts to the first spelling of the
+     * same name; the IDs left at {@code 0} are skipped.
+     *
+     * @return per ID the ID it was moved to, or itself
+     */
+    private static int[] mergeEscaped(LanguageDictionary dictionary, long[] activities,
+            String[] names) {
+        Map<String, Integer> escaped = null;
+        int[] into = new int[activities.length];
+        for (int id = 0; id < activities.length; id++) {
+            into[id] = id;
+            if (!dictionary.escaped(id)) {
+                continue;
+            }
+            byte[] plain = names[id].getBytes(StandardCharsets.UTF_8);
+            int target = dictionary.find(plain, 0, plain.length);
+            if (target < 0) {
+                if (escaped == null) {
+                    escaped = new HashMap<>();
+                }
+                Integer first = escaped.putIfAbsent(names[id], id);
+                if (first == null) {
+                    continue;
+                }
+                target = first;
+            }
+            activities[target] += activities[id];
+            activities[id] = 0;
+            into[id] = target;
+        }
+        return into;
+    }
+
+    /**
+     * @param union merges the second sketch into a copy of the first, which
+     *            may be {@code null}
+     * @return per ID its sketch, those of other spellings merged into a copy
+     */
+    private static <T> T[] sketches(IntFunction<T> sketch, int[] into, T[] sketches,
+            BinaryOperator<T> union) {
+        for (int id = 0; id < into.length; id++) {
+            sketches[id] = sketch.apply(id);
+        }
+        for (int id = 0; id < into.length; id++) {
+            int target = into[id];
+            if (target != id && sketches[id] != null) {
+                sketches[target] = union.apply(sketches[target], sketches[id]);
+            }
+        }
+        return sketches;
+    }
+
+    /**
+     * @return {@code true} if {@code a} ranks before {@code b}
+     */
+    private static boolean before(int a, int b, long[] activities, String[] names) {
+        if (activities[a] != activities[b]) {
+            return activities[a] > activities[b];
+        }
+        return names[a].compareTo(names[b]) < 0;
+    }
+
+    private static void up(int[] heap, int i, long[] activities, String[] names) {
+        int id = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(heap[parent], id, activities, names)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = id;
+    }
+
+    private static void down(int[] heap, int i, int n, long[] activities, String[] names) {
+        int id = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && before(heap[child], heap[child + 1], activities, names)) {
+                child++; // the worse of both
+            }
+            if (before(heap[child], id, activities, names)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = id;
+    }
+}
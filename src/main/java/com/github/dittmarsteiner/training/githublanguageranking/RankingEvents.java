@@ -0,0 +1,152 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events of the ranking: one per counted file, per parallel
+ * chunk and per export, each with its bytes, events, number of languages
+ * and duration. Disabled events cost next to nothing, so they are always
+ * emitted; record them e.g. with
+ * {@code java -XX:StartFlightRecording=filename=ranking.jfr ...}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class RankingEvents {
+
+    static final String PREFIX = "githublanguageranking.";
+
+    private RankingEvents() {
+    }
+
+    /**
+     * A counted archive or hour file.
+     */
+    @Name(PREFIX + "File")
+    @Label("File Counted")
+    @Category("GitHub Language Ranking")
+    @Description("An archive or hour file counted from start to end")
+    static final class FileEvent extends Event {
+
+        @Label("Source")
+        String source;
+
+        @Label("Bytes")
+        @Description("The bytes read, compressed for archives")
+        @DataAmount
+        long bytes;
+
+        @Label("Events")
+        long events;
+
+        @Label("Languages")
+        int languages;
+    }
+
+    /**
+     * A part of a file counted by one worker.
+     */
+    @Name(PREFIX + "Chunk")
+    @Label("Chunk Counted")
+    @Category("GitHub Language Ranking")
+    @Description("A part of a file counted by one worker")
+    static final class ChunkEvent extends Event {
+
+        @Label("Offset")
+        long offset;
+
+        @Label("Bytes")
+        @Description("The bytes of the chunk, compressed for archives")
+        @DataAmount
+        long bytes;
+
+        @Label("Events")
+        long events;
+
+        @Label("Languages")
+        int languages;
+    }
+
+    /**
+     * A written ranking.
+     */
+    @Name(PREFIX + "Export")
+    @Label("Ranking Exported")
+    @Category("GitHub Language Ranking")
+    @Description("The ranking written as CSV")
+    static final class ExportEvent extends Event {
+
+        @Label("Bytes")
+        @Description("The characters written")
+        @DataAmount
+        long bytes;
+
+        @Label("Events")
+        long events;
+
+        @Label("Languages")
+        int languages;
+    }
+
+    static void commit(FileEvent event, String source, long bytes, LanguageCounts counts) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.bytes = bytes;
+            event.events = counts.events();
+            event.languages = counts.size();
+            event.commit();
+        }
+    }
+
+    static void commit(ChunkEvent event, long offset, long bytes, LanguageCounts counts) {
+        event.end();
+        commitEnded(event, offset, bytes, counts);
+    }
+
+    /**
+     * Commits an event {@link ChunkEvent#end() ended} before, e.g. on the
+     * worker thread, once its chunk is known to count.
+     */
+    static void commitEnded(ChunkEvent event, long offset, long bytes, LanguageCounts counts) {
+        if (event.shouldCommit()) {
+            event.offset = offset;
+            event.bytes = bytes;
+            event.events = counts.events();
+            event.languages = counts.size();
+            event.commit();
+        }
+    }
+
+    static void commit(ExportEvent event, long bytes, long events, int languages) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.events = events;
+            event.languages = languages;
+            event.commit();
+        }
+    }
+}
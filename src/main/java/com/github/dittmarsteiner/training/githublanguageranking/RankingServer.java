@@ -0,0 +1,491 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves rankings over HTTP, e.g. for dashboards:
+ *
+ * <pre>
+ * GET /ranking?from=2016-03-14-0[&amp;to=2016-03-14-23][&amp;types=PullRequestEvent,ForkEvent]
+ *             [&amp;top=10][&amp;rank=ordinal|competition|dense][&amp;format=csv|json]
+ * </pre>
+ *
+ * A response is computed once per distinct query: ranked, encoded and
+ * gzipped into a byte array, kept in an LRU cache bounded in bytes. Repeated
+ * queries are answered from the cache with the stored bytes, gzip-encoded
+ * if the client accepts it, and with {@code 304 Not Modified} if the client
+ * sends the {@code ETag} it already has. Concurrent misses of the same
+ * query wait for one computation. A range with hours not archived (yet) is
+ * computed for every request and answered with {@code Cache-Control:
+ * no-cache}, so it fills in as the hours appear.
+ * <p>
+ * The histograms of the hours come from a {@link Source}, e.g. an
+ * {@link ArchiveScheduler} backed by a {@link SegmentStore}, so even a miss
+ * merges stored hours instead of parsing archives.
+ * <p>
+ * The JDK server writes headers and body separately: unless the JVM runs
+ * with {@code -Dsun.net.httpserver.nodelay=true}, every small response
+ * waits for the client's delayed ACK, about 40 ms. {@code --serve} sets it.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class RankingServer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RankingServer.class);
+
+    /** The largest range served, about a year. */
+    static final int MAX_HOURS = 24 * 366;
+
+    /**
+     * Counts the hours of a query.
+     */
+    public interface Source {
+        /**
+         * @param range the hours
+         * @param counted where to add each hour counted, not those without
+         *            an archive
+         * @return their merged histogram
+         * @throws IOException on failure, answered with {@code 502}
+         */
+        LanguageCounts count(HourRange range, Collection<LocalDateTime> counted)
+                throws IOException;
+    }
+
+    private final Source source;
+    private final long cacheBytes;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Response> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cached;
+    private final Map<String, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Starts serving.
+     *
+     * @param address where to listen, port {@code 0} for any
+     * @param source counts the hours of a query
+     * @param threads the request threads
+     * @param cacheBytes the budget of the cached responses
+     * @throws IOException if the address cannot be bound
+     */
+    public RankingServer(InetSocketAddress address, Source source, int threads, long cacheBytes)
+            throws IOException {
+        this.source = source;
+        this.cacheBytes = cacheBytes;
+        executor = Executors.newFixedThreadPool(threads, ArchiveScheduler.threads("http"));
+        server = HttpServer.create(address, 0);
+        server.createContext("/ranking", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving rankings on http://{}:{}/ranking", address.getHostString(), port());
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the requests answered from the cache
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the requests that computed their response
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the requests that waited for the computation of a concurrent
+     *         request
+     */
+    public long joined() {
+        return joined.get();
+    }
+
+    /**
+     * @return the responses dropped from the cache to stay within budget
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        log.info("Served {} cached, {} computed and {} joined responses, {} evicted", hits, misses,
+                joined, evictions);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, "Method not allowed\n");
+                return;
+            }
+            if (!exchange.getRequestURI().getPath().equals("/ranking")) {
+                send(exchange, 404, "Not found\n");
+                return;
+            }
+            Query query;
+            try {
+                query = Query.parse(exchange.getRequestURI().getRawQuery());
+            }
+            catch (IllegalArgumentException | DateTimeParseException e) {
+                send(exchange, 400, e.getMessage() + '\n');
+                return;
+            }
+            Response response;
+            try {
+                response = response(query);
+            }
+            catch (IOException e) {
+                log.warn("Failed to rank {}: {}", query.key, e.toString());
+                send(exchange, 502, "Failed to rank: " + e.getMessage() + '\n');
+                return;
+            }
+            respond(exchange, response, method.equals("HEAD"));
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, Response response, boolean head) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", response.etag);
+        headers.set("Vary", "Accept-Encoding");
+        if (!response.complete) {
+            headers.set("Cache-Control", "no-cache");
+        }
+        String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (match != null && (match.equals(response.etag) || match.equals("*"))) {
+            exchange.getRequestBody().close(); // else a bodiless reply closes the connection
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        headers.set("Content-Type", response.contentType);
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        byte[] body;
+        if (accept != null && accept.toLowerCase(Locale.ROOT).contains("gzip")) {
+            headers.set("Content-Encoding", "gzip");
+            body = response.gzip;
+        }
+        else {
+            body = response.plain();
+        }
+        if (head) {
+            headers.set("Content-Length", Integer.toString(body.length));
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return the cached response or the one computed by this or a
+     *         concurrent request
+     */
+    private Response response(Query query) throws IOException {
+        Response response = cached(query.key);
+        if (response != null) {
+            hits.incrementAndGet();
+            return response;
+        }
+        CompletableFuture<Response> mine = new CompletableFuture<>();
+        CompletableFuture<Response> running = pending.putIfAbsent(query.key, mine);
+        if (running != null) {
+            try {
+                joined.incrementAndGet();
+                return running.join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            misses.incrementAndGet();
+            response = compute(query);
+            if (response.complete) {
+                cache(query.key, response);
+            }
+            mine.complete(response);
+            return response;
+        }
+        catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            pending.remove(query.key);
+        }
+    }
+
+    private synchronized Response cached(String key) {
+        return cache.get(key);
+    }
+
+    private synchronized void cache(String key, Response response) {
+        Response old = cache.put(key, response);
+        cached += response.size() - (old == null ? 0 : old.size());
+        Iterator<Response> eldest = cache.values().iterator();
+        while (cached > cacheBytes && cache.size() > 1) {
+            Response evicted = eldest.next();
+            eldest.remove();
+            cached -= evicted.size();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Response compute(Query query) throws IOException {
+        List<LocalDateTime> counted = new ArrayList<>();
+        LanguageCounts counts = source.count(query.range, counted);
+        if (query.types != null) {
+            counts = counts.ofTypes(Arrays.asList(query.types));
+        }
+        Ranking ranking = Ranking.top(counts, query.top, query.method);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(1 << 12);
+        String contentType;
+        if (query.json) {
+            writeJson(query.range, ranking, plain);
+            contentType = "application/json";
+        }
+        else {
+            new CsvEncoder().write(ranking, plain);
+            contentType = "text/csv; charset=utf-8";
+        }
+        return new Response(plain.toByteArray(), contentType,
+                counted.size() == query.range.size());
+    }
+
+    /**
+     * {@code {"from":..,"to":..,"total":..,"events":..,"rows":[{"rank":..,
+     * "language":..,"activities":..,"proportion":..}]}}, the proportion in
+     * percent with two decimals.
+     */
+    static void writeJson(HourRange range, Ranking ranking, OutputStream out) throws IOException {
+        String[] hours = range.toString().split("\\.\\.");
+        StringBuilder json = new StringBuilder(64 + ranking.size() * 80);
+        json.append("{\"from\":\"").append(hours[0]).append("\",\"to\":\"").append(hours[1])
+                .append("\",\"total\":").append(ranking.total())
+                .append(",\"events\":").append(ranking.events())
+                .append(",\"rows\":[");
+        for (int row = 0; row < ranking.size(); row++) {
+            long hundredths = CsvEncoder.hundredths(ranking.activities(row), ranking.total());
+            json.append(row == 0 ? "" : ",").append("{\"rank\":").append(ranking.rank(row))
+                    .append(",\"language\":");
+            quote(json, ranking.language(row));
+            json.append(",\"activities\":").append(ranking.activities(row))
+                    .append(",\"proportion\":").append(hundredths / 100).append('.')
+                    .append(hundredths % 100 / 10).append(hundredths % 10).append('}');
+        }
+        json.append("]}\n");
+        out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * A parsed query and its normalized cache key.
+     */
+    static final class Query {
+
+        final HourRange range;
+        final String[] types;
+        final int top;
+        final Method method;
+        final boolean json;
+        final String key;
+
+        private Query(HourRange range, String[] types, int top, Method method, boolean json) {
+            this.range = range;
+            this.types = types;
+            this.top = top;
+            this.method = method;
+            this.json = json;
+            key = range + "|" + (types == null ? "*" : String.join(",", types)) + '|' + top + '|'
+                    + method + '|' + (json ? "json" : "csv");
+        }
+
+        /**
+         * @param raw the raw query string, may be {@code null}
+         * @return the query
+         * @throws IllegalArgumentException on a missing or invalid parameter
+         */
+        static Query parse(String raw) {
+            Map<String, String> parameters = new HashMap<>();
+            if (raw != null) {
+                for (String pair : raw.split("&")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0) {
+                        parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                                URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            String from = parameters.get("from");
+            if (from == null) {
+                throw new IllegalArgumentException("Missing from=yyyy-MM-dd-H");
+            }
+            HourRange range = HourRange.parse(from, parameters.getOrDefault("to", from));
+            if (range.size() > MAX_HOURS) {
+                throw new IllegalArgumentException("More than " + MAX_HOURS + " hours");
+            }
+            String[] types = null;
+            if (parameters.containsKey("types")) {
+                types = parameters.get("types").split(",");
+                Arrays.sort(types);
+            }
+            int top = Integer.parseInt(parameters.getOrDefault("top", Integer.toString(Integer.MAX_VALUE)));
+            if (top < 0) {
+                throw new IllegalArgumentException("Negative top");
+            }
+            Method method = Method.valueOf(parameters.getOrDefault("rank", "ordinal").toUpperCase(Locale.ROOT));
+            String format = parameters.getOrDefault("format", "csv");
+            if (!format.equals("csv") && !format.equals("json")) {
+                throw new IllegalArgumentException("Unknown format: " + format);
+            }
+            return new Query(range, types, top, method, format.equals("json"));
+        }
+    }
+
+    /**
+     * A precomputed response: the gzipped body and its entity tag, and
+     * whether every hour of its range was counted.
+     */
+    static final class Response {
+
+        final byte[] gzip;
+        final int length;
+        final String etag;
+        final String contentType;
+        final boolean complete;
+
+        Response(byte[] plain, String contentType, boolean complete) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(plain);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            gzip = bytes.toByteArray();
+            length = plain.length;
+            CRC32 crc = new CRC32();
+            crc.update(plain);
+            etag = "\"" + Long.toHexString(crc.getValue()) + '-' + Integer.toHexString(length) + '"';
+            this.contentType = contentType;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the body inflated, for the rare client without gzip
+         */
+        byte[] plain() throws IOException {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+                return in.readNBytes(length);
+            }
+        }
+
+        long size() {
+            return gzip.length + 64;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A directory of per-hour histograms in a compact binary format, so range
+ * rankings merge stored segments instead of reparsing the archives. The
+ * counts take a few hundred bytes per hour; the sketches dominate, up to
+ * about 8 KB per sketch for a language with thousands of actors, so a busy
+ * hour takes around 100 KB, still a fraction of its archive.
+ * <p>
+ * A segment {@code yyyy-MM-dd-H.seg} is laid out as:
+ *
+ * <pre>
+ * "GLRS" version:byte
+ * events:varint
+ * languages:varint { length:varint name:bytes activities:varint }
+ * types:varint     { length:varint name:bytes events:varint }
+ * cells:varint     { language:varint type:varint activities:varint }
+ * sketches:varint  { language:varint actors:sketch repos:sketch }
+ * top repos:varint { language:varint keys:varint { repo:varint activities:varint error:varint } }
+ * crc32:int        (over everything before)
+ *
+ * sketch:          precision:byte registers:varint { gap:varint rank:byte }
+ * </pre>
+ *
+ * Names are raw JSON string contents, dictionary IDs are the order of
+ * appearance. The cells are the non-zero activities per language and event
+ * type, see {@link LanguageCounts#count(int, int)}. The sketches are the
+ * distinct actors and repositories per language, only their non-empty
+ * registers by the gap to the previous one; precision {@code 0} marks a
+ * missing sketch. The top repositories are the monitored keys of the
+ * {@link SpaceSaving} sketch per language.
+ * <p>
+ * Segments are read memory-mapped. A segment with a wrong checksum, magic
+ * or version is deleted and reported as missing, so the caller counts the
+ * hour again.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class SegmentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentStore.class);
+
+    private static final int MAGIC = 'G' << 24 | 'L' << 16 | 'R' << 8 | 'S';
+    private static final byte VERSION = 4;
+
+    private final Path dir;
+
+    /**
+     * @param dir the segment directory, created if missing
+     * @throws IOException if the directory cannot be created
+     */
+    public SegmentStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * @param hour an hour
+     * @return the segment file of the hour
+     */
+    public Path path(LocalDateTime hour) {
+        String archive = HourRange.fileName(hour);
+        return dir.resolve(archive.substring(0, archive.indexOf('.')) + ".seg");
+    }
+
+    /**
+     * @param hour an hour
+     * @return the stored histogram or {@code null} if missing or corrupt
+     * @throws IOException on read failure
+     */
+    public LanguageCounts read(LocalDateTime hour) throws IOException {
+        Path file = path(hour);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return decode(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (CorruptSegmentException e) {
+            log.warn("Rebuilding {}: {}", file, e.getMessage());
+            Files.deleteIfExists(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the histogram of an hour, atomically replacing an older one.
+     *
+     * @param hour an hour
+     * @param counts its histogram
+     * @throws IOException on write failure
+     */
+    public void write(LocalDateTime hour, LanguageCounts counts) throws IOException {
+        Path file = path(hour);
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        Files.write(temp, encode(counts));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param counts a histogram
+     * @return the segment bytes
+     */
+    public static byte[] encode(LanguageCounts counts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        long typed = 0;
+        for (int id = 0; id < counts.types().size(); id++) {
+            typed += counts.typeCount(id);
+        }
+        writeVarint(out, counts.events() - typed);
+        writeDictionary(out, counts.dictionary(), counts::count);
+        writeDictionary(out, counts.types(), counts::typeCount);
+        int cells = 0;
+        for (int language = 0; language < counts.size(); language++) {
+            for (int type = 0; type < counts.types().size(); type++) {
+                cells += counts.count(language, type) != 0 ? 1 : 0;
+            }
+        }
+        writeVarint(out, cells);
+        for (int language = 0; language < counts.size(); language++) {
+            for (int type = 0; type < counts.types().size(); type++) {
+                long count = counts.count(language, type);
+                if (count != 0) {
+                    writeVarint(out, language);
+                    writeVarint(out, type);
+                    writeVarint(out, count);
+                }
+            }
+        }
+        int sketches = 0;
+        for (int language = 0; language < counts.size(); language++) {
+            sketches += counts.distinctActors(language) != null
+                    || counts.distinctRepos(language) != null ? 1 : 0;
+        }
+        writeVarint(out, sketches);
+        for (int language = 0; language < counts.size(); language++) {
+            if (counts.distinctActors(language) != null || counts.distinctRepos(language) != null) {
+                writeVarint(out, language);
+                writeSketch(out, counts.distinctActors(language));
+                writeSketch(out, counts.distinctRepos(language));
+            }
+        }
+        int topRepos = 0;
+        for (int language = 0; language < counts.size(); language++) {
+            topRepos += counts.topRepos(language) != null ? 1 : 0;
+        }
+        writeVarint(out, topRepos);
+        for (int language = 0; language < counts.size(); language++) {
+            SpaceSaving repos = counts.topRepos(language);
+            if (repos != null) {
+                writeVarint(out, language);
+                writeVarint(out, repos.size());
+                for (int slot = 0; slot < repos.size(); slot++) {
+                    writeVarint(out, repos.key(slot));
+                    writeVarint(out, repos.count(slot));
+                    writeVarint(out, repos.error(slot));
+                }
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        int checksum = (int) crc.getValue();
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param segment the segment bytes, from position {@code 0} to its limit
+     * @return the histogram
+     * @throws CorruptSegmentException if the checksum, magic or version do
+     *             not match
+     */
+    public static LanguageCounts decode(ByteBuffer segment) throws CorruptSegmentException {
+        int size = segment.limit();
+        if (size < 9) {
+            throw new CorruptSegmentException("Truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(segment.duplicate().limit(size - 4));
+        if ((int) crc.getValue() != segment.getInt(size - 4)) {
+            throw new CorruptSegmentException("Checksum mismatch");
+        }
+        ByteBuffer in = segment.duplicate().limit(size - 4);
+        if (in.getInt() != MAGIC || in.get() != VERSION) {
+            throw new CorruptSegmentException("Unknown format");
+        }
+
+        try {
+            LanguageCounts counts = new LanguageCounts();
+            counts.addEvents(readVarint(in));
+            for (long i = readVarint(in); i > 0; i--) {
+                byte[] name = readName(in);
+                counts.add(name, 0, name.length, readVarint(in));
+            }
+            for (long i = readVarint(in); i > 0; i--) {
+                byte[] name = readName(in);
+                counts.addEvents(name, 0, name.length, readVarint(in));
+            }
+            for (long i = readVarint(in); i > 0; i--) {
+                long language = readVarint(in);
+                long type = readVarint(in);
+                if (language >= counts.size() || type >= counts.types().size()) {
+                    throw new CorruptSegmentException("Cell out of range");
+                }
+                counts.cell((int) language, (int) type, readVarint(in));
+            }
+            for (long i = readVarint(in); i > 0; i--) {
+                long language = readVarint(in);
+                if (language >= counts.size()) {
+                    throw new CorruptSegmentException("Sketch out of range");
+                }
+                readSketch(in, () -> counts.actors((int) language));
+                readSketch(in, () -> counts.repos((int) language));
+            }
+            for (long i = readVarint(in); i > 0; i--) {
+                long language = readVarint(in);
+                if (language >= counts.size()) {
+                    throw new CorruptSegmentException("Top repositories out of range");
+                }
+                SpaceSaving repos = counts.topReposOf((int) language);
+                for (long k = readVarint(in); k > 0; k--) {
+                    repos.add(readVarint(in), readVarint(in), readVarint(in));
+                }
+            }
+            if (in.hasRemaining()) {
+                throw new CorruptSegmentException("Trailing bytes");
+            }
+            return counts;
+        }
+        catch (BufferUnderflowException e) {
+            throw new CorruptSegmentException("Truncated");
+        }
+    }
+
+    private interface Count {
+        long of(int id);
+    }
+
+    private static void writeDictionary(ByteArrayOutputStream out, LanguageDictionary dictionary,
+            Count count) {
+        writeVarint(out, dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            byte[] name = dictionary.bytes(id);
+            writeVarint(out, name.length);
+            out.write(name, 0, name.length);
+            writeVarint(out, count.of(id));
+        }
+    }
+
+    private static void writeSketch(ByteArrayOutputStream out, HyperLogLog sketch) {
+        if (sketch == null) {
+            out.write(0);
+            return;
+        }
+        out.write(sketch.precision());
+        int registers = 0;
+        for (int i = 0; i < sketch.size(); i++) {
+            registers += sketch.register(i) != 0 ? 1 : 0;
+        }
+        writeVarint(out, registers);
+        int previous = -1;
+        for (int i = 0; i < sketch.size(); i++) {
+            if (sketch.register(i) != 0) {
+                writeVarint(out, i - previous - 1);
+                out.write(sketch.register(i));
+                previous = i;
+            }
+        }
+    }
+
+    private static void readSketch(ByteBuffer in, Supplier<HyperLogLog> sketch)
+            throws CorruptSegmentException {
+        int precision = in.get();
+        if (precision == 0) {
+            return;
+        }
+        HyperLogLog target = sketch.get();
+        if (precision != target.precision()) {
+            throw new CorruptSegmentException("Sketch precision " + precision);
+        }
+        int index = -1;
+        for (long i = readVarint(in); i > 0; i--) {
+            long next = index + 1 + readVarint(in);
+            int rank = in.get();
+            if (next < 0 || next >= target.size() || rank <= 0 || rank > 64) {
+                throw new CorruptSegmentException("Register out of range");
+            }
+            index = (int) next;
+            target.register(index, rank);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(ByteBuffer in) throws CorruptSegmentException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptSegmentException("Malformed varint");
+    }
+
+    private static byte[] readName(ByteBuffer in) throws CorruptSegmentException {
+        long length = readVarint(in);
+        if (length > in.remaining()) {
+            throw new CorruptSegmentException("Truncated");
+        }
+        byte[] name = new byte[(int) length];
+        in.get(name);
+        return name;
+    }
+
+    /**
+     * A segment that must be rebuilt.
+     */
+    public static final class CorruptSegmentException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CorruptSegmentException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts a range of hours in several worker JVMs and merges their
+ * {@link PartialResult}s: the range is split into consecutive shards, each
+ * counted by {@code LanguageRanking --from .. --to .. --partial <file>} in a
+ * process of its own, so every worker has its own heap, GC and dictionary
+ * instead of one JVM running into GC and memory bandwidth limits first.
+ * <p>
+ * The workers run on the classpath of this JVM, with its heap and
+ * {@code -XX} options unless given. Their output goes to
+ * {@code shard-<n>.log} in the work directory. A failing worker fails the
+ * run as soon as it exits, the others are stopped. The merged result lists
+ * every hour counted exactly once; hours without an archive are skipped by
+ * the workers and logged as missing.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class ShardCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private final HourRange range;
+    private final int shards;
+    private final Path dir;
+    private List<String> workerArguments = Collections.emptyList();
+    private List<String> jvmOptions = ManagementFactory.getRuntimeMXBean().getInputArguments()
+            .stream()
+            .filter(option -> option.startsWith("-Xm") || option.startsWith("-XX:"))
+            .collect(Collectors.toList());
+
+    /**
+     * @param range the hours to count
+     * @param shards the number of worker JVMs, at most one per hour
+     * @param dir the work directory of the partial results and logs
+     */
+    public ShardCoordinator(HourRange range, int shards, Path dir) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shards: " + shards);
+        }
+        this.range = range;
+        this.shards = shards;
+        this.dir = dir;
+    }
+
+    /**
+     * @param arguments further options of every worker, e.g.
+     *            {@code --base-url} or {@code --segments}
+     * @return this
+     */
+    public ShardCoordinator withWorkerArguments(List<String> arguments) {
+        this.workerArguments = new ArrayList<>(arguments);
+        return this;
+    }
+
+    /**
+     * @param options the JVM options of every worker, e.g. {@code -Xmx2g}
+     * @return this
+     */
+    public ShardCoordinator withJvmOptions(List<String> options) {
+        this.jvmOptions = new ArrayList<>(options);
+        return this;
+    }
+
+    /**
+     * Runs the workers and merges their results.
+     *
+     * @return the merged result of all hours
+     * @throws IOException if a worker fails or its result is damaged
+     */
+    public PartialResult run() throws IOException {
+        Files.createDirectories(dir);
+        List<HourRange> ranges = range.split(shards);
+        List<Process> processes = new ArrayList<>(ranges.size());
+        BlockingQueue<Integer> exited = new LinkedBlockingQueue<>();
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                Process process = new ProcessBuilder(command(ranges.get(i), partial(i)))
+                        .redirectErrorStream(true)
+                        .redirectOutput(dir.resolve("shard-" + i + ".log").toFile())
+                        .start();
+                processes.add(process);
+                int shard = i;
+                process.onExit().thenRun(() -> exited.add(shard));
+            }
+            log.info("Counting {} in {} worker JVMs", range, processes.size());
+            for (int done = 0; done < processes.size(); done++) {
+                int i = exited.take();
+                int exit = processes.get(i).exitValue();
+                if (exit != 0) {
+                    throw new IOException("Shard " + i + " (" + ranges.get(i) + ") exited with " + exit
+                            + ", see " + dir.resolve("shard-" + i + ".log"));
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while counting " + range);
+        }
+        finally {
+            processes.forEach(Process::destroyForcibly);
+        }
+
+        PartialResult merged = new PartialResult();
+        for (int i = 0; i < ranges.size(); i++) {
+            merged.merge(PartialResult.read(partial(i)));
+        }
+        List<String> missing = new ArrayList<>();
+        for (LocalDateTime hour : range.hours()) {
+            if (!merged.files().contains(HourRange.fileName(hour))) {
+                missing.add(HourRange.fileName(hour));
+            }
+        }
+        if (!missing.isEmpty()) {
+            log.warn("No shard counted {} of {} hours, their archives are missing: {}",
+                    missing.size(), range.size(), missing);
+        }
+        return merged;
+    }
+
+    /**
+     * @param shard a shard number
+     * @return the partial result file of the shard
+     */
+    Path partial(int shard) {
+        return dir.resolve("shard-" + shard + ".partial");
+    }
+
+    private List<String> command(HourRange shard, Path partial) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LanguageRanking.class.getName());
+        command.add("--from");
+        command.add(HourRange.format(shard.from()));
+        command.add("--to");
+        command.add(HourRange.format(shard.to()));
+        command.add("--partial");
+        command.add(partial.toString());
+        command.addAll(workerArguments);
+        return command;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.util.Arrays;
+
+/**
+ * A Space-Saving sketch of the most frequent {@code long} keys, e.g. the
+ * repositories of a language's activities, in bounded memory: it monitors at
+ * most {@code capacity} keys, and an unmonitored key replaces the one with
+ * the least count, inheriting that count as its possible overcount.
+ * <p>
+ * Each count is an upper bound of the true count and exceeds it by at most
+ * its {@link #error(int)}; every key occurring more than
+ * {@code total / capacity} times is monitored. Two sketches
+ * {@link #merge(SpaceSaving) merge} into one with the same guarantee for the
+ * union of their streams (Agarwal et al., Mergeable Summaries), so sketches
+ * of threads and hours combine.
+ * <p>
+ * The monitored keys are found by an open-addressing index and the least
+ * count by a min-heap, so an update is {@code O(log capacity)} and allocates
+ * nothing. Not thread-safe.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class SpaceSaving {
+
+    /** 64 keys, about 2 kB per sketch. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    /** Slots ordered by count, the least at the root. */
+    private final int[] heap;
+    private final int[] position;
+    /** Slot + 1 per hash bucket, {@code 0} for free. */
+    private final int[] index;
+    private final int indexMask;
+
+    /**
+     * A sketch of {@link #DEFAULT_CAPACITY}.
+     */
+    public SpaceSaving() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of monitored keys, at least {@code 1}
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        position = new int[capacity];
+        index = new int[Integer.highestOneBit(capacity) << 2];
+        indexMask = index.length - 1;
+    }
+
+    /**
+     * Counts one occurrence.
+     *
+     * @param key any key
+     */
+    public void add(long key) {
+        add(key, 1, 0);
+    }
+
+    /**
+     * Adds the monitored keys of {@code other} to this sketch. A key
+     * monitored by only one of both may have occurred in the other up to its
+     * least count, if full, which is added as count and error.
+     *
+     * @param other a sketch, left unchanged
+     * @return this
+     */
+    public SpaceSaving merge(SpaceSaving other) {
+        long ownMin = size == capacity ? counts[heap[0]] : 0;
+        long otherMin = other.size == other.capacity ? other.counts[other.heap[0]] : 0;
+        int n = size + other.size;
+        long[] mergedKeys = new long[n];
+        long[] mergedCounts = new long[n];
+        long[] mergedErrors = new long[n];
+        int m = 0;
+        for (int slot = 0; slot < size; slot++) {
+            int theirs = other.find(keys[slot]);
+            mergedKeys[m] = keys[slot];
+            mergedCounts[m] = counts[slot] + (theirs < 0 ? otherMin : other.counts[theirs]);
+            mergedErrors[m++] = errors[slot] + (theirs < 0 ? otherMin : other.errors[theirs]);
+        }
+        for (int slot = 0; slot < other.size; slot++) {
+            if (find(other.keys[slot]) < 0) {
+                mergedKeys[m] = other.keys[slot];
+                mergedCounts[m] = other.counts[slot] + ownMin;
+                mergedErrors[m++] = other.errors[slot] + ownMin;
+            }
+        }
+
+        // keep the largest counts
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(mergedCounts[b], mergedCounts[a]));
+        clear();
+        for (int i = 0; i < Math.min(m, capacity); i++) {
+            int k = order[i];
+            add(mergedKeys[k], mergedCounts[k], mergedErrors[k]);
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of monitored keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of monitored keys
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param n the maximum number of keys
+     * @return the slots of the monitored keys by count descending, key
+     *         ascending
+     */
+    public int[] top(int n) {
+        Integer[] order = new Integer[size];
+        for (int slot = 0; slot < size; slot++) {
+            order[slot] = slot;
+        }
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a])
+                : Long.compare(keys[a], keys[b]));
+        int[] top = new int[Math.min(n, size)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    /**
+     * @param slot a slot from {@code 0} to {@link #size()}
+     * @return its key
+     */
+    public long key(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot a slot from {@code 0} to {@link #size()}
+     * @return the count of its key, an upper bound
+     */
+    public long count(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * @param slot a slot from {@code 0} to {@link #size()}
+     * @return the maximum overcount of its key
+     */
+    public long error(int slot) {
+        return errors[slot];
+    }
+
+    /**
+     * @param key any key
+     * @return its count, an upper bound, or {@code 0} if not monitored
+     */
+    public long countOf(long key) {
+        int slot = find(key);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    /**
+     * Adds a count to a key, e.g. when merging or reading a stored sketch;
+     * if unmonitored and full, the key replaces the least one.
+     *
+     * @param key any key
+     * @param count its occurrences
+     * @param error their maximum overcount
+     */
+    void add(long key, long count, long error) {
+        int slot = find(key);
+        if (slot < 0) {
+            if (size < capacity) {
+                slot = size++;
+                heap[slot] = slot;
+                position[slot] = slot;
+                counts[slot] = 0;
+                errors[slot] = 0;
+            }
+            else {
+                slot = heap[0];
+                unindex(keys[slot]);
+                errors[slot] = counts[slot]; // the key may have been evicted before
+            }
+            keys[slot] = key;
+            index(key, slot);
+        }
+        counts[slot] += count;
+        errors[slot] += error;
+        down(position[slot]);
+        up(position[slot]);
+    }
+
+    private void clear() {
+        size = 0;
+        Arrays.fill(index, 0);
+    }
+
+    private int find(long key) {
+        for (int bucket = bucket(key);; bucket = bucket + 1 & indexMask) {
+            int slot = index[bucket] - 1;
+            if (slot < 0 || keys[slot] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private void index(long key, int slot) {
+        int bucket = bucket(key);
+        while (index[bucket] != 0) {
+            bucket = bucket + 1 & indexMask;
+        }
+        index[bucket] = slot + 1;
+    }
+
+    /**
+     * Removes a key from the index, moving later entries of its probe
+     * sequence back so no lookup stops early.
+     */
+    private void unindex(long key) {
+        int bucket = bucket(key);
+        while (keys[index[bucket] - 1] != key) {
+            bucket = bucket + 1 & indexMask;
+        }
+        int free = bucket;
+        for (int next = free + 1 & indexMask; index[next] != 0; next = next + 1 & indexMask) {
+            int home = bucket(keys[index[next] - 1]);
+            // movable if its home is not cyclically within (free, next]
+            if ((next - home & indexMask) >= (next - free & indexMask)) {
+                index[free] = index[next];
+                free = next;
+            }
+        }
+        index[free] = 0;
+    }
+
+    private int bucket(long key) {
+        return (int) OffHeapLongSet.mix(key) & indexMask;
+    }
+
+    private void up(int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            move(heap[parent], i);
+            i = parent;
+        }
+        move(slot, i);
+    }
+
+    private void down(int i) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[child]] >= counts[slot]) {
+                break;
+            }
+            move(heap[child], i);
+            i = child;
+        }
+        move(slot, i);
+    }
+
+    private void move(int slot, int i) {
+        heap[i] = slot;
+        position[slot] = i;
+    }
+}
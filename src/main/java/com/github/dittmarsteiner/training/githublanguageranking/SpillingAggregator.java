@@ -0,0 +1,457 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts {@code (group, key)} pairs exactly, e.g. activities per language
+ * and repository, within a memory budget however many distinct pairs there
+ * are.
+ * <p>
+ * Pairs are summed in an open-addressing table of primitive arrays, 20
+ * bytes per slot, sized from the budget. When it is three quarters full,
+ * its entries are sorted by group and key and spilled as a run to a
+ * temporary file, and the table starts empty again. {@link #forEach} merges
+ * the runs and the table in one k-way pass, summing the counts of a pair
+ * found in several runs, so every pair is reported once, in order.
+ * <p>
+ * A run is written and read through a 64 KB buffer on a
+ * {@link FileChannel}, as records:
+ *
+ * <pre>
+ * { group:varint key:varint count:varint }
+ * </pre>
+ *
+ * where {@code key} is the difference to the previous key within the same
+ * group. Keys must not be negative. Not thread-safe.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class SpillingAggregator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingAggregator.class);
+
+    /** The bytes per table slot: group, key and count. */
+    static final int SLOT_BYTES = 4 + 8 + 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_RECORD = 3 * 10;
+
+    /**
+     * The order of the groups, e.g. by language name.
+     */
+    public interface GroupOrder {
+        /**
+         * @param a a group
+         * @param b another group
+         * @return negative, zero or positive as {@code a} sorts before, with
+         *         or after {@code b}
+         */
+        int compare(int a, int b);
+    }
+
+    /**
+     * Receives the merged pairs.
+     */
+    public interface Sink {
+        /**
+         * @param group the group
+         * @param key the key
+         * @param count the sum of its counts
+         * @throws IOException if the sink fails
+         */
+        void accept(int group, long key, long count) throws IOException;
+    }
+
+    private final Path dir;
+    private final GroupOrder order;
+    private final int[] groups; // group + 1, 0 is free
+    private final long[] keys;
+    private final long[] counts;
+    private final int limit;
+    private int size;
+    private int maxGroup = -1;
+    private final List<Path> runs = new ArrayList<>();
+    private long spilledBytes;
+
+    /**
+     * @param budget the bytes of the in-memory table, at least 1 KB
+     * @param dir where to spill the runs
+     * @param order the order of the groups in the runs and the merge
+     */
+    public SpillingAggregator(long budget, Path dir, GroupOrder order) {
+        if (budget < 1024) {
+            throw new IllegalArgumentException("Budget: " + budget);
+        }
+        int capacity = Integer.highestOneBit((int) Math.min(1 << 30, budget / SLOT_BYTES));
+        this.dir = dir;
+        this.order = order;
+        groups = new int[capacity];
+        keys = new long[capacity];
+        counts = new long[capacity];
+        limit = capacity / 4 * 3;
+    }
+
+    /**
+     * @param group a group, not negative
+     * @param key a key, not negative
+     * @param count the amount to add
+     * @throws IOException if a run cannot be spilled
+     */
+    public void add(int group, long key, long count) throws IOException {
+        if (group < 0 || key < 0) {
+            throw new IllegalArgumentException("Negative group or key: " + group + ", " + key);
+        }
+        int mask = groups.length - 1;
+        int slot = (int) OffHeapLongSet.mix(key * 31 + group) & mask;
+        while (groups[slot] != 0) {
+            if (groups[slot] == group + 1 && keys[slot] == key) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        groups[slot] = group + 1;
+        keys[slot] = key;
+        counts[slot] = count;
+        maxGroup = Math.max(maxGroup, group);
+        if (++size >= limit) {
+            spill();
+        }
+    }
+
+    /**
+     * Merges the runs and the table and reports every pair once, by group
+     * in {@link GroupOrder} and key ascending, then deletes the runs. The
+     * aggregator is empty afterwards.
+     *
+     * @param sink receives the pairs
+     * @throws IOException if a run cannot be read or the sink fails
+     */
+    public void forEach(Sink sink) throws IOException {
+        int[] ranks = ranks();
+        int entries = sort(ranks);
+        List<Cursor> cursors = new ArrayList<>(runs.size() + 1);
+        try {
+            cursors.add(new TableCursor(entries));
+            for (Path run : runs) {
+                cursors.add(new RunCursor(run));
+            }
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(
+                    Comparator.<Cursor> comparingInt(cursor -> ranks[cursor.group])
+                            .thenComparingLong(cursor -> cursor.key));
+            for (Cursor cursor : cursors) {
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Cursor head = queue.poll();
+                int group = head.group;
+                long key = head.key;
+                long count = head.count;
+                if (head.next()) {
+                    queue.add(head);
+                }
+                while (!queue.isEmpty() && queue.peek().group == group && queue.peek().key == key) {
+                    Cursor same = queue.poll();
+                    count += same.count;
+                    if (same.next()) {
+                        queue.add(same);
+                    }
+                }
+                sink.accept(group, key, count);
+            }
+        }
+        finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            Arrays.fill(groups, 0);
+            size = 0;
+            close();
+        }
+    }
+
+    /**
+     * @return the number of runs spilled so far
+     */
+    public int runs() {
+        return runs.size();
+    }
+
+    /**
+     * @return the bytes of the runs spilled so far
+     */
+    public long spilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return the number of pairs in the table, not yet spilled
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        int entries = sort(ranks());
+        Path run = Files.createTempFile(dir, "aggregate-", ".run");
+        runs.add(run);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+            int previous = -1;
+            long previousKey = 0;
+            for (int i = 0; i < entries; i++) {
+                if (buffer.remaining() < MAX_RECORD) {
+                    drain(buffer, channel);
+                }
+                int group = groups[i] - 1;
+                putVarint(buffer, group);
+                putVarint(buffer, group == previous ? keys[i] - previousKey : keys[i]);
+                putVarint(buffer, counts[i]);
+                previous = group;
+                previousKey = keys[i];
+            }
+            drain(buffer, channel);
+            spilledBytes += channel.size();
+            log.debug("Spilled {} pairs to {}, {} bytes", entries, run, channel.size());
+        }
+        Arrays.fill(groups, 0, entries, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the rank of every group up to the largest one added
+     */
+    private int[] ranks() {
+        Integer[] sorted = new Integer[maxGroup + 1];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, order::compare);
+        int[] ranks = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            ranks[sorted[i]] = i;
+        }
+        return ranks;
+    }
+
+    /**
+     * Moves the entries to the front of the table and sorts them by group
+     * rank and key; the table is no hash table anymore.
+     *
+     * @return the number of entries
+     */
+    private int sort(int[] ranks) {
+        int n = 0;
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] != 0) {
+                groups[n] = groups[i];
+                keys[n] = keys[i];
+                counts[n++] = counts[i];
+                if (i >= n) {
+                    groups[i] = 0;
+                }
+            }
+        }
+        sort(ranks, 0, n - 1);
+        return n;
+    }
+
+    private void sort(int[] ranks, int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            int pivotRank = ranks[groups[middle] - 1];
+            long pivotKey = keys[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(ranks, i, pivotRank, pivotKey) < 0) {
+                    i++;
+                }
+                while (compare(ranks, j, pivotRank, pivotKey) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (j - low < high - i) { // recurse into the smaller part
+                sort(ranks, low, j);
+                low = i;
+            }
+            else {
+                sort(ranks, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(ranks, j, ranks[groups[j - 1] - 1], keys[j - 1]) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private int compare(int[] ranks, int i, int rank, long key) {
+        int c = Integer.compare(ranks[groups[i] - 1], rank);
+        return c != 0 ? c : Long.compare(keys[i], key);
+    }
+
+    private void swap(int i, int j) {
+        int group = groups[i];
+        groups[i] = groups[j];
+        groups[j] = group;
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private abstract static class Cursor {
+        int group;
+        long key;
+        long count;
+
+        /**
+         * @return {@code false} at the end
+         */
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private final class TableCursor extends Cursor {
+        private final int entries;
+        private int index = -1;
+
+        TableCursor(int entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        boolean next() {
+            if (++index >= entries) {
+                return false;
+            }
+            group = groups[index] - 1;
+            key = keys[index];
+            count = counts[index];
+            return true;
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean eof;
+
+        RunCursor(Path run) throws IOException {
+            channel = FileChannel.open(run, StandardOpenOption.READ);
+            buffer.flip();
+            group = -1;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (buffer.remaining() < MAX_RECORD && !eof) {
+                buffer.compact();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+            }
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            int previous = group;
+            group = (int) varint();
+            long delta = varint();
+            key = group == previous ? key + delta : delta;
+            count = varint();
+            return true;
+        }
+
+        private long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!buffer.hasRemaining()) {
+                    throw new IOException("Truncated run");
+                }
+                byte b = buffer.get();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in run");
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
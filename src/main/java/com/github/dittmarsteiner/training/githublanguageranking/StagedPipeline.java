@@ -0,0 +1,669 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+
+/**
+ * Counts one gzipped archive in explicit stages, each on its own threads:
+ *
+ * <pre>
+ * fetch → inflate → split → extract (n) → aggregate (m) → export
+ * </pre>
+ *
+ * Stages hand over reusable byte blocks through bounded queues, and every
+ * queue draws its blocks from a bounded pool; a slow stage therefore blocks
+ * its producers instead of letting data pile up. Fetch, inflate and split
+ * work on one sequential stream and run on one thread each; extract and
+ * aggregate scale by their thread count. Split packs whole lines into
+ * blocks, extract records the byte ranges of type and language per line
+ * and the actor and repository IDs,
+ * and aggregate interns and counts them into one histogram per thread,
+ * merged at the end. Export is left to the caller.
+ * <p>
+ * With {@link #withDedup(OffHeapLongSet)} extract also checks the event ID
+ * and marks an event seen before, which aggregate then skips. A failed run
+ * hands the IDs it claimed back, see {@link #rollback()}.
+ * <p>
+ * {@link #stages()} reports per stage its queue depth, the blocks
+ * processed, and the time busy and waiting on queues.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class StagedPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(StagedPipeline.class);
+
+    private static final Block END = new Block(0);
+    /** Per extracted line: type from, type to, language from, language to. */
+    private static final int FIELDS = 4;
+    /** Per extracted line: actor ID, repository ID. */
+    private static final int IDS = 2;
+    /** The type start of a line skipped as a duplicate. */
+    private static final int DUPLICATE = -2;
+
+    private final int extractThreads;
+    private final int aggregateThreads;
+    private final int blockSize;
+
+    private final Channel compressed;
+    private final Channel inflated;
+    private final Channel lines;
+    private final Channel extracted;
+
+    private final Stage fetch = new Stage("fetch", 1);
+    private final Stage inflate = new Stage("inflate", 1);
+    private final Stage split = new Stage("split", 1);
+    private final Stage extract;
+    private final Stage aggregate;
+
+    private final LongAdder malformed = new LongAdder();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private OffHeapLongSet ids;
+    private final List<Claimed> claimed = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param extractThreads the number of extract threads
+     * @param aggregateThreads the number of aggregate threads
+     * @param queueCapacity the blocks per queue, the pools hold twice as
+     *            many
+     * @param blockSize the initial size of a block, grown for longer lines
+     */
+    public StagedPipeline(int extractThreads, int aggregateThreads, int queueCapacity, int blockSize) {
+        if (extractThreads < 1 || aggregateThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Threads and capacity must be positive");
+        }
+        this.extractThreads = extractThreads;
+        this.aggregateThreads = aggregateThreads;
+        this.blockSize = blockSize;
+        int ends = Math.max(extractThreads, aggregateThreads);
+        compressed = new Channel(queueCapacity, ends, 2 * queueCapacity, blockSize);
+        inflated = new Channel(queueCapacity, ends, 2 * queueCapacity, blockSize);
+        lines = new Channel(queueCapacity, ends,
+                2 * queueCapacity + extractThreads + aggregateThreads, blockSize);
+        extracted = new Channel(queueCapacity, ends, 0, 0); // passes the blocks of lines on
+        extract = new Stage("extract", extractThreads);
+        aggregate = new Stage("aggregate", aggregateThreads);
+    }
+
+    /**
+     * @param ids the event IDs counted so far, {@code null} to count every
+     *            event
+     * @return this
+     */
+    public StagedPipeline withDedup(OffHeapLongSet ids) {
+        this.ids = ids;
+        return this;
+    }
+
+    /**
+     * Runs all stages until the archive is counted. One run per instance.
+     *
+     * @param gz the compressed archive, read to its end but not closed
+     * @return the histogram
+     * @throws IOException on read failure or corrupt data
+     */
+    public LanguageCounts run(InputStream gz) throws IOException {
+        start(fetch, () -> fetch(gz));
+        start(inflate, this::inflate);
+        start(split, this::split);
+        AtomicInteger extracting = new AtomicInteger(extractThreads);
+        for (int i = 0; i < extractThreads; i++) {
+            start(extract, () -> extract(extracting));
+        }
+        List<LanguageCounts> partials = new ArrayList<>();
+        for (int i = 0; i < aggregateThreads; i++) {
+            LanguageCounts counts = new LanguageCounts();
+            partials.add(counts);
+            start(aggregate, () -> aggregate(counts));
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while counting");
+        }
+        Throwable error = failure.get();
+        if (error != null) {
+            rollback();
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error != null) {
+            throw new IOException(error);
+        }
+
+        if (malformed.sum() > 0) {
+            log.warn("Skipped {} malformed lines", malformed.sum());
+        }
+        LanguageCounts counts = new LanguageCounts();
+        partials.forEach(counts::merge);
+        stages().forEach(stage -> log.debug("{}", stage));
+        return counts;
+    }
+
+    /**
+     * Hands the event IDs claimed by the run back to the shared set, so the
+     * archive can be counted again by a fresh pipeline. A run that fails
+     * does so itself; a caller rolls back a run that completed but whose
+     * input turned out to be corrupt afterwards.
+     */
+    public void rollback() {
+        for (Claimed claims : claimed) {
+            claims.rollback(ids);
+        }
+    }
+
+    /**
+     * @return a snapshot of every stage, in pipeline order
+     */
+    public List<StageStats> stages() {
+        return Arrays.asList(fetch.stats(null), inflate.stats(compressed), split.stats(inflated),
+                extract.stats(lines), aggregate.stats(extracted));
+    }
+
+    private void fetch(InputStream gz) throws IOException, InterruptedException {
+        while (true) {
+            Block block = fetch.take(compressed.free);
+            block.length = readFully(gz, block.data);
+            if (block.length <= 0) {
+                compressed.free.put(block);
+                break;
+            }
+            fetch.put(compressed.full, block);
+        }
+        fetch.put(compressed.full, END);
+    }
+
+    private void inflate() throws IOException, InterruptedException {
+        try (InputStream in = Metrics.metered(
+                new GZIPInputStream(new ChannelInputStream(compressed, inflate), blockSize),
+                Counter.BYTES_INFLATED, Counter.INFLATE_NANOS)) {
+            while (true) {
+                Block block = inflate.take(inflated.free);
+                block.length = readFully(in, block.data);
+                if (block.length <= 0) {
+                    inflated.free.put(block);
+                    break;
+                }
+                inflate.put(inflated.full, block);
+            }
+        }
+        inflate.put(inflated.full, END);
+    }
+
+    private void split() throws InterruptedException {
+        Block[] batch = { split.take(lines.free) };
+        LineSplitter splitter = new LineSplitter((buf, from, to) -> {
+            int len = to - from + 1;
+            Block block = batch[0];
+            if (block.length + len > block.data.length) {
+                if (block.length > 0) {
+                    split.putUninterruptibly(lines.full, block);
+                    block = split.takeUninterruptibly(lines.free);
+                    batch[0] = block;
+                }
+                if (len > block.data.length) {
+                    block.data = new byte[len];
+                }
+            }
+            System.arraycopy(buf, from, block.data, block.length, len - 1);
+            block.data[block.length + len - 1] = '\n';
+            block.length += len;
+        });
+        while (true) {
+            Block block = split.take(inflated.full);
+            if (block == END) {
+                break;
+            }
+            long waited = split.waitNanos.sum();
+            long start = System.nanoTime();
+            splitter.feed(block.data, 0, block.length); // may wait for free blocks
+            Metrics.time(Counter.SCAN_NANOS,
+                    System.nanoTime() - start - (split.waitNanos.sum() - waited));
+            inflated.free.put(block);
+        }
+        splitter.finish();
+        split.put(lines.full, batch[0]);
+        for (int i = 0; i < extractThreads; i++) {
+            split.put(lines.full, END);
+        }
+    }
+
+    private void extract(AtomicInteger extracting) throws InterruptedException {
+        Set<Field> wanted = EnumSet.of(Field.TYPE, Field.PULL_REQUEST_LANGUAGE, Field.FORK_LANGUAGE,
+                Field.ACTOR_ID, Field.REPO_ID);
+        if (ids != null) {
+            wanted.add(Field.ID);
+        }
+        EventScanner scanner = new EventScanner(wanted);
+        Claimed claims = new Claimed();
+        claimed.add(claims);
+        while (true) {
+            Block block = extract.take(lines.full);
+            if (block == END) {
+                break;
+            }
+            long start = System.nanoTime();
+            long matched = 0;
+            long withoutLanguage = 0;
+            long duplicates = 0;
+            block.records = 0;
+            byte[] data = block.data;
+            for (int from = 0; from < block.length;) {
+                int to = LineSplitter.indexOf(data, from, block.length);
+                int[] fields = block.fields(block.records + 1);
+                int at = block.records++ * FIELDS;
+                Arrays.fill(fields, at, at + FIELDS, -1);
+                boolean scanned = scanner.scan(data, from, to);
+                long id = scanned && ids != null ? scanner.number(Field.ID) : -1;
+                if (id >= 0 && !ids.add(id)) {
+                    fields[at] = DUPLICATE;
+                    duplicates++;
+                }
+                else if (scanned) {
+                    if (id >= 0) {
+                        claims.add(id);
+                    }
+                    if (scanner.has(Field.TYPE)) {
+                        fields[at] = scanner.start(Field.TYPE);
+                        fields[at + 1] = scanner.end(Field.TYPE);
+                    }
+                    Field language = scanner.language();
+                    if (language != null) {
+                        fields[at + 2] = scanner.start(language);
+                        fields[at + 3] = scanner.end(language);
+                        long[] actorsAndRepos = block.ids;
+                        actorsAndRepos[at / FIELDS * IDS] = scanner.number(Field.ACTOR_ID);
+                        actorsAndRepos[at / FIELDS * IDS + 1] = scanner.number(Field.REPO_ID);
+                        matched++;
+                    }
+                    else if (scanner.languageType()) {
+                        withoutLanguage++;
+                    }
+                }
+                else {
+                    malformed.increment();
+                }
+                from = to + 1;
+            }
+            Metrics.add(Counter.LINES, block.records);
+            Metrics.add(Counter.EVENTS_MATCHED, matched);
+            Metrics.add(Counter.EVENTS_WITHOUT_LANGUAGE, withoutLanguage);
+            Metrics.add(Counter.DUPLICATES, duplicates);
+            Metrics.time(Counter.SCAN_NANOS, System.nanoTime() - start);
+            extract.put(extracted.full, block);
+        }
+        if (extracting.decrementAndGet() == 0) {
+            for (int i = 0; i < aggregateThreads; i++) {
+                extract.put(extracted.full, END);
+            }
+        }
+    }
+
+    private void aggregate(LanguageCounts counts) throws InterruptedException {
+        while (true) {
+            Block block = aggregate.take(extracted.full);
+            if (block == END) {
+                break;
+            }
+            long start = System.nanoTime();
+            int[] fields = block.fields;
+            for (int at = 0; at < block.records * FIELDS; at += FIELDS) {
+                if (fields[at] == DUPLICATE) {
+                    continue;
+                }
+                int type = -1;
+                if (fields[at] >= 0) {
+                    type = counts.addEvent(block.data, fields[at], fields[at + 1]);
+                }
+                else {
+                    counts.addEvent();
+                }
+                if (fields[at + 2] >= 0) {
+                    int record = at / FIELDS * IDS;
+                    counts.add(type, block.data, fields[at + 2], fields[at + 3],
+                            block.ids[record], block.ids[record + 1]);
+                }
+            }
+            Metrics.time(Counter.SCAN_NANOS, System.nanoTime() - start);
+            block.length = 0;
+            lines.free.put(block);
+            aggregate.blocks.increment();
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private void start(Stage stage, Body body) {
+        Thread thread = new Thread(() -> {
+            stage.started();
+            try {
+                body.run();
+            }
+            catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    threads.forEach(Thread::interrupt);
+                }
+            }
+            finally {
+                stage.finished();
+            }
+        }, stage.name + '-' + stage.started.get());
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+        if (failure.get() != null) {
+            thread.interrupt(); // started after the others were stopped
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] data) throws IOException {
+        int length = 0;
+        int n;
+        while (length < data.length && (n = in.read(data, length, data.length - length)) >= 0) {
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * The event IDs one extract thread added to the shared set.
+     */
+    private static final class Claimed {
+
+        private long[] ids = new long[0];
+        private int count;
+
+        void add(long id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(1024, count * 2));
+            }
+            ids[count++] = id;
+        }
+
+        void rollback(OffHeapLongSet set) {
+            for (int i = 0; i < count; i++) {
+                set.remove(ids[i]);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * A reusable byte block, with the extracted fields of its lines.
+     */
+    private static final class Block {
+
+        byte[] data;
+        int length;
+        int[] fields = new int[0];
+        long[] ids = new long[0];
+        int records;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+
+        int[] fields(int records) {
+            if (records * FIELDS > fields.length) {
+                fields = Arrays.copyOf(fields, Math.max(fields.length * 2, records * FIELDS));
+                ids = Arrays.copyOf(ids, fields.length / FIELDS * IDS);
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * A bounded queue of full blocks and the bounded pool of free ones.
+     */
+    private static final class Channel {
+
+        final int capacity;
+        final BlockingQueue<Block> full;
+        final BlockingQueue<Block> free;
+
+        Channel(int capacity, int ends, int blocks, int blockSize) {
+            this.capacity = capacity;
+            full = new ArrayBlockingQueue<>(capacity + ends);
+            free = new ArrayBlockingQueue<>(Math.max(1, blocks));
+            for (int i = 0; i < blocks; i++) {
+                free.add(new Block(blockSize));
+            }
+        }
+    }
+
+    /**
+     * Reads the blocks of a channel as a stream, for the inflater.
+     */
+    private static final class ChannelInputStream extends InputStream {
+
+        private final Channel channel;
+        private final Stage stage;
+        private Block block;
+        private int pos;
+
+        ChannelInputStream(Channel channel, Stage stage) {
+            this.channel = channel;
+            this.stage = stage;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (block == END) {
+                return -1;
+            }
+            try {
+                while (block == null || pos == block.length) {
+                    if (block != null) {
+                        channel.free.put(block);
+                    }
+                    block = stage.take(channel.full);
+                    pos = 0;
+                    if (block == END) {
+                        return -1;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            int n = Math.min(len, block.length - pos);
+            System.arraycopy(block.data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Drains the channel up to its end, the inflater stops at the gzip
+         * trailer.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                while (block != END) {
+                    if (block != null) {
+                        channel.free.put(block);
+                    }
+                    block = stage.take(channel.full);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Live counters of one stage.
+     */
+    private static final class Stage {
+
+        final String name;
+        final int threads;
+        final AtomicInteger started = new AtomicInteger();
+        final LongAdder blocks = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder finishedNanos = new LongAdder();
+        final AtomicInteger running = new AtomicInteger();
+        volatile long startNanos;
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void started() {
+            if (started.getAndIncrement() == 0) {
+                startNanos = System.nanoTime();
+            }
+            running.incrementAndGet();
+        }
+
+        void finished() {
+            finishedNanos.add(System.nanoTime() - startNanos);
+            running.decrementAndGet();
+        }
+
+        Block take(BlockingQueue<Block> queue) throws InterruptedException {
+            long start = System.nanoTime();
+            Block block = queue.take();
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            Metrics.time(null, waited);
+            return block;
+        }
+
+        void put(BlockingQueue<Block> queue, Block block) throws InterruptedException {
+            long start = System.nanoTime();
+            queue.put(block);
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            Metrics.time(null, waited);
+            if (block != END) {
+                blocks.increment();
+            }
+        }
+
+        Block takeUninterruptibly(BlockingQueue<Block> queue) {
+            try {
+                return take(queue);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+
+        void putUninterruptibly(BlockingQueue<Block> queue, Block block) {
+            try {
+                put(queue, block);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+
+        StageStats stats(Channel input) {
+            long start = startNanos;
+            long running = start == 0 ? 0 : this.running.get() * (System.nanoTime() - start);
+            long wait = waitNanos.sum();
+            return new StageStats(name, threads,
+                    input == null ? 0 : input.full.size(), input == null ? 0 : input.capacity,
+                    blocks.sum(), Math.max(0, finishedNanos.sum() + running - wait), wait);
+        }
+    }
+
+    /**
+     * A snapshot of one stage.
+     */
+    public static final class StageStats {
+
+        /** The stage name, e.g. {@code inflate}. */
+        public final String name;
+        /** The number of threads. */
+        public final int threads;
+        /** The blocks waiting in the stage's input queue. */
+        public final int queueDepth;
+        /** The capacity of the stage's input queue. */
+        public final int queueCapacity;
+        /** The blocks processed, as handed on to the next stage. */
+        public final long blocks;
+        /** The time spent working, summed over the threads. */
+        public final long busyNanos;
+        /** The time spent waiting on queues, summed over the threads. */
+        public final long waitNanos;
+
+        StageStats(String name, int threads, int queueDepth, int queueCapacity, long blocks,
+                long busyNanos, long waitNanos) {
+            this.name = name;
+            this.threads = threads;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.blocks = blocks;
+            this.busyNanos = busyNanos;
+            this.waitNanos = waitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s x%d queue %d/%d, %d blocks, busy %d ms, waiting %d ms", name,
+                    threads, queueDepth, queueCapacity, blocks, busyNanos / 1_000_000,
+                    waitNanos / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ArchiveCacheTest {
+
+    private static final String HOUR = "/2016-03-14-15.json.gz";
+    private static final Map<String, Long> SAMPLE_COUNTS =
+            Map.of("JavaScript", 2L, "Java", 2L, "Python", 1L, "C#", 1L);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hitSkipsNetwork() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            ArchiveCache cache = new ArchiveCache(dir, 1 << 20, Duration.ofDays(1));
+            URL url = server.url(HOUR);
+
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+
+            assertEquals(1, server.requests());
+            assertEquals(1, cache.misses());
+            assertEquals(1, cache.hits());
+            assertTrue(Files.exists(dir.resolve("2016-03-14-15.json.gz")));
+        }
+    }
+
+    @Test
+    void revalidates() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            ArchiveCache cache = new ArchiveCache(dir, 1 << 20, Duration.ZERO);
+            URL url = server.url(HOUR);
+
+            Fixtures.fetch(url, cache);
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+            assertEquals(1, cache.revalidated());
+
+            // changed at the origin: new ETag, downloaded again
+            server.serve(HOUR, Fixtures.gzip(Fixtures.repeat(Fixtures.sample(), 2)));
+            assertEquals(4, Fixtures.fetch(url, cache).get("Java"));
+            assertEquals(2, cache.misses());
+            assertEquals(4, Fixtures.fetch(url, cache).get("Java"));
+            assertEquals(2, cache.revalidated());
+            assertEquals(4, server.requests());
+        }
+    }
+
+    @Test
+    void dropsHitWithWrongChecksum() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            ArchiveCache cache = new ArchiveCache(dir, 1 << 20, Duration.ofDays(1));
+            URL url = server.url(HOUR);
+            Fixtures.fetch(url, cache);
+
+            // the modification time of the gzip header, not covered by its CRC
+            Path cached = dir.resolve("2016-03-14-15.json.gz");
+            byte[] gz = Files.readAllBytes(cached);
+            gz[4] ^= 1;
+            Files.write(cached, gz);
+
+            assertThrows(IOException.class, () -> Fixtures.fetch(url, cache));
+            assertFalse(Files.exists(cached));
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+            assertEquals(2, cache.misses());
+        }
+    }
+
+    @Test
+    void wrongChecksumCommitsNothing() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            ArchiveCache cache = new ArchiveCache(dir, 1 << 20, Duration.ofDays(1));
+            Fixtures.fetch(server.url(HOUR), cache);
+            Path cached = dir.resolve("2016-03-14-15.json.gz");
+            byte[] gz = Files.readAllBytes(cached);
+            gz[4] ^= 1;
+            Files.write(cached, gz);
+
+            OffHeapLongSet ids = new OffHeapLongSet(16);
+            LanguageCounts counts;
+            Map<String, Long> languages;
+            try (LanguagePairs pairs = new LanguagePairs(true, false, 1 << 20,
+                    Files.createDirectories(dir.resolve("pairs")))) {
+                counts = new ArchiveScheduler(server.url("/"), 1, 2, 1)
+                        .withCache(cache).withDedup(ids).withPairs(pairs)
+                        .count(HourRange.parse("2016-03-14-15", "2016-03-14-15"));
+                languages = counts.toMap();
+                pairs.writeRepos(dir.resolve("repos.csv"));
+            }
+
+            // the retry downloads again and counts every event once
+            assertEquals(SAMPLE_COUNTS, languages);
+            assertEquals(11, counts.events());
+            assertEquals(11, ids.size());
+            assertEquals(List.of(LanguagePairs.REPOS_HEADER, "C#,2009,1", "Java,2006,1",
+                    "Java,2011,1", "JavaScript,2002,1", "JavaScript,2008,1", "Python,2003,1"),
+                    Files.readAllLines(dir.resolve("repos.csv")));
+            assertEquals(2, cache.misses());
+        }
+    }
+
+    @Test
+    void servesStaleWhenRevalidationFails() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            ArchiveCache cache = new ArchiveCache(dir, 1 << 20, Duration.ZERO);
+            URL url = server.url(HOUR);
+
+            Fixtures.fetch(url, cache);
+            server.fail(HOUR, 1);
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+
+            assertEquals(1, cache.stale());
+            assertEquals(0, cache.revalidated());
+            assertTrue(Files.exists(dir.resolve("2016-03-14-15.json.gz")));
+            assertEquals(SAMPLE_COUNTS, Fixtures.fetch(url, cache).toMap());
+            assertEquals(1, cache.revalidated());
+            assertEquals(3, server.requests());
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException, InterruptedException {
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        try (ArchiveServerStub server = new ArchiveServerStub()) {
+            ArchiveCache cache = new ArchiveCache(dir, 2 * gz.length, Duration.ofDays(1));
+            for (int hour = 0; hour < 3; hour++) {
+                server.serve("/2016-03-14-" + hour + ".json.gz", gz);
+                Fixtures.fetch(server.url("/2016-03-14-" + hour + ".json.gz"), cache);
+                Thread.sleep(5); // distinct access times
+            }
+
+            assertFalse(Files.exists(dir.resolve("2016-03-14-0.json.gz")));
+            assertTrue(Files.exists(dir.resolve("2016-03-14-1.json.gz")));
+            assertTrue(Files.exists(dir.resolve("2016-03-14-2.json.gz")));
+        }
+    }
+}
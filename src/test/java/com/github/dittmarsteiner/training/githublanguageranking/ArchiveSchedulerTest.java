@@ -0,0 +1,110 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ArchiveSchedulerTest {
+
+    private static final HourRange TWO_DAYS = HourRange.parse("2016-03-14-00", "2016-03-15-23");
+
+    @Test
+    void hours() {
+        assertEquals(48, TWO_DAYS.size());
+        assertEquals(48, TWO_DAYS.hours().size());
+        assertEquals("2016-03-14-0.json.gz", HourRange.fileName(TWO_DAYS.hours().get(0)));
+        assertEquals("2016-03-15-23.json.gz", HourRange.fileName(TWO_DAYS.hours().get(47)));
+        assertEquals(LocalDateTime.of(2016, 3, 14, 15, 0), HourRange.parseHour("2016-03-14-15"));
+    }
+
+    @Test
+    void rangeWithRetriesAndGaps() throws IOException {
+        try (ArchiveServerStub server = serve(TWO_DAYS)) {
+            server.remove("/2016-03-15-7.json.gz");
+            server.fail("/2016-03-14-3.json.gz", 2);
+            ArchiveScheduler scheduler = new ArchiveScheduler(server.url("/"), 4, 3, 1);
+
+            List<LocalDateTime> counted = new ArrayList<>();
+            LanguageCounts counts = scheduler.count(TWO_DAYS, counted);
+
+            assertEquals(47 * 11, counts.events());
+            assertEquals(47 * 2, counts.get("Java"));
+            assertEquals(1, scheduler.missing());
+            assertEquals(47, counted.size());
+            assertFalse(counted.contains(HourRange.parseHour("2016-03-15-07")));
+            assertTrue(server.maxConcurrent() <= 4, server.maxConcurrent() + " in flight");
+        }
+    }
+
+    @Test
+    void givesUp() throws IOException {
+        HourRange hour = HourRange.parse("2016-03-14-15", "2016-03-14-15");
+        try (ArchiveServerStub server = serve(hour)) {
+            server.fail("/2016-03-14-15.json.gz", 3);
+            ArchiveScheduler scheduler = new ArchiveScheduler(server.url("/"), 4, 3, 1);
+
+            assertThrows(IOException.class, () -> scheduler.count(hour));
+            assertEquals(3, server.requests());
+        }
+    }
+
+    @Test
+    void dedupRetryCountsAbortedEventsAgain() throws IOException {
+        HourRange hour = HourRange.parse("2016-03-14-15", "2016-03-14-15");
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        LanguageCounts expected = new EventGenerator(42).write(json, 20_000, hour.hours().get(0));
+        try (ArchiveServerStub server = new ArchiveServerStub()) {
+            server.serve("/2016-03-14-15.json.gz", Fixtures.gzip(json.toByteArray()));
+            server.truncate("/2016-03-14-15.json.gz", 1);
+            OffHeapLongSet ids = new OffHeapLongSet(20_000);
+            ArchiveScheduler scheduler = new ArchiveScheduler(server.url("/"), 4, 3, 1)
+                    .withDedup(ids);
+
+            LanguageCounts counts = scheduler.count(hour);
+
+            assertEquals(2, server.requests());
+            assertEquals(20_000, ids.size());
+            assertEquals(expected.events(), counts.events());
+            assertEquals(expected.toMap(), counts.toMap());
+        }
+    }
+
+    static ArchiveServerStub serve(HourRange range) throws IOException {
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        ArchiveServerStub server = new ArchiveServerStub();
+        for (LocalDateTime hour : range.hours()) {
+            server.serve("/" + HourRange.fileName(hour), gz);
+        }
+        return server;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for data.githubarchive.org serving fixed bodies on an
+ * ephemeral port, with an {@code ETag} honouring {@code If-None-Match}.
+ * Unknown paths answer 404.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class ArchiveServerStub implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> truncations = new ConcurrentHashMap<>();
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    ArchiveServerStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            String path = exchange.getRequestURI().getPath();
+            if (held.contains(path)) {
+                try {
+                    released.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = bodies.get(path);
+            AtomicInteger failing = failures.get(path);
+            if (failing != null && failing.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(503, -1);
+            }
+            else if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            else if (etag(body).equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            }
+            else {
+                exchange.getResponseHeaders().set("ETag", etag(body));
+                // chunked, like a slow origin that does not announce a length
+                exchange.sendResponseHeaders(200, 0);
+                AtomicInteger truncating = truncations.get(path);
+                int length = truncating != null && truncating.getAndDecrement() > 0
+                        ? body.length / 2
+                        : body.length;
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (int i = 0; i < length; i += 1024) {
+                        out.write(body, i, Math.min(1024, length - i));
+                        out.flush();
+                    }
+                }
+            }
+            concurrent.decrementAndGet();
+            exchange.close();
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    ArchiveServerStub serve(String path, byte[] body) {
+        bodies.put(path, body);
+        return this;
+    }
+
+    ArchiveServerStub remove(String path) {
+        bodies.remove(path);
+        return this;
+    }
+
+    /**
+     * Answers the next {@code times} requests for {@code path} with 503.
+     */
+    ArchiveServerStub fail(String path, int times) {
+        failures.put(path, new AtomicInteger(times));
+        return this;
+    }
+
+    /**
+     * Answers the next {@code times} requests for {@code path} with the
+     * first half of the body only.
+     */
+    ArchiveServerStub truncate(String path, int times) {
+        truncations.put(path, new AtomicInteger(times));
+        return this;
+    }
+
+    /**
+     * Answers no request for {@code path} until closed.
+     */
+    ArchiveServerStub hold(String path) {
+        held.add(path);
+        return this;
+    }
+
+    URL url(String path) throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    int maxConcurrent() {
+        return maxConcurrent.get();
+    }
+
+    static String etag(byte[] body) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+    }
+
+    @Override
+    public void close() {
+        released.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ByteSearchTest {
+
+    private final ByteSearch scalar = new ByteSearch.Scalar();
+
+    @Test
+    void bestIsVectorIfAvailable() {
+        ByteSearch vector = ByteSearch.vector();
+        assertEquals(vector == null ? "scalar" : vector.toString(), ByteSearch.best().toString());
+    }
+
+    @Test
+    void vectorAgreesWithScalar() {
+        ByteSearch vector = ByteSearch.vector();
+        assumeTrue(vector != null, "no vector search");
+        Random random = new Random(42);
+        byte[] alphabet = "abc{}:,\n\"\\".getBytes(StandardCharsets.US_ASCII);
+        for (int density : new int[] { 2, 20, 200, 2000 }) {
+            byte[] buf = new byte[4096];
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = random.nextInt(density) == 0
+                        ? alphabet[7 + random.nextInt(3)]
+                        : alphabet[random.nextInt(7)];
+            }
+            for (int from = 0; from < 130; from++) {
+                for (int to = from; to < buf.length; to += 1 + random.nextInt(67)) {
+                    assertEquals(scalar.indexOfNewline(buf, from, to),
+                            vector.indexOfNewline(buf, from, to), from + ".." + to);
+                    assertEquals(scalar.indexOfQuoteOrBackslash(buf, from, to),
+                            vector.indexOfQuoteOrBackslash(buf, from, to), from + ".." + to);
+                }
+            }
+        }
+    }
+
+    @Test
+    void escapesAcrossVectors() {
+        char[] text = new char[300];
+        Arrays.fill(text, 'x');
+        text[63] = '\\';
+        text[64] = '"';
+        text[127] = '\\';
+        text[128] = '\\';
+        String line = "{\"payload\":{\"forkee\":{\"description\":\"" + new String(text)
+                + "\",\"language\":\"Go\"}},\"type\":\"ForkEvent\"}";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        EventScanner scanner = new EventScanner();
+
+        assertTrue(scanner.scan(bytes, 0, bytes.length));
+        assertEquals("Go", scanner.string(scanner.language()));
+        assertEquals("ForkEvent", scanner.string(Field.TYPE));
+    }
+}
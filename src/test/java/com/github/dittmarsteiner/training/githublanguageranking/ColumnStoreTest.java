@@ -0,0 +1,193 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.dittmarsteiner.training.githublanguageranking.ColumnStore.Column;
+import com.github.dittmarsteiner.training.githublanguageranking.ColumnStore.Selection;
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ColumnStoreTest {
+
+    private static final LocalDateTime HOUR = LocalDateTime.of(2016, 3, 14, 15, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void scanOfAllEqualsCount() throws IOException {
+        byte[] json = generate(20_000);
+        ColumnStore.Rows rows = new ColumnStore.Rows();
+        LanguageCounts counted = LanguageRanking.count(new ByteArrayInputStream(json),
+                new EventCounter().withColumns(rows));
+        byte[] table = ColumnStore.encode(rows, counted.types(), counted.dictionary());
+
+        LanguageCounts scanned = ColumnStore.scan(ByteBuffer.wrap(table), new Selection());
+
+        assertEquals(20_001, rows.size());
+        assertArrayEquals(SegmentStore.encode(counted), SegmentStore.encode(scanned));
+        assertTrue(table.length * 20 < json.length, table.length + " of " + json.length + " bytes");
+    }
+
+    @Test
+    void selection() throws IOException {
+        byte[] json = generate(20_000);
+        ColumnStore.Rows rows = new ColumnStore.Rows();
+        LanguageCounts counted = LanguageRanking.count(new ByteArrayInputStream(json),
+                new EventCounter().withColumns(rows));
+        ByteBuffer table = ByteBuffer.wrap(ColumnStore.encode(rows, counted.types(),
+                counted.dictionary()));
+        List<String> types = List.of("PullRequestEvent", "ForkEvent");
+
+        LanguageCounts ofTypes = ColumnStore.scan(table,
+                new Selection().withTypes(types).withSketches(false));
+        assertEquals(counted.ofTypes(types).toMap(), ofTypes.toMap());
+        assertEquals(counted.ofTypes(types).events(), ofTypes.events());
+        assertFalse(ofTypes.hasDistinct());
+
+        long bot = busiestActor(json);
+        Selection selection = new Selection().withTypes(types)
+                .withTimeOfDay(LocalTime.of(15, 10), LocalTime.of(15, 40))
+                .withoutActors(bot, 1);
+        LanguageCounts selected = ColumnStore.scan(table, selection);
+        Map<String, Long> expected = new HashMap<>();
+        long[] events = new long[1];
+        EventScanner scanner = new EventScanner();
+        new LineSplitter((buf, from, to) -> {
+            if (!scanner.scan(buf, from, to) || !types.contains(scanner.string(Field.TYPE))) {
+                return;
+            }
+            long second = scanner.epochSecond(Field.CREATED_AT) % 86_400;
+            long actor = scanner.number(Field.ACTOR_ID);
+            if (second < 15 * 3600 + 600 || second >= 15 * 3600 + 2400 || actor == bot || actor == 1) {
+                return;
+            }
+            events[0]++;
+            Field language = scanner.language();
+            if (language != null) {
+                expected.merge(scanner.string(language), 1L, Long::sum);
+            }
+        }).feed(json, 0, json.length);
+
+        assertEquals(expected, selected.toMap());
+        assertEquals(events[0], selected.events());
+        assertTrue(selected.hasDistinct());
+        assertEquals(EnumSet.allOf(Column.class), selection.columns());
+        assertEquals(EnumSet.of(Column.TYPE, Column.LANGUAGE),
+                new Selection().withSketches(false).columns());
+    }
+
+    @Test
+    void timeOfDaySpanningMidnight() throws IOException {
+        ColumnStore.Rows rows = new ColumnStore.Rows();
+        LanguageCounts counted = LanguageRanking.count(new ByteArrayInputStream(
+                ("{\"type\":\"ForkEvent\",\"payload\":{\"forkee\":{\"language\":\"Go\"}},"
+                        + "\"created_at\":\"2016-03-14T23:30:00Z\"}\n"
+                        + "{\"type\":\"ForkEvent\",\"payload\":{\"forkee\":{\"language\":\"C\"}},"
+                        + "\"created_at\":\"2016-03-15T00:30:00Z\"}\n"
+                        + "{\"type\":\"ForkEvent\",\"payload\":{\"forkee\":{\"language\":\"C\"}},"
+                        + "\"created_at\":\"2016-03-15T12:00:00Z\"}\n"
+                        + "{\"type\":\"ForkEvent\",\"payload\":{\"forkee\":{\"language\":\"Go\"}}}\n")
+                        .getBytes(StandardCharsets.UTF_8)),
+                new EventCounter().withColumns(rows));
+        ByteBuffer table = ByteBuffer.wrap(ColumnStore.encode(rows, counted.types(),
+                counted.dictionary()));
+
+        LanguageCounts night = ColumnStore.scan(table,
+                new Selection().withTimeOfDay(LocalTime.of(23, 0), LocalTime.of(1, 0)));
+
+        assertEquals(Map.of("Go", 1L, "C", 1L), night.toMap());
+        assertEquals(2, night.events());
+    }
+
+    @Test
+    void schedulerExtractsOnceAndCorruptTableIsRebuilt() throws IOException {
+        HourRange range = HourRange.parse("2016-03-14-14", "2016-03-14-15");
+        try (ArchiveServerStub server = ArchiveSchedulerTest.serve(range)) {
+            ColumnStore columns = new ColumnStore(dir);
+            LanguageCounts all = new ArchiveScheduler(server.url("/"), 2, 1, 1)
+                    .withColumns(columns, new Selection()).count(range);
+            assertEquals(2, server.requests());
+
+            LanguageCounts pullRequests = new ArchiveScheduler(server.url("/"), 2, 1, 1)
+                    .withColumns(columns, new Selection().withTypes(List.of("PullRequestEvent")))
+                    .count(range);
+            assertEquals(2, server.requests());
+            assertEquals(all.ofTypes(List.of("PullRequestEvent")).toMap(), pullRequests.toMap());
+            assertEquals(Map.of("JavaScript", 4L, "Java", 2L), pullRequests.toMap());
+
+            Path file = columns.path(HOUR);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 9] ^= 1; // in the last column, CREATED
+            Files.write(file, bytes);
+            assertNotNull(columns.read(HOUR, new Selection())); // not read
+            assertNull(columns.read(HOUR,
+                    new Selection().withTimeOfDay(LocalTime.of(15, 0), LocalTime.of(16, 0))));
+            assertFalse(Files.exists(file));
+            new ArchiveScheduler(server.url("/"), 2, 1, 1)
+                    .withColumns(columns, new Selection()).count(range);
+            assertEquals(3, server.requests());
+            assertTrue(Files.exists(file));
+        }
+    }
+
+    private static byte[] generate(int events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(events * 1024);
+        new EventGenerator(42).write(out, events, HOUR);
+        out.write("not an event\n".getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    private static long busiestActor(byte[] json) {
+        Map<Long, Integer> activities = new HashMap<>();
+        EventScanner scanner = new EventScanner();
+        new LineSplitter((buf, from, to) -> {
+            if (scanner.scan(buf, from, to) && scanner.language() != null) {
+                activities.merge(scanner.number(Field.ACTOR_ID), 1, Integer::sum);
+            }
+        }).feed(json, 0, json.length);
+        return activities.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class CsvEncoderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hundredths() {
+        assertEquals(3333, CsvEncoder.hundredths(1, 3));
+        assertEquals(6667, CsvEncoder.hundredths(2, 3));
+        assertEquals(1250, CsvEncoder.hundredths(1, 8));
+        assertEquals(10000, CsvEncoder.hundredths(7, 7));
+        assertEquals(1, CsvEncoder.hundredths(1, 20_000)); // 0.005 % half up
+        assertEquals(0, CsvEncoder.hundredths(1, 20_001));
+        assertEquals(5000, CsvEncoder.hundredths(Long.MAX_VALUE / 2, Long.MAX_VALUE - 1));
+        assertEquals(0, CsvEncoder.hundredths(0, 0));
+    }
+
+    @Test
+    void quotedAndUtf8Encoded() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        String[] names = { "emoji \uD83D\uDE00", "日本語", "say \"hi\"", "a,b", "Java", "unpaired \uD800" };
+        for (int i = 0; i < names.length; i++) {
+            for (int n = 0; n <= i; n++) {
+                counts.add(names[i]);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvEncoder().write(Ranking.all(counts, Method.ORDINAL), out);
+
+        assertEquals("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n"
+                + "1,unpaired ?,6,28.57 %\n"
+                + "2,Java,5,23.81 %\n"
+                + "3,\"a,b\",4,19.05 %\n"
+                + "4,\"say \"\"hi\"\"\",3,14.29 %\n"
+                + "5,日本語,2,9.52 %\n"
+                + "6,emoji \uD83D\uDE00,1,4.76 %\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void lineBreaksQuoted() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        counts.add("two\nlines");
+        counts.add("carriage\rreturn");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvEncoder().write(Ranking.all(counts, Method.ORDINAL), out);
+
+        assertEquals("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n"
+                + "1,\"carriage\rreturn\",1,50.00 %\n"
+                + "2,\"two\nlines\",1,50.00 %\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("\"two\nlines\"", CsvExport.escape("two\nlines"));
+        assertEquals("\"carriage\rreturn\"", CsvExport.escape("carriage\rreturn"));
+        assertEquals("Java", CsvExport.escape("Java"));
+    }
+
+    @Test
+    void smallBufferWritesTheSameBytes() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        SplittableRandom random = new SplittableRandom(3);
+        String[] names = { "Java", "C#", "Emacs Lisp", "Ren'Py", "a,b", "say \"hi\"", "Ñandú",
+                "日本語", "emoji 😀", "unpaired \uD800" };
+        for (int i = 0; i < 5_000; i++) {
+            counts.add(names[random.nextInt(names.length)] + random.nextInt(30));
+        }
+        Ranking ranking = Ranking.all(counts, Method.ORDINAL);
+        ByteArrayOutputStream large = new ByteArrayOutputStream();
+        new CsvEncoder().write(ranking, large);
+
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        new CsvEncoder(256).write(ranking, small);
+
+        assertTrue(large.size() > 256 * 10);
+        assertArrayEquals(large.toByteArray(), small.toByteArray());
+    }
+
+    @Test
+    void distinctColumns() throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new EventGenerator(7).write(json, 20_000, EventGeneratorTest.HOUR);
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(json.toByteArray()));
+        counts.add("Unknown"); // no actor, no repository
+        Ranking ranking = Ranking.all(counts, Method.ORDINAL);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvEncoder(256).withDistinct(true).write(ranking, out);
+
+        String csv = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(ranking.size() + 1, csv.split("\n").length);
+        assertTrue(csv.startsWith("RANK,LANGUAGE,ACTIVITIES,PROPORTION,DISTINCT_ACTORS,DISTINCT_REPOS\n"));
+        assertTrue(csv.contains(",Unknown,1,0.05 %,,\n"), csv);
+        for (int row = 0; row < ranking.size() - 1; row++) {
+            assertTrue(ranking.distinctActors(row) <= ranking.activities(row) * 1.05 + 1);
+        }
+    }
+
+    @Test
+    void channel() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        counts.add("Java");
+        counts.add("JavaScript");
+        counts.add("JavaScript");
+        counts.add("C#");
+        Path csv = dir.resolve("ranking.csv");
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            new CsvEncoder().write(Ranking.all(counts, Method.COMPETITION), channel);
+        }
+
+        assertEquals("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n"
+                + "1,JavaScript,2,50.00 %\n"
+                + "2,C#,1,25.00 %\n"
+                + "2,Java,1,25.00 %\n", Files.readString(csv));
+    }
+
+    @Test
+    void allocatesNothing() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        for (int i = 0; i < 300; i++) {
+            counts.add(new byte[] { 'L', (byte) ('a' + i % 26), (byte) ('a' + i / 26) }, 0, 3, i + 1);
+        }
+        Ranking ranking = Ranking.all(counts, Method.DENSE);
+        CsvEncoder encoder = new CsvEncoder(4096);
+        OutputStream nowhere = OutputStream.nullOutputStream();
+        for (int i = 0; i < 1_000; i++) {
+            encoder.write(ranking, nowhere); // warm up
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1_000; i++) {
+            encoder.write(ranking, nowhere);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // 300,000 rows, anything per row would be megabytes
+        assertTrue(allocated < 64 * 1_000, allocated + " bytes allocated");
+    }
+}
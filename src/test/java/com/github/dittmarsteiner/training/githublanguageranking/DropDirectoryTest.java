@@ -0,0 +1,125 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class DropDirectoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesWithoutCountingTwice() throws IOException {
+        Path drop = Files.createDirectory(dir.resolve("drop"));
+        Path csv = dir.resolve("ranking.csv");
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        Files.write(drop.resolve("2016-03-14-15.json.gz"), gz);
+        Files.write(drop.resolve("2016-03-14-16.json.gz"), gz);
+        Files.write(drop.resolve("notes.txt"), new byte[] { 1 });
+
+        DropDirectory first = new DropDirectory(drop, csv, 2);
+        assertEquals(2, first.poll());
+        assertEquals(0, first.poll());
+        assertEquals(22, first.counts().events());
+
+        // a restart picks up the state and only the new hour
+        Files.write(drop.resolve("2016-03-14-17.json.gz"), gz);
+        DropDirectory second = new DropDirectory(drop, csv, 2);
+        assertEquals(Set.of("2016-03-14-15.json.gz", "2016-03-14-16.json.gz"), second.processed());
+        assertEquals(1, second.poll());
+        assertEquals(33, second.counts().events());
+
+        LanguageCounts expected = Fixtures.count(new ByteArrayInputStream(
+                Fixtures.repeat(Fixtures.sample(), 3)));
+        assertEquals(expected.toMap(), second.counts().toMap());
+        StringBuilder ranking = new StringBuilder();
+        CsvExport.write(Ranking.all(expected, Method.ORDINAL), ranking);
+        assertEquals(ranking.toString(), Files.readString(csv));
+    }
+
+    @Test
+    void truncatedFileIsRetried() throws IOException {
+        Path csv = dir.resolve("ranking.csv");
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        Path hour = dir.resolve("2016-03-14-15.json.gz");
+        Files.write(hour, Arrays.copyOf(gz, gz.length / 2));
+
+        DropDirectory drop = new DropDirectory(dir, csv, 1);
+        assertEquals(0, drop.poll());
+        assertTrue(drop.processed().isEmpty());
+
+        Files.write(hour, gz);
+        assertEquals(1, drop.poll());
+        assertEquals(11, drop.counts().events());
+    }
+
+    @Test
+    void watchRewritesTheCsv() throws Exception {
+        Path drop = Files.createDirectory(dir.resolve("drop"));
+        Path csv = dir.resolve("ranking.csv");
+        DropDirectory watcher = new DropDirectory(drop, csv, 1)
+                .withRanking(counts -> Ranking.top(counts, 1, Method.ORDINAL));
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch();
+            }
+            catch (InterruptedException e) {
+                // stopped
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            // dropped complete: written elsewhere, then moved in
+            Path temp = Files.write(dir.resolve("download.tmp"), Fixtures.gzip(Fixtures.sample()));
+            Files.move(temp, drop.resolve("2016-03-14-15.json.gz"), StandardCopyOption.ATOMIC_MOVE);
+
+            String expected = "RANK,LANGUAGE,ACTIVITIES,PROPORTION\n1,Java,2,33.33 %\n";
+            for (int i = 0; i < 200 && !(Files.exists(csv) && Files.readString(csv).equals(expected)); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(expected, Files.readString(csv));
+            assertTrue(Files.exists(drop.resolve(DropDirectory.STATE)));
+        }
+        finally {
+            thread.interrupt();
+            thread.join(5000);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class EventGeneratorTest {
+
+    static final LocalDateTime HOUR = LocalDateTime.of(2016, 3, 14, 15, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void deterministic() throws IOException {
+        assertArrayEquals(generate(7, 2000), generate(7, 2000));
+    }
+
+    @Test
+    void countsAsExpected() throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        LanguageCounts expected = new EventGenerator(42).write(json, 50_000, HOUR);
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(json.toByteArray()));
+
+        assertEquals(expected.toMap(), counts.toMap());
+        assertEquals(50_000, counts.events());
+        assertEquals(expected.eventsOf("PushEvent"), counts.eventsOf("PushEvent"));
+        assertTrue(counts.eventsOf("PushEvent") > counts.eventsOf("PullRequestEvent"));
+        assertTrue(counts.get("JavaScript") > counts.get("Language-200"));
+        assertTrue(counts.size() > 100);
+    }
+
+    @Test
+    void gzippedFile() throws IOException {
+        Path file = dir.resolve(HourRange.fileName(HOUR));
+        LanguageCounts expected = new EventGenerator(42).write(file, 20_000, HOUR);
+
+        assertEquals(expected.toMap(), LanguageRanking.count(file, 2, null, null).toMap());
+    }
+
+    private static byte[] generate(long seed, int events) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new EventGenerator(seed).write(json, events, HOUR);
+        return json.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.EventScanner.Field;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class EventScannerTest {
+
+    private final EventScanner scanner = new EventScanner();
+
+    @Test
+    void sample() {
+        List<String> types = new ArrayList<>();
+        List<String> languages = new ArrayList<>();
+        new LineSplitter((buf, from, to) -> {
+            assertTrue(scanner.scan(buf, from, to));
+            types.add(scanner.string(Field.TYPE));
+            Field language = scanner.language();
+            languages.add(language == null ? null : scanner.string(language));
+        }).feed(Fixtures.sample(), 0, Fixtures.sample().length);
+
+        assertEquals(List.of("PushEvent", "PullRequestEvent", "ForkEvent", "WatchEvent",
+                "PullRequestEvent", "PullRequestReviewCommentEvent", "IssuesEvent",
+                "PullRequestEvent", "ForkEvent", "CreateEvent", "PullRequestEvent"), types);
+        // head repositories and look-alikes inside strings are ignored
+        assertEquals(Arrays.asList(null, "JavaScript", "Python", null, null, "Java",
+                null, "JavaScript", "C#", null, "Java"), languages);
+    }
+
+    @Test
+    void whitespaceEscapesAndNull() {
+        assertTrue(scan("{ \"type\" : \"Push\\\"Event\" , \"payload\" : { \"forkee\" : "
+                + "{ \"language\" : \"Emacs\\u0020Lisp\" } } }"));
+        assertEquals("Push\"Event", scanner.string(Field.TYPE));
+        assertEquals("Emacs Lisp", scanner.string(scanner.language()));
+
+        assertTrue(scan("{\"type\":null,\"payload\":{\"forkee\":{\"language\":null}}}"));
+        assertFalse(scanner.has(Field.TYPE));
+        assertNull(scanner.language());
+    }
+
+    @Test
+    void malformed() {
+        assertFalse(scan(""));
+        assertFalse(scan("[]"));
+        assertFalse(scan("{\"type\":\"PushEvent\""));
+        assertFalse(scan("{\"type\":\"PushEvent}"));
+        assertFalse(scan("{\"payload\":{\"x\":[1,2}"));
+    }
+
+    @Test
+    void number() {
+        assertTrue(scan("{\"id\":\"3763000001\"}"));
+        assertEquals(3763000001L, scanner.number(Field.ID));
+        assertTrue(scan("{\"id\":42}"));
+        assertEquals(42, scanner.number(Field.ID));
+        assertTrue(scan("{\"id\":\"x1\"}"));
+        assertEquals(-1, scanner.number(Field.ID));
+        assertTrue(scan("{\"id\":\"1234567890123456789\"}"));
+        assertEquals(-1, scanner.number(Field.ID));
+        assertTrue(scan("{\"type\":\"PushEvent\"}"));
+        assertEquals(-1, scanner.number(Field.ID));
+    }
+
+    @Test
+    void epochSecond() {
+        for (String timestamp : new String[] { "1970-01-01T00:00:00Z", "2016-02-29T23:59:59Z",
+                "2016-03-14T15:04:05Z", "2000-03-01T00:00:00Z", "2099-12-31T12:30:00Z" }) {
+            assertTrue(scan("{\"created_at\":\"" + timestamp + "\"}"));
+            assertEquals(Instant.parse(timestamp).getEpochSecond(),
+                    scanner.epochSecond(Field.CREATED_AT), timestamp);
+        }
+        assertTrue(scan("{\"created_at\":\"2016-03-14T15:04:05.250Z\"}"));
+        assertEquals(1457967845, scanner.epochSecond(Field.CREATED_AT));
+        for (String invalid : new String[] { "\"2016-03-14 15:04:05Z\"", "\"2016-13-14T15:04:05Z\"",
+                "\"2016-03-14T15:04:05+01:00\"", "\"yesterday\"", "null", "1457967845" }) {
+            assertTrue(scan("{\"created_at\":" + invalid + "}"));
+            assertEquals(Long.MIN_VALUE, scanner.epochSecond(Field.CREATED_AT), invalid);
+        }
+    }
+
+    @Test
+    void countingAllocatesNothing() {
+        byte[] sample = Fixtures.sample();
+        EventCounter counter = new EventCounter();
+        LineSplitter splitter = new LineSplitter(counter);
+        for (int i = 0; i < 20_000; i++) {
+            splitter.feed(sample, 0, sample.length);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10_000; i++) {
+            splitter.feed(sample, 0, sample.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(30_000 * 6, counter.counts().total());
+        // 110,000 events, anything per event would be megabytes
+        assertTrue(allocated < 1024, allocated + " bytes allocated");
+    }
+
+    private boolean scan(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return scanner.scan(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Test fixtures.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class Fixtures {
+
+    /** Eleven events, six of them with a base repository language. */
+    static final String SAMPLE = "/2016-03-14-15-sample.json";
+
+    private Fixtures() {
+    }
+
+    static byte[] sample() {
+        try (InputStream in = Fixtures.class.getResourceAsStream(SAMPLE)) {
+            return in.readAllBytes();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] repeat(byte[] data, int times) {
+        byte[] result = new byte[data.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(data, 0, result, i * data.length, data.length);
+        }
+        return result;
+    }
+
+    static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(data);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Counts every event of decompressed JSON, as most tests need.
+     */
+    static LanguageCounts count(InputStream json) throws IOException {
+        return LanguageRanking.count(json, new EventCounter());
+    }
+
+    /**
+     * Downloads and counts every event of an archive.
+     */
+    static LanguageCounts fetch(URL url, ArchiveCache cache) throws IOException {
+        return LanguageRanking.fetch(url, cache, new EventCounter());
+    }
+}
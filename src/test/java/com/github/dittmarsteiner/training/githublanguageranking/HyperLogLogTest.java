@@ -0,0 +1,76 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class HyperLogLogTest {
+
+    @Test
+    void smallCardinalitiesAreNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.estimate());
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (long id = 1; id <= 100; id++) {
+                sketch.add(id);
+            }
+        }
+        assertEquals(100, sketch.estimate(), 2);
+    }
+
+    @Test
+    void largeCardinalitiesWithinThreeStandardErrors() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long id = 1; id <= 1_000_000; id++) {
+            sketch.add(id * 31);
+        }
+        // 1.04 / sqrt(4096) = 1.6 %
+        assertEquals(1_000_000, sketch.estimate(), 1_000_000 * 0.05);
+    }
+
+    @Test
+    void mergeIsTheUnion() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+        for (long id = 0; id < 60_000; id++) {
+            (id < 40_000 ? a : b).add(id);
+            if (id >= 20_000) {
+                a.add(id - 20_000); // overlapping
+            }
+            union.add(id);
+        }
+        assertEquals(union, a.copy().merge(b));
+        assertEquals(union.estimate(), b.merge(a).estimate());
+        assertTrue(Math.abs(union.estimate() - 60_000) < 60_000 * 0.05);
+    }
+
+    @Test
+    void precisionMustMatch() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(12).merge(new HyperLogLog(10)));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+    }
+}
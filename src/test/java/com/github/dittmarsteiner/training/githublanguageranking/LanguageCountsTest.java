@@ -0,0 +1,107 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class LanguageCountsTest {
+
+    @Test
+    void ofTypes() throws IOException {
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(Fixtures.sample()));
+
+        LanguageCounts pullRequests = counts.ofTypes(List.of("PullRequestEvent"));
+        assertEquals(Map.of("JavaScript", 2L, "Java", 1L), pullRequests.toMap());
+        assertEquals(4, pullRequests.events());
+
+        LanguageCounts activities = counts.ofTypes(
+                List.of("PullRequestEvent", "PullRequestReviewCommentEvent", "ForkEvent", "NoSuchEvent"));
+        assertEquals(counts.toMap(), activities.toMap());
+        assertEquals(7, activities.events());
+        assertEquals(0, counts.ofTypes(List.of("PushEvent")).size());
+    }
+
+    @Test
+    void cubeSurvivesMergeAndNewTypes() throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        LanguageCounts expected = new EventGenerator(5).write(json, 20_000, EventGeneratorTest.HOUR);
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(json.toByteArray()));
+
+        // more types than the initial columns, interned in another order
+        LanguageCounts merged = new LanguageCounts();
+        for (int i = 0; i < 20; i++) {
+            byte[] type = ("Type" + i + "Event").getBytes(StandardCharsets.UTF_8);
+            merged.add(merged.addEvent(type, 0, type.length), new byte[] { 'G', 'o' }, 0, 2);
+        }
+        merged.merge(counts);
+
+        for (String type : List.of("PullRequestEvent", "ForkEvent", "PullRequestReviewCommentEvent")) {
+            assertEquals(expected.ofTypes(List.of(type)).toMap(), merged.ofTypes(List.of(type)).toMap(),
+                    type);
+        }
+        assertEquals(Map.of("Go", 1L), merged.ofTypes(List.of("Type19Event")).toMap());
+        assertEquals(counts.get("Go") + 20, merged.get("Go"));
+    }
+
+    @Test
+    void distinctActorsAndReposMerge() throws IOException {
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(Fixtures.sample()));
+        int java = id(counts, "Java");
+        // a review comment and a pull request, by two actors on two repositories
+        assertEquals(2, counts.distinctActors(java).estimate());
+        assertEquals(2, counts.distinctRepos(java).estimate());
+        assertNull(counts.ofTypes(List.of("PullRequestEvent")).distinctActors(0));
+
+        LanguageCounts merged = new LanguageCounts();
+        merged.add("Go");
+        merged.merge(counts).merge(counts);
+        assertEquals(counts.get("Java") * 2, merged.get("Java"));
+        assertEquals(2, merged.distinctActors(id(merged, "Java")).estimate());
+        assertNull(merged.distinctActors(id(merged, "Go")));
+        // both Java repositories, each counted once per merge
+        SpaceSaving repos = merged.topRepos(id(merged, "Java"));
+        assertEquals(2, repos.countOf(2006));
+        assertEquals(2, repos.countOf(2011));
+
+        StringBuilder csv = new StringBuilder();
+        CsvExport.writeTopRepos(Ranking.all(counts, Ranking.Method.ORDINAL), 1, csv);
+        assertTrue(csv.toString().startsWith(
+                "RANK,LANGUAGE,REPO_RANK,REPO_ID,ACTIVITIES,MAX_OVERCOUNT\n1,Java,1,2006,1,0\n"),
+                csv.toString());
+    }
+
+    private static int id(LanguageCounts counts, String language) {
+        byte[] bytes = language.getBytes(StandardCharsets.UTF_8);
+        return counts.dictionary().find(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class LanguagePairsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sample() throws IOException {
+        try (LanguagePairs pairs = new LanguagePairs(true, true, 1 << 20, dir)) {
+            LanguageRanking.count(new ByteArrayInputStream(Fixtures.sample()),
+                    new EventCounter().withPairs(pairs));
+            pairs.writeRepos(dir.resolve("repos.csv"));
+            pairs.writeActors(dir.resolve("actors.csv"));
+        }
+
+        assertEquals(List.of(LanguagePairs.REPOS_HEADER, "C#,2009,1", "Java,2006,1", "Java,2011,1",
+                "JavaScript,2002,1", "JavaScript,2008,1", "Python,2003,1"),
+                Files.readAllLines(dir.resolve("repos.csv")));
+        assertEquals(List.of(LanguagePairs.ACTORS_HEADER, "C#,109,1", "Java,106,1", "Java,111,1",
+                "JavaScript,102,1", "JavaScript,108,1", "Python,103,1"),
+                Files.readAllLines(dir.resolve("actors.csv")));
+    }
+
+    @Test
+    void spilledEqualsHistogram() throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new EventGenerator(3).write(json, 20_000, LocalDateTime.of(2016, 3, 14, 15, 0));
+        Path csv = dir.resolve("repos.csv");
+        LanguageCounts counts;
+        int runs;
+        try (LanguagePairs pairs = new LanguagePairs(true, false, 4096, dir)) {
+            // two inputs into one instance, as by several threads
+            counts = LanguageRanking.count(new ByteArrayInputStream(json.toByteArray()),
+                    new EventCounter().withPairs(pairs));
+            counts.merge(LanguageRanking.count(new ByteArrayInputStream(json.toByteArray()),
+                    new EventCounter().withPairs(pairs)));
+            runs = pairs.runs();
+            pairs.writeRepos(csv);
+        }
+
+        assertEquals(true, runs > 1, runs + " runs");
+        Map<String, Long> summed = new HashMap<>();
+        String previous = "";
+        List<String> lines = Files.readAllLines(csv);
+        for (String line : lines.subList(1, lines.size())) {
+            int comma = line.lastIndexOf(',');
+            String language = line.substring(0, line.lastIndexOf(',', comma - 1));
+            assertEquals(true, language.compareTo(previous) >= 0, language + " after " + previous);
+            previous = language;
+            summed.merge(language, Long.parseLong(line.substring(comma + 1)), Long::sum);
+        }
+        Map<String, Long> expected = new HashMap<>();
+        counts.toMap().forEach((language, activities) ->
+                expected.put(CsvExport.escape(language), activities));
+        assertEquals(expected, summed);
+    }
+}
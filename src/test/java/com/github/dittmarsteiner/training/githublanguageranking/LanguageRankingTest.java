@@ -0,0 +1,70 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class LanguageRankingTest {
+
+    static final String HOUR = "/2016-03-14-15.json.gz";
+
+    @Test
+    void streamsFromServer() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()
+                .serve(HOUR, Fixtures.gzip(Fixtures.sample()))) {
+            LanguageCounts counts = Fixtures.fetch(server.url(HOUR), null);
+
+            assertEquals(Map.of("JavaScript", 2L, "Java", 2L, "Python", 1L, "C#", 1L),
+                    counts.toMap());
+            assertEquals(11, counts.events());
+        }
+    }
+
+    @Test
+    void missingArchive() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()) {
+            assertThrows(IOException.class, () -> Fixtures.fetch(server.url(HOUR), null));
+        }
+    }
+
+    @Test
+    void csv() throws IOException {
+        LanguageCounts counts = new LanguageCounts();
+        counts.add("Java");
+        counts.add("JavaScript");
+        counts.add("JavaScript");
+        counts.add("C#");
+        StringBuilder csv = new StringBuilder();
+        CsvExport.write(counts, csv);
+
+        assertEquals("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n"
+                + "1,JavaScript,2,50.00 %\n"
+                + "2,C#,1,25.00 %\n"
+                + "3,Java,1,25.00 %\n", csv.toString());
+    }
+}
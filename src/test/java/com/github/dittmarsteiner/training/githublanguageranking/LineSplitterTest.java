@@ -0,0 +1,50 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class LineSplitterTest {
+
+    @Test
+    void linesAcrossBlocks() {
+        byte[] data = "a\r\nbc\n\ndef\nghij".getBytes(StandardCharsets.US_ASCII);
+        for (int block = 1; block <= data.length; block++) {
+            List<String> lines = new ArrayList<>();
+            LineSplitter splitter = new LineSplitter((buf, from, to) -> lines
+                    .add(new String(buf, from, to - from, StandardCharsets.US_ASCII)));
+            for (int i = 0; i < data.length; i += block) {
+                splitter.feed(data, i, Math.min(block, data.length - i));
+            }
+            splitter.finish();
+
+            assertEquals(List.of("a", "bc", "def", "ghij"), lines, "block size " + block);
+            assertEquals(4, splitter.lines());
+        }
+    }
+}
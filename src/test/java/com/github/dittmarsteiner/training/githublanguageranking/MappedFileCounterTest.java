@@ -0,0 +1,216 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class MappedFileCounterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parallelEqualsSequential() throws IOException {
+        Path file = dir.resolve("2016-03-14-15.json");
+        byte[] sample = Fixtures.sample();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < 1000; i++) {
+                out.write(sample);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            long[] bounds = MappedFileCounter.split(channel, 4);
+            assertEquals(5, bounds.length);
+        }
+        LanguageCounts counts = MappedFileCounter.count(file, 4, null, null);
+
+        assertEquals(11_000, counts.events());
+        assertEquals(2_000, counts.get("Java"));
+        assertEquals(2_000, counts.get("JavaScript"));
+        assertEquals(1_000, counts.get("Python"));
+        assertEquals(1_000, counts.get("C#"));
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(Fixtures.count(in).toMap(), counts.toMap());
+        }
+    }
+
+    @Test
+    void deduplicated() throws IOException {
+        Path file = dir.resolve("2016-03-14-15.json");
+        byte[] sample = Fixtures.sample();
+        Files.write(file, Fixtures.repeat(sample, 1000));
+
+        OffHeapLongSet ids = new OffHeapLongSet(11);
+        LanguageCounts counts = MappedFileCounter.count(file, 4, ids, null);
+
+        LanguageCounts once = Fixtures.count(new ByteArrayInputStream(sample));
+        assertEquals(once.toMap(), counts.toMap());
+        assertEquals(once.events(), counts.events());
+        assertEquals(11, ids.size());
+        // the IDs are shared: the same events in another file count nothing
+        assertEquals(0, LanguageRanking.count(new ByteArrayInputStream(sample),
+                new EventCounter(new LanguageCounts(), ids)).events());
+    }
+
+    @Test
+    void chunksStayWithinMappingLimit() throws IOException {
+        for (long size : new long[] { 2L * Integer.MAX_VALUE, 2L * (Integer.MAX_VALUE - (1 << 20)),
+                5L << 30 }) {
+            long[] bounds = MappedFileCounter.split(new Lines(size, 1 << 19), 1);
+            assertEquals(size, bounds[bounds.length - 1]);
+            for (int i = 1; i < bounds.length; i++) {
+                assertTrue(bounds[i] - bounds[i - 1] <= Integer.MAX_VALUE, size + ": " + i);
+                assertTrue(i == bounds.length - 1 || bounds[i] % (1 << 19) == 0, size + ": " + i);
+            }
+        }
+    }
+
+    @Test
+    void empty() throws IOException {
+        Path file = Files.createFile(dir.resolve("empty.json"));
+        assertEquals(0, MappedFileCounter.count(file, 4, null, null).events());
+    }
+
+    /**
+     * A channel of the given size without any storage, a newline ending
+     * every line of the given length.
+     */
+    private static final class Lines extends FileChannel {
+
+        private final long size;
+        private final int line;
+
+        Lines(long size, int line) {
+            this.size = size;
+            this.line = line;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(dst.remaining(), size - position);
+            for (int i = 0; i < n; i++) {
+                dst.put((position + i + 1) % line == 0 ? (byte) '\n' : (byte) 'x');
+            }
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+}
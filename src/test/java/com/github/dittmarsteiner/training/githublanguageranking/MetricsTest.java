@@ -0,0 +1,129 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+
+/**
+ * Metrics are process-wide, the tests look at the difference made by work
+ * on a thread of its own.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class MetricsTest {
+
+    @Test
+    void countsSample() throws Exception {
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        Map<Counter, Long> delta = onThread(() -> {
+            try (ArchiveServerStub server = new ArchiveServerStub()) {
+                server.serve("/sample.json.gz", gz);
+                Fixtures.fetch(server.url("/sample.json.gz"), null);
+            }
+        });
+
+        assertEquals(gz.length, delta.get(Counter.BYTES_DOWNLOADED));
+        assertEquals(Fixtures.sample().length, delta.get(Counter.BYTES_INFLATED));
+        assertEquals(11, delta.get(Counter.LINES));
+        assertEquals(6, delta.get(Counter.EVENTS_MATCHED));
+        assertEquals(1, delta.get(Counter.EVENTS_WITHOUT_LANGUAGE));
+        assertTrue(delta.get(Counter.FETCH_NANOS) > 0);
+        assertTrue(delta.get(Counter.INFLATE_NANOS) > 0);
+        assertTrue(delta.get(Counter.SCAN_NANOS) > 0);
+    }
+
+    @Test
+    void nestedTimeIsExclusive() throws Exception {
+        Map<Counter, Long> delta = onThread(() -> {
+            InputStream slow = new ByteArrayInputStream(new byte[10]) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    Metrics.time(Counter.FETCH_NANOS, 1_000_000_000); // a pretended second
+                    return super.read(b, off, len);
+                }
+            };
+            try (InputStream in = Metrics.metered(slow, Counter.BYTES_INFLATED,
+                    Counter.INFLATE_NANOS)) {
+                in.readAllBytes();
+            }
+        });
+
+        assertEquals(10, delta.get(Counter.BYTES_INFLATED));
+        assertTrue(delta.get(Counter.FETCH_NANOS) >= 1_000_000_000);
+        assertTrue(delta.get(Counter.INFLATE_NANOS) < 500_000_000, "counted as fetch only");
+    }
+
+    @Test
+    void json() {
+        Map<Counter, Long> snapshot = Metrics.snapshot();
+        String json = Metrics.json(snapshot);
+
+        assertTrue(json.matches("\\{(\"[a-zA-Z]+\":-?\\d+,){9}\"exportNanos\":-?\\d+\\}"), json);
+        assertTrue(json.startsWith("{\"bytesDownloaded\":"), json);
+    }
+
+    @Test
+    void progressLine() {
+        Map<Counter, Long> before = Metrics.snapshot();
+        String line = Metrics.line(before, before, 3_000_000_000L);
+
+        assertTrue(line.startsWith("Progress after 3 s: "), line);
+        assertTrue(line.endsWith("fetch 0 %, inflate 0 %, scan 0 %"), line);
+    }
+
+    interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs on a new thread, terminated when the snapshot is taken.
+     */
+    private static Map<Counter, Long> onThread(Work work) throws Exception {
+        Map<Counter, Long> before = Metrics.snapshot();
+        Exception[] failure = new Exception[1];
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            }
+            catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Map<Counter, Long> after = Metrics.snapshot();
+        Map<Counter, Long> delta = new EnumMap<>(Counter.class);
+        after.forEach((counter, value) -> delta.put(counter, value - before.get(counter)));
+        return delta;
+    }
+}
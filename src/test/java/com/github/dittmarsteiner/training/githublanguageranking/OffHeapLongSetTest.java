@@ -0,0 +1,122 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class OffHeapLongSetTest {
+
+    @Test
+    void addAndContains() {
+        OffHeapLongSet set = new OffHeapLongSet(100);
+        assertTrue(set.add(3763000001L));
+        assertFalse(set.add(3763000001L));
+        assertTrue(set.contains(3763000001L));
+        assertFalse(set.contains(3763000002L));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void zero() {
+        OffHeapLongSet set = new OffHeapLongSet(100);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void growsBeyondExpected() {
+        OffHeapLongSet set = new OffHeapLongSet(10, 1);
+        long memory = set.memory();
+        for (long id = 1; id <= 100_000; id++) {
+            assertTrue(set.add(id * 7919));
+        }
+        assertEquals(100_000, set.size());
+        assertTrue(set.memory() > memory);
+        for (long id = 1; id <= 100_000; id++) {
+            assertTrue(set.contains(id * 7919));
+            assertFalse(set.contains(id * 7919 + 1));
+        }
+    }
+
+    @Test
+    void remove() {
+        OffHeapLongSet set = new OffHeapLongSet(10, 1);
+        for (long id = 0; id < 10_000; id++) {
+            set.add(id * 7919);
+        }
+        for (long id = 0; id < 10_000; id += 2) {
+            assertTrue(set.remove(id * 7919));
+            assertFalse(set.remove(id * 7919));
+        }
+        assertEquals(5_000, set.size());
+        for (long id = 0; id < 10_000; id++) {
+            assertEquals(id % 2 == 1, set.contains(id * 7919), "" + id);
+        }
+        assertTrue(set.add(0));
+    }
+
+    @Test
+    void concurrentAddsAreCountedOnce() throws Exception {
+        OffHeapLongSet set = new OffHeapLongSet(1000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            // every thread adds the same overlapping range
+            List<Future<Integer>> added = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * 10_000;
+                added.add(pool.submit(() -> {
+                    int n = 0;
+                    for (long id = offset; id < offset + 50_000; id++) {
+                        if (set.add(id)) {
+                            n++;
+                        }
+                    }
+                    return n;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> future : added) {
+                total += future.get();
+            }
+            assertEquals(80_000, total);
+            assertEquals(80_000, set.size());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
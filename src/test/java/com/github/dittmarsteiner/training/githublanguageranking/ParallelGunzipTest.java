@@ -0,0 +1,127 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Metrics.Counter;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ParallelGunzipTest {
+
+    @Test
+    void multiMember() throws IOException {
+        byte[] json = Fixtures.repeat(Fixtures.sample(), 2000);
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        Random random = new Random(42);
+        for (int i = 0; i < json.length;) {
+            // members cut anywhere, not at line boundaries
+            int n = Math.min(json.length - i, 100_000 + random.nextInt(100_000));
+            members.write(gzip(json, i, n, Deflater.BEST_SPEED));
+            i += n;
+        }
+        ByteBuffer gz = ByteBuffer.wrap(members.toByteArray());
+
+        assertEquals(4, ParallelGunzip.split(gz, 4).length);
+        assertCounts(expected(gz), ParallelGunzip.count(gz, 4));
+    }
+
+    @Test
+    void singleMember() throws IOException {
+        ByteBuffer gz = ByteBuffer.wrap(Fixtures.gzip(Fixtures.repeat(Fixtures.sample(), 2000)));
+
+        assertArrayEquals(new int[] { 0 }, ParallelGunzip.split(gz, 4));
+        assertCounts(expected(gz), ParallelGunzip.count(gz, 4));
+    }
+
+    @Test
+    void falseHeaderInStoredData() throws IOException {
+        // a complete, valid member hidden as a line of uncompressed data
+        byte[] hidden = Fixtures.gzip(Fixtures.repeat(Fixtures.sample(), 10));
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write(Fixtures.repeat(Fixtures.sample(), 200));
+        json.write(hidden);
+        json.write('\n');
+        json.write(Fixtures.repeat(Fixtures.sample(), 200));
+        byte[] stored = gzip(json.toByteArray(), 0, json.size(), Deflater.NO_COMPRESSION);
+
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            members.write(stored);
+        }
+        ByteBuffer gz = ByteBuffer.wrap(members.toByteArray());
+        LanguageCounts expected = expected(gz);
+
+        Map<Counter, Long> before = Metrics.snapshot();
+        assertCounts(expected, ParallelGunzip.count(gz, 16));
+        Map<Counter, Long> after = Metrics.snapshot();
+
+        // segments started at the false header are discarded, not reported
+        assertEquals(4L * json.size(), after.get(Counter.BYTES_INFLATED) - before.get(Counter.BYTES_INFLATED));
+        long lines = 0;
+        for (byte b : json.toByteArray()) {
+            lines += b == '\n' ? 1 : 0;
+        }
+        assertEquals(4 * lines, after.get(Counter.LINES) - before.get(Counter.LINES));
+    }
+
+    @Test
+    void corrupt() {
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        gz[gz.length - 6] ^= 1; // CRC
+        assertThrows(IOException.class, () -> ParallelGunzip.count(ByteBuffer.wrap(gz), 4));
+    }
+
+    private static LanguageCounts expected(ByteBuffer gz) throws IOException {
+        return Fixtures.count(new GZIPInputStream(new ByteArrayInputStream(gz.array())));
+    }
+
+    private static void assertCounts(LanguageCounts expected, LanguageCounts actual) {
+        assertEquals(expected.toMap(), actual.toMap());
+        assertEquals(expected.events(), actual.events());
+    }
+
+    private static byte[] gzip(byte[] data, int off, int len, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gz.write(data, off, len);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.dittmarsteiner.training.githublanguageranking.SegmentStore.CorruptSegmentException;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class PartialResultTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        PartialResult partial = new PartialResult(List.of("2016-03-14-15.json.gz", "2016-03-14-16.json.gz"),
+                Fixtures.count(new ByteArrayInputStream(Fixtures.sample())));
+        Path file = dir.resolve("shard.partial");
+        partial.write(file);
+
+        PartialResult read = PartialResult.read(file);
+
+        assertEquals(partial.files(), read.files());
+        assertEquals(partial.counts().toMap(), read.counts().toMap());
+        assertEquals(partial.counts().events(), read.counts().events());
+        for (int id = 0; id < partial.counts().size(); id++) {
+            assertEquals(partial.counts().distinctActors(id), read.counts().distinctActors(id));
+        }
+    }
+
+    @Test
+    void mergeRefusesFilesCountedTwice() throws IOException {
+        PartialResult first = new PartialResult(List.of("2016-03-14-15.json.gz"),
+                Fixtures.count(new ByteArrayInputStream(Fixtures.sample())));
+        PartialResult second = new PartialResult(List.of("2016-03-14-16.json.gz"),
+                Fixtures.count(new ByteArrayInputStream(Fixtures.sample())));
+
+        PartialResult merged = new PartialResult().merge(first).merge(second);
+
+        assertEquals(Set.of("2016-03-14-15.json.gz", "2016-03-14-16.json.gz"), merged.files());
+        assertEquals(22, merged.counts().events());
+        assertEquals(4, merged.counts().get("Java"));
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(first));
+    }
+
+    @Test
+    void corrupt() {
+        byte[] bytes = new PartialResult(List.of("2016-03-14-15.json.gz"), new LanguageCounts()).encode();
+        bytes[7] ^= 1;
+
+        assertThrows(CorruptSegmentException.class, () -> PartialResult.decode(ByteBuffer.wrap(bytes)));
+        assertThrows(CorruptSegmentException.class,
+                () -> PartialResult.decode(ByteBuffer.wrap(new byte[] { 'G', 'L', 'R', 'P' })));
+    }
+}
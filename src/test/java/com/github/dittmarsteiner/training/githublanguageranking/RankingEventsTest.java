@@ -0,0 +1,91 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class RankingEventsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recorded() throws IOException {
+        Path file = dir.resolve("2016-03-14-15.json");
+        Files.write(file, Fixtures.repeat(Fixtures.sample(), 300));
+        Path jfr = dir.resolve("ranking.jfr");
+
+        LanguageCounts counts;
+        StringWriter csv = new StringWriter();
+        try (Recording recording = new Recording()) {
+            recording.enable(RankingEvents.PREFIX + "File");
+            recording.enable(RankingEvents.PREFIX + "Chunk");
+            recording.enable(RankingEvents.PREFIX + "Export");
+            recording.start();
+            counts = LanguageRanking.count(file, 4, null, null);
+            CsvExport.write(counts, csv);
+            recording.stop();
+            recording.dump(jfr);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfr);
+
+        List<RecordedEvent> files = named(events, "File");
+        assertEquals(1, files.size());
+        assertEquals(file.toString(), files.get(0).getString("source"));
+        assertEquals(Files.size(file), files.get(0).getLong("bytes"));
+        assertEquals(3_300, files.get(0).getLong("events"));
+        assertEquals(4, files.get(0).getInt("languages"));
+        assertFalse(files.get(0).getDuration().isNegative());
+
+        List<RecordedEvent> chunks = named(events, "Chunk");
+        assertTrue(chunks.size() > 1, "chunks: " + chunks.size());
+        assertEquals(Files.size(file), chunks.stream().mapToLong(e -> e.getLong("bytes")).sum());
+        assertEquals(3_300, chunks.stream().mapToLong(e -> e.getLong("events")).sum());
+
+        List<RecordedEvent> exports = named(events, "Export");
+        assertEquals(1, exports.size());
+        assertEquals(csv.toString().length(), exports.get(0).getLong("bytes"));
+        assertEquals(4, exports.get(0).getInt("languages"));
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(RankingEvents.PREFIX + name))
+                .collect(Collectors.toList());
+    }
+}
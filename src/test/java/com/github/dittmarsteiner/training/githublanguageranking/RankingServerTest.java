@@ -0,0 +1,201 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class RankingServerTest {
+
+    private final AtomicInteger counted = new AtomicInteger();
+
+    /** Every hour is the sample, but those of 2016-03-16 are not archived yet. */
+    private LanguageCounts count(HourRange range, Collection<LocalDateTime> hours)
+            throws IOException {
+        counted.incrementAndGet();
+        LanguageCounts counts = new LanguageCounts();
+        for (LocalDateTime hour : range.hours()) {
+            if (hour.getDayOfMonth() != 16) {
+                counts.merge(Fixtures.count(new ByteArrayInputStream(Fixtures.sample())));
+                hours.add(hour);
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    void cachedGzipAndNotModified() throws IOException {
+        try (RankingServer server = server(1 << 20)) {
+            HttpURLConnection first = get(server, "/ranking?from=2016-03-14-0&to=2016-03-14-1&top=2", null);
+            assertEquals(200, first.getResponseCode());
+            assertEquals("gzip", first.getHeaderField("Content-Encoding"));
+            String etag = first.getHeaderField("ETag");
+            String csv = body(first);
+            assertEquals("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n1,Java,4,33.33 %\n2,JavaScript,4,33.33 %\n", csv);
+
+            HttpURLConnection second = get(server, "/ranking?top=2&to=2016-03-14-1&from=2016-03-14-0", etag);
+            assertEquals(304, second.getResponseCode());
+            assertEquals(etag, second.getHeaderField("ETag"));
+            assertEquals(1, counted.get());
+            assertEquals(1, server.hits());
+
+            HttpURLConnection plain = (HttpURLConnection) new URL(url(server,
+                    "/ranking?from=2016-03-14-0&to=2016-03-14-1&top=2")).openConnection();
+            plain.setRequestProperty("Accept-Encoding", "identity");
+            assertNull(plain.getHeaderField("Content-Encoding"));
+            assertEquals(csv, new String(plain.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void jsonAndTypes() throws IOException {
+        try (RankingServer server = server(1 << 20)) {
+            HttpURLConnection json = get(server, "/ranking?from=2016-03-14-15&types=ForkEvent&format=json", null);
+            assertEquals("application/json", json.getHeaderField("Content-Type"));
+            assertEquals("{\"from\":\"2016-03-14-15\",\"to\":\"2016-03-14-15\",\"total\":2,\"events\":2,"
+                    + "\"rows\":[{\"rank\":1,\"language\":\"C#\",\"activities\":1,\"proportion\":50.00},"
+                    + "{\"rank\":2,\"language\":\"Python\",\"activities\":1,\"proportion\":50.00}]}\n",
+                    body(json));
+        }
+    }
+
+    @Test
+    void badRequests() throws IOException {
+        try (RankingServer server = server(1 << 20)) {
+            assertEquals(400, get(server, "/ranking", null).getResponseCode());
+            assertEquals(400, get(server, "/ranking?from=yesterday", null).getResponseCode());
+            assertEquals(400, get(server, "/ranking?from=2016-03-14-0&format=xml", null).getResponseCode());
+            assertEquals(400, get(server, "/ranking?from=2016-01-01-0&to=2017-12-31-0", null).getResponseCode());
+            assertEquals(404, get(server, "/rankings", null).getResponseCode());
+            assertEquals(0, counted.get());
+        }
+    }
+
+    @Test
+    void incompleteRangeIsNotCached() throws IOException {
+        try (RankingServer server = server(1 << 20)) {
+            for (int i = 1; i <= 2; i++) {
+                HttpURLConnection partial = get(server, "/ranking?from=2016-03-15-23&to=2016-03-16-0", null);
+                assertEquals("no-cache", partial.getHeaderField("Cache-Control"));
+                assertTrue(body(partial).startsWith("RANK,LANGUAGE,ACTIVITIES,PROPORTION\n1,Java,2,"));
+                assertEquals(i, counted.get());
+            }
+            assertEquals(0, server.hits());
+            assertNull(get(server, "/ranking?from=2016-03-15-23", null).getHeaderField("Cache-Control"));
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        CsvExport.write(count(HourRange.parse("2016-03-14-0", "2016-03-14-0"), new ArrayList<>()), csv);
+        counted.set(0);
+        long size = new RankingServer.Response(csv.toString().getBytes(StandardCharsets.UTF_8), "text/csv",
+                true).size();
+        try (RankingServer server = server(size * 5 / 2)) { // two responses
+            for (int hour = 0; hour < 3; hour++) {
+                body(get(server, "/ranking?from=2016-03-14-" + hour, null));
+            }
+            assertEquals(3, counted.get());
+            assertTrue(server.evictions() >= 1);
+            body(get(server, "/ranking?from=2016-03-14-2", null)); // most recent, still cached
+            assertEquals(3, counted.get());
+            body(get(server, "/ranking?from=2016-03-14-0", null)); // evicted first
+            assertEquals(4, counted.get());
+        }
+    }
+
+    @Test
+    void concurrentMissesComputeOnce() throws Exception {
+        try (RankingServer server = server(1 << 20)) {
+            ExecutorService clients = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<String>> bodies = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    bodies.add(clients.submit(() -> body(get(server,
+                            "/ranking?from=2016-03-14-0&to=2016-03-15-23", null))));
+                }
+                StringBuilder expected = new StringBuilder();
+                CsvExport.write(Ranking.all(count(HourRange.parse("2016-03-14-0", "2016-03-15-23"),
+                        new ArrayList<>()),
+                        Method.ORDINAL), expected);
+                for (Future<String> body : bodies) {
+                    assertEquals(expected.toString(), body.get());
+                }
+                assertEquals(2, counted.get()); // the server's and the expectation
+                assertEquals(1, server.misses());
+                assertEquals(31, server.hits() + server.joined());
+            }
+            finally {
+                clients.shutdownNow();
+            }
+        }
+    }
+
+    private RankingServer server(long cacheBytes) throws IOException {
+        return new RankingServer(new InetSocketAddress("127.0.0.1", 0), this::count, 4, cacheBytes);
+    }
+
+    private static String url(RankingServer server, String path) {
+        return "http://127.0.0.1:" + server.port() + path;
+    }
+
+    private static HttpURLConnection get(RankingServer server, String path, String etag)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url(server, path)).openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        try (InputStream in = "gzip".equals(connection.getHeaderField("Content-Encoding"))
+                ? new GZIPInputStream(connection.getInputStream())
+                : connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
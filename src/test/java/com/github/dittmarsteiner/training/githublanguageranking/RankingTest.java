@@ -0,0 +1,129 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class RankingTest {
+
+    @Test
+    void ties() {
+        LanguageCounts counts = counts("Ruby", 3, "Java", 5, "Go", 3, "C", 1, "Rust", 3);
+
+        assertEquals(List.of("Java", "Go", "Ruby", "Rust", "C"), languages(Ranking.all(counts, Method.ORDINAL)));
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5 }, ranks(Ranking.all(counts, Method.ORDINAL)));
+        assertArrayEquals(new int[] { 1, 2, 2, 2, 5 }, ranks(Ranking.all(counts, Method.COMPETITION)));
+        assertArrayEquals(new int[] { 1, 2, 2, 2, 3 }, ranks(Ranking.all(counts, Method.DENSE)));
+    }
+
+    @Test
+    void top() {
+        LanguageCounts counts = counts("Ruby", 3, "Java", 5, "Go", 3, "C", 1, "Rust", 3);
+
+        Ranking top = Ranking.top(counts, 3, Method.COMPETITION);
+        assertEquals(List.of("Java", "Go", "Ruby"), languages(top));
+        assertArrayEquals(new int[] { 1, 2, 2 }, ranks(top));
+        assertEquals(15, top.total());
+
+        assertEquals(0, Ranking.top(counts, 0, Method.DENSE).size());
+        assertEquals(5, Ranking.top(counts, 100, Method.DENSE).size());
+        assertEquals(0, Ranking.all(new LanguageCounts(), Method.DENSE).size());
+    }
+
+    @Test
+    void topEqualsSortedPrefix() {
+        SplittableRandom random = new SplittableRandom(7);
+        LanguageCounts counts = new LanguageCounts();
+        for (int i = 0; i < 20_000; i++) {
+            // few distinct counts, many ties
+            counts.add("Language-" + random.nextInt(500));
+        }
+        List<Entry<String, Long>> sorted = new ArrayList<>(counts.toMap().entrySet());
+        sorted.sort(Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+
+        for (int k : new int[] { 1, 20, 499, 500, 501 }) {
+            Ranking top = Ranking.top(counts, k, Method.ORDINAL);
+            assertEquals(Math.min(k, 500), top.size());
+            for (int row = 0; row < top.size(); row++) {
+                assertEquals(sorted.get(row).getKey(), top.language(row));
+                assertEquals(sorted.get(row).getValue(), top.activities(row));
+            }
+        }
+    }
+
+    @Test
+    void escapedSpellingsAreOneLanguage() {
+        LanguageCounts counts = new LanguageCounts();
+        add(counts, "C\\u002b\\u002b", 2);
+        add(counts, "Java", 3);
+        add(counts, "C++", 2);
+        add(counts, "Obj\\u0065ctive-C", 1);
+        add(counts, "Objectiv\\u0065-C", 1);
+
+        Ranking ranking = Ranking.all(counts, Method.ORDINAL);
+        assertEquals(List.of("C++", "Java", "Objective-C"), languages(ranking));
+        assertEquals(4, ranking.activities(0));
+        assertEquals(2, ranking.activities(2));
+    }
+
+    private static void add(LanguageCounts counts, String raw, long count) {
+        byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+        counts.add(bytes, 0, bytes.length, count);
+    }
+
+    private static LanguageCounts counts(Object... languageAndCount) {
+        LanguageCounts counts = new LanguageCounts();
+        for (int i = 0; i < languageAndCount.length; i += 2) {
+            add(counts, (String) languageAndCount[i], (Integer) languageAndCount[i + 1]);
+        }
+        return counts;
+    }
+
+    private static List<String> languages(Ranking ranking) {
+        List<String> languages = new ArrayList<>();
+        for (int row = 0; row < ranking.size(); row++) {
+            languages.add(ranking.language(row));
+        }
+        return languages;
+    }
+
+    private static int[] ranks(Ranking ranking) {
+        int[] ranks = new int[ranking.size()];
+        for (int row = 0; row < ranks.length; row++) {
+            ranks[row] = ranking.rank(row);
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class SegmentStoreTest {
+
+    private static final HourRange DAY = HourRange.parse("2016-03-14-0", "2016-03-14-23");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        LanguageCounts counts = Fixtures.count(new ByteArrayInputStream(Fixtures.sample()));
+        counts.addEvent(); // untyped
+        LanguageCounts decoded = SegmentStore.decode(ByteBuffer.wrap(SegmentStore.encode(counts)));
+
+        assertEquals(counts.toMap(), decoded.toMap());
+        assertEquals(12, decoded.events());
+        assertEquals(4, decoded.eventsOf("PullRequestEvent"));
+        for (int id = 0; id < counts.size(); id++) {
+            assertEquals(counts.distinctActors(id), decoded.distinctActors(id));
+            assertEquals(counts.distinctRepos(id), decoded.distinctRepos(id));
+            SpaceSaving repos = counts.topRepos(id);
+            if (repos != null) {
+                for (int slot = 0; slot < repos.size(); slot++) {
+                    assertEquals(repos.count(slot), decoded.topRepos(id).countOf(repos.key(slot)));
+                }
+            }
+        }
+        assertEquals(2, decoded.eventsOf("ForkEvent"));
+        assertEquals(counts.ofTypes(List.of("ForkEvent")).toMap(),
+                decoded.ofTypes(List.of("ForkEvent")).toMap());
+        assertEquals(Map.of("JavaScript", 2L, "Java", 1L),
+                decoded.ofTypes(List.of("PullRequestEvent")).toMap());
+    }
+
+    @Test
+    void corruptSegmentIsRebuilt() throws IOException {
+        SegmentStore store = new SegmentStore(dir);
+        LocalDateTime hour = DAY.hours().get(15);
+        store.write(hour, Fixtures.count(new ByteArrayInputStream(Fixtures.sample())));
+        byte[] bytes = Files.readAllBytes(store.path(hour));
+        bytes[12] ^= 1;
+        Files.write(store.path(hour), bytes);
+
+        assertThrows(SegmentStore.CorruptSegmentException.class,
+                () -> SegmentStore.decode(ByteBuffer.wrap(bytes)));
+        assertNull(store.read(hour));
+        assertEquals(false, Files.exists(store.path(hour)));
+    }
+
+    @Test
+    void rangeMergesSegments() throws IOException {
+        SegmentStore store = new SegmentStore(dir);
+        try (ArchiveServerStub server = ArchiveSchedulerTest.serve(DAY)) {
+            LanguageCounts first = new ArchiveScheduler(server.url("/"), 4, 1, 1)
+                    .withSegments(store).count(DAY);
+            assertEquals(24, server.requests());
+
+            Files.write(store.path(DAY.hours().get(3)), new byte[] { 1, 2, 3 });
+            LanguageCounts second = new ArchiveScheduler(server.url("/"), 4, 1, 1)
+                    .withSegments(store).count(DAY);
+
+            assertEquals(25, server.requests()); // only the corrupt hour again
+            assertEquals(first.toMap(), second.toMap());
+            assertEquals(24 * 11, second.events());
+            assertEquals(24 * 4, second.eventsOf("PullRequestEvent"));
+        }
+    }
+}
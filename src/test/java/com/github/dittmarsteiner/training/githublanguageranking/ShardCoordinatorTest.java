@@ -0,0 +1,121 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.dittmarsteiner.training.githublanguageranking.Ranking.Method;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class ShardCoordinatorTest {
+
+    private static final HourRange HOURS = HourRange.parse("2016-03-14-10", "2016-03-14-16");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void split() {
+        List<HourRange> shards = HOURS.split(3);
+
+        assertEquals(List.of("2016-03-14-10..2016-03-14-12", "2016-03-14-13..2016-03-14-14",
+                "2016-03-14-15..2016-03-14-16"),
+                shards.stream().map(HourRange::toString).collect(Collectors.toList()));
+        assertEquals(7, HOURS.split(100).size());
+        assertEquals(1, HOURS.split(1).size());
+    }
+
+    @Test
+    void shardedEqualsSingleProcess() throws IOException {
+        try (ArchiveServerStub server = new ArchiveServerStub()) {
+            int seed = 0;
+            for (LocalDateTime hour : HOURS.hours()) {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                new EventGenerator(seed++).write(json, 2_000, hour);
+                server.serve("/" + HourRange.fileName(hour), Fixtures.gzip(json.toByteArray()));
+            }
+            String missing = HourRange.fileName(HOURS.hours().get(4));
+            server.remove("/" + missing);
+
+            LanguageCounts single = new ArchiveScheduler(server.url("/"), 4, 1, 1).count(HOURS);
+            PartialResult sharded = new ShardCoordinator(HOURS, 3, dir)
+                    .withWorkerArguments(List.of("--base-url", server.url("/").toString(),
+                            "--attempts", "1", "--progress", "0"))
+                    .withJvmOptions(List.of("-Xmx64m"))
+                    .run();
+
+            assertEquals(HOURS.hours().stream().map(HourRange::fileName)
+                    .filter(file -> !file.equals(missing)).collect(Collectors.toSet()),
+                    sharded.files());
+            assertEquals(single.events(), sharded.counts().events());
+            assertEquals(csv(single), csv(sharded.counts()));
+        }
+    }
+
+    @Test
+    void failingShardFailsTheRun() throws IOException {
+        try (ArchiveServerStub server = ArchiveSchedulerTest.serve(HOURS)) {
+            server.fail("/" + HourRange.fileName(HOURS.hours().get(6)), 1);
+            ShardCoordinator coordinator = new ShardCoordinator(HOURS, 2, dir)
+                    .withWorkerArguments(List.of("--base-url", server.url("/").toString(),
+                            "--attempts", "1", "--progress", "0"));
+
+            IOException e = assertThrows(IOException.class, coordinator::run);
+            assertEquals(true, e.getMessage().startsWith("Shard 1 "), e.getMessage());
+        }
+    }
+
+    @Test
+    void failureIsNoticedWhileOtherShardsRun() throws IOException {
+        try (ArchiveServerStub server = ArchiveSchedulerTest.serve(HOURS)) {
+            server.hold("/" + HourRange.fileName(HOURS.hours().get(0)));
+            server.fail("/" + HourRange.fileName(HOURS.hours().get(6)), 1);
+            ShardCoordinator coordinator = new ShardCoordinator(HOURS, 2, dir)
+                    .withWorkerArguments(List.of("--base-url", server.url("/").toString(),
+                            "--attempts", "1", "--progress", "0"));
+
+            IOException e = assertTimeoutPreemptively(Duration.ofSeconds(20),
+                    () -> assertThrows(IOException.class, coordinator::run));
+            assertEquals(true, e.getMessage().startsWith("Shard 1 "), e.getMessage());
+        }
+    }
+
+    private static String csv(LanguageCounts counts) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        Ranking ranking = Ranking.all(counts, Method.COMPETITION);
+        CsvExport.write(ranking, true, csv);
+        CsvExport.writeTopRepos(ranking, 3, csv);
+        return csv.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class SpaceSavingTest {
+
+    @Test
+    void exactBelowCapacity() {
+        SpaceSaving sketch = new SpaceSaving(8);
+        for (long repo = 1; repo <= 8; repo++) {
+            for (long i = 0; i < repo; i++) {
+                sketch.add(repo * 1000);
+            }
+        }
+        int[] top = sketch.top(3);
+        assertEquals(3, top.length);
+        assertEquals(8000, sketch.key(top[0]));
+        assertEquals(8, sketch.count(top[0]));
+        assertEquals(0, sketch.error(top[0]));
+        assertEquals(7000, sketch.key(top[1]));
+        assertEquals(6, sketch.countOf(6000));
+        assertEquals(0, sketch.countOf(9000));
+    }
+
+    @Test
+    void heavyHittersWithinBounds() {
+        SplittableRandom random = new SplittableRandom(11);
+        SpaceSaving sketch = new SpaceSaving(64);
+        Map<Long, Long> exact = new HashMap<>();
+        int total = 200_000;
+        for (int i = 0; i < total; i++) {
+            // a bot repository, a few busy ones and a long tail
+            long repo = i % 10 == 0 ? 42 : i % 7 == 0 ? 100 + random.nextInt(5) : 1000 + random.nextInt(50_000);
+            sketch.add(repo);
+            exact.merge(repo, 1L, Long::sum);
+        }
+
+        assertEquals(64, sketch.size());
+        long sum = 0;
+        for (int slot = 0; slot < sketch.size(); slot++) {
+            long truth = exact.get(sketch.key(slot));
+            assertTrue(sketch.count(slot) >= truth);
+            assertTrue(sketch.count(slot) - sketch.error(slot) <= truth);
+            sum += sketch.count(slot);
+        }
+        assertEquals(total, sum); // every occurrence is counted exactly once
+        assertEquals(42, sketch.key(sketch.top(1)[0]));
+        for (long repo = 100; repo < 105; repo++) {
+            assertTrue(sketch.countOf(repo) >= exact.get(repo), "repo " + repo); // > total / 64
+        }
+    }
+
+    @Test
+    void mergeKeepsTheGuarantee() {
+        SplittableRandom random = new SplittableRandom(5);
+        SpaceSaving a = new SpaceSaving(16);
+        SpaceSaving b = new SpaceSaving(16);
+        Map<Long, Long> exact = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long repo = i % 4 == 0 ? 7 : i % 9 == 0 ? 8 : random.nextInt(10_000);
+            (i < 30_000 ? a : b).add(repo);
+            exact.merge(repo, 1L, Long::sum);
+        }
+        a.merge(b);
+
+        assertEquals(16, a.size());
+        int[] top = a.top(2);
+        assertArrayEquals(new long[] { 7, 8 }, new long[] { a.key(top[0]), a.key(top[1]) });
+        for (int slot = 0; slot < a.size(); slot++) {
+            long truth = exact.get(a.key(slot));
+            assertTrue(a.count(slot) >= truth);
+            assertTrue(a.count(slot) - a.error(slot) <= truth);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class SpillingAggregatorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void spillsAndMergesExactly() throws IOException {
+        // groups sort descending, to prove the order is the given one
+        SpillingAggregator aggregator = new SpillingAggregator(4096, dir, (a, b) -> Integer.compare(b, a));
+        Map<String, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 50_000; i++) {
+            int group = random.nextInt(5);
+            long key = random.nextInt(3) == 0 ? random.nextLong(Long.MAX_VALUE) : random.nextInt(2_000);
+            aggregator.add(group, key, 1 + i % 3);
+            expected.merge(group + "/" + key, 1L + i % 3, Long::sum);
+        }
+        assertTrue(aggregator.runs() > 10, aggregator.runs() + " runs");
+        assertTrue(aggregator.spilledBytes() > 0);
+
+        Map<String, Long> merged = new TreeMap<>();
+        List<long[]> order = new ArrayList<>();
+        aggregator.forEach((group, key, count) -> {
+            assertEquals(null, merged.put(group + "/" + key, count), "reported twice");
+            order.add(new long[] { group, key });
+        });
+
+        assertEquals(expected, merged);
+        for (int i = 1; i < order.size(); i++) {
+            long[] previous = order.get(i - 1);
+            long[] current = order.get(i);
+            assertTrue(previous[0] > current[0] || previous[0] == current[0] && previous[1] < current[1]);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count(), "runs deleted");
+        }
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test
+    void inMemoryOnly() throws IOException {
+        SpillingAggregator aggregator = new SpillingAggregator(1 << 20, dir, Integer::compare);
+        aggregator.add(1, 5, 1);
+        aggregator.add(0, 9, 2);
+        aggregator.add(1, 5, 3);
+        List<String> rows = new ArrayList<>();
+
+        aggregator.forEach((group, key, count) -> rows.add(group + "," + key + "," + count));
+
+        assertEquals(List.of("0,9,2", "1,5,4"), rows);
+        assertEquals(0, aggregator.runs());
+    }
+
+    @Test
+    void negativeKeys() {
+        SpillingAggregator aggregator = new SpillingAggregator(1 << 10, dir, Integer::compare);
+
+        assertThrows(IllegalArgumentException.class, () -> aggregator.add(0, -1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new SpillingAggregator(100, dir, Integer::compare));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.dittmarsteiner.training.githublanguageranking.StagedPipeline.StageStats;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+class StagedPipelineTest {
+
+    @Test
+    void sample() throws IOException {
+        LanguageCounts counts = new StagedPipeline(2, 1, 4, 1 << 16)
+                .run(new ByteArrayInputStream(Fixtures.gzip(Fixtures.sample())));
+
+        assertEquals(Fixtures.count(new ByteArrayInputStream(Fixtures.sample())).toMap(),
+                counts.toMap());
+        assertEquals(4, counts.eventsOf("PullRequestEvent"));
+        assertEquals(2, counts.eventsOf("ForkEvent"));
+    }
+
+    @Test
+    void deduplicated() throws IOException {
+        byte[] twice = Fixtures.repeat(Fixtures.sample(), 2);
+        LanguageCounts counts = new StagedPipeline(2, 2, 4, 1 << 16)
+                .withDedup(new OffHeapLongSet(11))
+                .run(new ByteArrayInputStream(Fixtures.gzip(twice)));
+
+        assertEquals(Fixtures.count(new ByteArrayInputStream(Fixtures.sample())).toMap(),
+                counts.toMap());
+        assertEquals(11, counts.events());
+    }
+
+    @Test
+    void smallBlocksAndQueues() throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        LanguageCounts expected = new EventGenerator(42).write(json, 20_000, EventGeneratorTest.HOUR);
+
+        // blocks shorter than most lines, queues of one: everything waits on everything
+        StagedPipeline pipeline = new StagedPipeline(3, 2, 1, 512);
+        LanguageCounts counts = pipeline.run(new ByteArrayInputStream(Fixtures.gzip(json.toByteArray())));
+
+        assertEquals(expected.toMap(), counts.toMap());
+        assertEquals(20_000, counts.events());
+        assertEquals(expected.eventsOf("PushEvent"), counts.eventsOf("PushEvent"));
+
+        List<StageStats> stages = pipeline.stages();
+        assertEquals(5, stages.size());
+        assertEquals("extract", stages.get(3).name);
+        assertEquals(3, stages.get(3).threads);
+        for (StageStats stage : stages) {
+            assertTrue(stage.blocks > 0, stage::toString);
+            assertTrue(stage.busyNanos > 0, stage::toString);
+            assertEquals(0, stage.queueDepth, stage::toString);
+        }
+    }
+
+    @Test
+    void corruptArchive() {
+        byte[] gz = Fixtures.gzip(Fixtures.repeat(Fixtures.sample(), 100));
+        gz[gz.length / 2] ^= 0x55;
+
+        assertThrows(IOException.class,
+                () -> new StagedPipeline(2, 2, 2, 1024).run(new ByteArrayInputStream(gz)));
+    }
+
+    @Test
+    void failedRunHandsIdsBack() {
+        byte[] gz = Fixtures.gzip(Fixtures.sample());
+        OffHeapLongSet ids = new OffHeapLongSet(11);
+
+        // without its trailer, the archive fails at its end, after events were extracted
+        assertThrows(IOException.class, () -> new StagedPipeline(2, 2, 2, 1024).withDedup(ids)
+                .run(new ByteArrayInputStream(Arrays.copyOf(gz, gz.length - 8))));
+        assertEquals(0, ids.size());
+    }
+}
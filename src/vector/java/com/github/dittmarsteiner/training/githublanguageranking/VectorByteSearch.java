@@ -0,0 +1,100 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2016, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.training.githublanguageranking;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares a whole vector of bytes per step, 32 with AVX2 and 64 with
+ * AVX-512, and falls back to single bytes for the tail. Compiled from
+ * {@code src/vector/java} on JDK 17+ only, and loaded by
+ * {@link ByteSearch#vector()} if the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class VectorByteSearch extends ByteSearch {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * Most JSON strings are short: keys, IDs, names. Their end is found
+     * sooner byte by byte than by loading a vector.
+     */
+    private static final int SCALAR_PREFIX = 16;
+
+    /**
+     * @throws UnsupportedOperationException if the CPU has no vectors of 16
+     *             bytes or more, the API would be emulated then
+     */
+    public VectorByteSearch() {
+        if (SPECIES.length() < 16) {
+            throw new UnsupportedOperationException(SPECIES + " too narrow");
+        }
+    }
+
+    @Override
+    public int indexOfNewline(byte[] buf, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            VectorMask<Byte> newline = ByteVector.fromArray(SPECIES, buf, i).eq((byte) '\n');
+            if (newline.anyTrue()) {
+                return i + newline.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfQuoteOrBackslash(byte[] buf, int from, int to) {
+        int i = from;
+        for (int prefix = Math.min(to, from + SCALAR_PREFIX); i < prefix; i++) {
+            byte c = buf[i];
+            if (c == '"' || c == '\\') {
+                return i;
+            }
+        }
+        for (int bound = i + SPECIES.loopBound(to - i); i < bound; i += SPECIES.length()) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> found = bytes.eq((byte) '"').or(bytes.eq((byte) '\\'));
+            if (found.anyTrue()) {
+                return i + found.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            byte c = buf[i];
+            if (c == '"' || c == '\\') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "vector " + SPECIES.vectorBitSize() + " bits";
+    }
+}